@@ -0,0 +1,61 @@
+package benchmarks;
+
+import bodies.Body;
+import bodies.Cuboid;
+import bodies.Cylinder;
+import hashtrees.ArrayMerkleTree;
+import hashtrees.HashTree;
+import hashtrees.MutableMerkleTree;
+import java.util.Random;
+
+/**
+ * Creates the trees and values shared by all benchmarks.
+ */
+final class BenchmarkData {
+
+  /**
+   * The number of precomputed random indices, benchmarks cycle through them.
+   */
+  static final int NUMBER_OF_INDICES = 1 << 12;
+
+  private BenchmarkData() {
+    // Generating objects of this class is not intended.
+  }
+
+  /** Returns the given number of distinct bodies. */
+  static Body[] createBodies(int count) {
+    final Body[] bodies = new Body[count];
+    for (int i = 0; i < count; i++) {
+      bodies[i] = (i % 2 == 0) ? new Cuboid(i, i % 7, i % 13) : new Cylinder(i, i % 11);
+    }
+    return bodies;
+  }
+
+  /** Returns random indices in the range [from, to) created from a fixed seed. */
+  static int[] createIndices(int from, int to) {
+    final Random random = new Random(42);
+    final int[] indices = new int[NUMBER_OF_INDICES];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = from + random.nextInt(to - from);
+    }
+    return indices;
+  }
+
+  /**
+   * Creates an empty tree.
+   *
+   * @param implementation either {@code "mutable"} or {@code "array"}
+   * @param leaves the number of leaves
+   */
+  static HashTree<Body> createTree(String implementation, int leaves) {
+    switch (implementation) {
+      case "mutable":
+        return new MutableMerkleTree<Body>(leaves);
+      case "array":
+        return new ArrayMerkleTree<Body>(leaves);
+      default:
+        throw new IllegalArgumentException("Unknown implementation: " + implementation);
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+package benchmarks;
+
+import bodies.Body;
+import hashtrees.HashTree;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the operations of {@link HashTree} for the mutable implementations. Every state creates
+ * only the tree its benchmarks need, so that large trees of different states do not share the
+ * heap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class HashTreeBenchmark {
+
+  /**
+   * Common parameters of all states.
+   */
+  @State(Scope.Benchmark)
+  public abstract static class TreeState {
+
+    @Param({"mutable", "array"})
+    public String implementation;
+
+    @Param({"4", "8", "12", "16", "20", "24"})
+    public int exponent;
+
+    HashTree<Body> tree;
+
+    int next;
+
+    int leaves() {
+      return 1 << exponent;
+    }
+
+  }
+
+  /**
+   * A tree whose leaves all have values, thus every node has a hash.
+   */
+  public static class FilledTree extends TreeState {
+
+    private Body[] elements;
+
+    private int[] positions;
+
+    @Setup
+    public void setUp() {
+      elements = BenchmarkData.createBodies(leaves());
+      positions = BenchmarkData.createIndices(0, leaves());
+      tree = BenchmarkData.createTree(implementation, leaves());
+      for (int i = 0; i < leaves(); i++) {
+        tree.setValue(i, elements[i]);
+      }
+    }
+
+  }
+
+  /**
+   * A tree as used in check mode: the root hash is given and hashes are set below.
+   */
+  public static class CheckSession extends TreeState {
+
+    private int[] indices;
+
+    @Setup
+    public void setUp() {
+      tree = BenchmarkData.createTree(implementation, leaves());
+      tree.setHash(0, 42L);
+      // every node except the root
+      indices = BenchmarkData.createIndices(1, 2 * leaves() - 1);
+    }
+
+  }
+
+  /**
+   * A tree in which half of the leaves, chosen at random, have values.
+   */
+  public static class PartialTree extends TreeState {
+
+    @Setup
+    public void setUp() {
+      final Body[] elements = BenchmarkData.createBodies(leaves());
+      tree = BenchmarkData.createTree(implementation, leaves());
+      final Random random = new Random(7);
+      for (int i = 0; i < leaves(); i++) {
+        if (random.nextBoolean()) {
+          tree.setValue(i, elements[i]);
+        }
+      }
+    }
+
+  }
+
+  @Benchmark
+  public void setValue(FilledTree state) {
+    final int i = state.next++ & (BenchmarkData.NUMBER_OF_INDICES - 1);
+    final int position = state.positions[i];
+    // write a different value than before so that the hashes actually change
+    state.tree.setValue(position, state.elements[(position + i + 1) % state.elements.length]);
+  }
+
+  @Benchmark
+  public void setHash(CheckSession state) {
+    final int i = state.next++ & (BenchmarkData.NUMBER_OF_INDICES - 1);
+    state.tree.setHash(state.indices[i], i);
+  }
+
+  @Benchmark
+  public List<Integer> getMissing(PartialTree state) {
+    return state.tree.getMissing();
+  }
+
+  @Benchmark
+  public boolean isConsistent(FilledTree state) {
+    return state.tree.isConsistent();
+  }
+
+  /**
+   * Clears a tree. Only the first call finds values, but clearing visits all leaves anyway.
+   */
+  @Benchmark
+  public void clear(PartialTree state) {
+    state.tree.clear();
+  }
+
+}
@@ -0,0 +1,88 @@
+package benchmarks;
+
+import bodies.Body;
+import hashtrees.HashTree;
+import hashtrees.MerkleTreeBuilder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link MerkleTreeBuilder#push(Object)} and {@link MerkleTreeBuilder#build()}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MerkleTreeBuilderBenchmark {
+
+  /**
+   * The builder receiving single pushes. It starts with the minimum capacity so that every growth
+   * of the tree is part of the measurement, and is replaced once it holds 2^exponent elements.
+   */
+  @State(Scope.Thread)
+  public static class PushState {
+
+    @Param({"4", "8", "12", "16", "20", "24"})
+    public int exponent;
+
+    private Body[] elements;
+
+    private MerkleTreeBuilder<Body> builder;
+
+    private int pushed;
+
+    @Setup
+    public void setUp() {
+      elements = BenchmarkData.createBodies(1 << exponent);
+      builder = new MerkleTreeBuilder<Body>(2);
+    }
+
+  }
+
+  /**
+   * A builder holding 2^exponent elements.
+   */
+  @State(Scope.Benchmark)
+  public static class FilledState {
+
+    @Param({"4", "8", "12", "16", "20", "24"})
+    public int exponent;
+
+    private MerkleTreeBuilder<Body> builder;
+
+    @Setup
+    public void setUp() {
+      builder = new MerkleTreeBuilder<Body>(2);
+      for (Body element : BenchmarkData.createBodies(1 << exponent)) {
+        builder.push(element);
+      }
+    }
+
+  }
+
+  @Benchmark
+  public MerkleTreeBuilder<Body> push(PushState state) {
+    if (state.pushed == state.elements.length) {
+      state.builder = new MerkleTreeBuilder<Body>(2);
+      state.pushed = 0;
+    }
+    return state.builder.push(state.elements[state.pushed++]);
+  }
+
+  @Benchmark
+  public HashTree<Body> build(FilledState state) {
+    return state.builder.build();
+  }
+
+}
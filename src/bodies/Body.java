@@ -1,8 +1,23 @@
 package bodies;
 
+import hashtrees.Hashable;
+
 /**
- * Abstract class for all classes that represent a 3D-Object.
+ * Abstract class for all classes that represent a 3D-Object. Bodies write their textual
+ * representation directly into the buffer of a hash function, so hashing them as values of a tree
+ * creates no temporary strings.
  */
-public abstract class Body {
+public abstract class Body implements Hashable {
+
+  /**
+   * Returns a textual representation of the body, the characters written by
+   * {@link #appendTo(StringBuilder)}.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder text = new StringBuilder();
+    appendTo(text);
+    return text.toString();
+  }
 
 }
@@ -34,11 +34,12 @@ public class Cuboid extends Body {
   }
 
   /**
-   * Returns a textual representation of the {@code Cuboid}.
+   * Appends a textual representation of the {@code Cuboid}.
    */
   @Override
-  public String toString() {
-    return "Cuboid(" + length + "," + width + "," + height + ")";
+  public void appendTo(StringBuilder text) {
+    text.append("Cuboid(").append(length).append(',').append(width).append(',').append(height)
+        .append(')');
   }
 
 }
@@ -27,11 +27,11 @@ public class Cylinder extends Body {
   }
 
   /**
-   * Returns a textual representation of the {@code Cylinder}.
+   * Appends a textual representation of the {@code Cylinder}.
    */
   @Override
-  public String toString() {
-    return "Cylinder(" + radius + "," + height + ")";
+  public void appendTo(StringBuilder text) {
+    text.append("Cylinder(").append(radius).append(',').append(height).append(')');
   }
 
 }
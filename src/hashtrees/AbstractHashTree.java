@@ -1,11 +1,7 @@
 package hashtrees;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * This class provides a skeletal implementation for all classes implementing the HashTree
@@ -13,100 +9,141 @@ import java.util.Set;
  * a search algorithm to search nodes by indices calculated by a breadth-first-traversal. This
  * search is based on a depth-first-search and is guaranteed to run in O(log n).
  *
+ * <p>The nodes needed to calculate the root hash are not searched on every call of getMissing,
+ * instead they are updated incrementally. Therefore subclasses must report every change by
+ * {@link #nodeChanged(MerkleNode, int)}, {@link #nodesChanged(List, int[])} or
+ * {@link #treeChanged()}.
+ *
  * @param <V> the type of elements stored in the tree
  */
-abstract class AbstractHashTree<V> implements HashTree<V> {
+abstract class AbstractHashTree<V> extends MeasuredHashTree<V> {
 
   /**
    * Root node of the HashTree.
    */
   private MerkleInnerNode<V> root;
 
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Keeps track of the nodes needed to calculate the root hash, {@code null} until
+   * {@link #getMissing()} is called for the first time.
+   */
+  private MissingNodeTracker missingNodes;
+
+  /**
+   * The nodes that have a hash, only maintained while {@link #missingNodes} exists.
+   */
+  private BitSet hashedNodes;
+
   /**
    * Initializes the root.
+   *
+   * @param hashStrategy the hash functions of the tree
    */
-  protected AbstractHashTree() {
+  protected AbstractHashTree(HashStrategy hashStrategy) {
     this.root = new MerkleInnerNode<V>();
+    this.hashStrategy = hashStrategy;
   }
 
   /**
    * Initializes the root.
    * 
    * @param hash the hash for the root
+   * @param hashStrategy the hash functions of the tree
    */
-  protected AbstractHashTree(Long hash) {
+  protected AbstractHashTree(Long hash, HashStrategy hashStrategy) {
     this.root = new MerkleInnerNode<V>(hash);
+    this.hashStrategy = hashStrategy;
   }
 
   @Override
   public boolean isConsistent() {
-    return root.checkHash();
+    return root.checkHash(hashStrategy);
   }
 
   @Override
-  public List<Integer> getMissing() {
-    final Set<Integer> missingNodes = getIndicesWithoutHashes(0);
-    filterUnnecessaryNodes(missingNodes);
-    final List<Integer> result = new ArrayList<Integer>();
-    result.addAll(missingNodes);
-    Collections.sort(result);
-    return result;
-  }
-
-  /** Helper method for {@link HashTree#getMissing()}. */
-  private Set<Integer> filterUnnecessaryNodes(Set<Integer> nodesWithoutHash) {
-    final int lastInnerNodeIndex = calculateLastInnerNodeIndex(calculateHeight());
-    for (int currentNodeIndex = lastInnerNodeIndex; currentNodeIndex >= 0; currentNodeIndex--) {
-      final int leftChildIndex = 2 * currentNodeIndex + 1;
-      final int rightChildIndex = 2 * currentNodeIndex + 2;
-
-      final boolean nodeHasHash = !nodesWithoutHash.contains(currentNodeIndex);
-      final boolean bothChildrenHaveNoHash =
-          nodesWithoutHash.contains(rightChildIndex) && nodesWithoutHash.contains(leftChildIndex);
-
-      if (nodeHasHash) {
-        // the current node has a hash, thus all children are unnecessary
-        nodesWithoutHash.remove(Integer.valueOf(leftChildIndex));
-        nodesWithoutHash.remove(Integer.valueOf(rightChildIndex));
-      } else if (bothChildrenHaveNoHash) {
-        // the current node is sufficient if both children do not have hashes i.e. they are present
-        // in the set so they are unnecessary
-        nodesWithoutHash.remove(Integer.valueOf(leftChildIndex));
-        nodesWithoutHash.remove(Integer.valueOf(rightChildIndex));
-      } else {
-        // the current node has at least one child with a hash that means the current node must be
-        // removed to ensure that no nodes with values or hashes are skipped
-        nodesWithoutHash.remove(Integer.valueOf(currentNodeIndex));
-      }
+  List<Integer> searchMissing() {
+    return getMissingNodeTracker().getMissing();
+  }
 
+  @Override
+  public boolean isReady() {
+    return getMissingNodeTracker().isComplete();
+  }
+
+  /**
+   * Returns the tracker for the nodes needed to calculate the root hash. It is created on first
+   * use, afterwards it is kept up to date by {@link #nodeChanged(MerkleNode, int)}.
+   */
+  private MissingNodeTracker getMissingNodeTracker() {
+    if (missingNodes == null) {
+      hashedNodes = new BitSet();
+      collectHashedNodes(root, 0);
+      missingNodes = new MissingNodeTracker(NodeLayout.binary(calculateHeight()), hashedNodes);
     }
-    if (nodesWithoutHash.contains(0)) {
-      // special case: empty tree
-      // here result = [0], this behaviour is not intended, instead
-      // a list with all leaf indices is returned
-      nodesWithoutHash.remove(0);
-      for (int i = lastInnerNodeIndex + 1; i <= Math.pow(2, calculateHeight() + 1) - 2; i++) {
-        nodesWithoutHash.add(i);
-      }
+    return missingNodes;
+  }
+
+  /** Helper method to mark all nodes of a subtree that have a hash. */
+  private void collectHashedNodes(MerkleNode<V> node, int index) {
+    if (node.hasHash()) {
+      hashedNodes.set(index);
+    }
+    if (node instanceof MerkleInnerNode) {
+      collectHashedNodes(((MerkleInnerNode<V>) node).getLeft(), 2 * index + 1);
+      collectHashedNodes(((MerkleInnerNode<V>) node).getRight(), 2 * index + 2);
     }
-    return nodesWithoutHash;
   }
 
-  /** Returns the indices of the nodes that do not have a hash. */
-  private Set<Integer> getIndicesWithoutHashes(int index) {
-    final Set<Integer> missingNodes = new HashSet<Integer>();
-    final MerkleNode<V> indexNode = depthFirstSearch(index);
-    final int leftChildIndex = 2 * index + 1;
-    final int rightChildIndex = 2 * index + 2;
+  /**
+   * Must be called after the hash of a node was changed, as this may change the hashes of all
+   * nodes on the path to the root and therefore the result of {@link #getMissing()}.
+   *
+   * @param node the changed node
+   * @param index the breadth-first index of the changed node
+   */
+  protected void nodeChanged(MerkleNode<V> node, int index) {
+    if (missingNodes != null) {
+      copyHashedPath(node, index);
+      missingNodes.update(index);
+    }
+  }
 
-    if (indexNode instanceof MerkleInnerNode) {
-      missingNodes.addAll(getIndicesWithoutHashes(leftChildIndex));
-      missingNodes.addAll(getIndicesWithoutHashes(rightChildIndex));
+  /**
+   * Must be called after the hashes of several nodes were changed.
+   *
+   * @param nodes the changed nodes
+   * @param indices the breadth-first indices of the changed nodes in the same order
+   * @see #nodeChanged(MerkleNode, int)
+   */
+  protected void nodesChanged(List<? extends MerkleNode<V>> nodes, int[] indices) {
+    if (missingNodes != null) {
+      for (int i = 0; i < nodes.size(); i++) {
+        copyHashedPath(nodes.get(i), indices[i]);
+      }
+      missingNodes.update(indices, nodes.size());
     }
-    if (!indexNode.hasHash() || index == 0) {
-      missingNodes.add(index);
+  }
+
+  /**
+   * Must be called after hashes all over the tree were changed, e.g. by clearing it.
+   */
+  protected void treeChanged() {
+    missingNodes = null;
+    hashedNodes = null;
+  }
+
+  /** Helper method to mark the nodes that have a hash on the path from a node to the root. */
+  private void copyHashedPath(MerkleNode<V> node, int index) {
+    while (node != null) {
+      hashedNodes.set(index, node.hasHash());
+      node = node.parent;
+      index = (index - 1) / 2;
     }
-    return missingNodes;
   }
 
   /**
@@ -114,56 +151,135 @@ abstract class AbstractHashTree<V> implements HashTree<V> {
    * actual search is done by a depth-first-search.
    */
   protected MerkleNode<V> depthFirstSearch(int index) {
+    TreeMetrics.nodeSearched();
     // the last index in the current tree
-    double highestBfsIndex = Math.pow(2, calculateHeight() + 1) - 2;
+    final int highestBfsIndex = (1 << (calculateHeight() + 1)) - 2;
     if (index == 0) {
       return root;
-    } else if (index > highestBfsIndex) {
+    } else if (index < 0 || index > highestBfsIndex) {
       throw new IndexOutOfBoundsException();
     }
-    ArrayDeque<Integer> pathToNode = findPath(index);
-    MerkleNode<V> currentParent = root;
-    int childIndex = pathToNode.pollLast();
-
-    while (childIndex < index) {
-      // invariant: children of currentParent are an instance of MerkleInnerNode
-      if ((childIndex % 2) == 0) {
-        // right childs always have an even index
-        currentParent = ((MerkleInnerNode<V>) currentParent).getRight();
+    // the binary representation of (index + 1) without its leading one bit is the path to the
+    // node: starting at the root every 0 stands for the left child and every 1 for the right child
+    final int path = index + 1;
+    MerkleNode<V> current = root;
+    for (int bit = 30 - Integer.numberOfLeadingZeros(path); bit >= 0; bit--) {
+      // invariant: current is an instance of MerkleInnerNode
+      if (((path >>> bit) & 1) == 0) {
+        current = ((MerkleInnerNode<V>) current).getLeft();
       } else {
-        // left childs always have an odd index
-        currentParent = ((MerkleInnerNode<V>) currentParent).getLeft();
+        current = ((MerkleInnerNode<V>) current).getRight();
       }
-      childIndex = pathToNode.pollLast();
     }
+    return current;
+  }
 
-    if ((index % 2) == 0) {
-      return ((MerkleInnerNode<V>) currentParent).getRight();
-    } else {
-      return ((MerkleInnerNode<V>) currentParent).getLeft();
+  /**
+   * {@inheritDoc}
+   *
+   * <p>A node is searched by {@link #depthFirstSearch(int)}, unless it is the successor of the
+   * previous node on the same level, so reading a whole level takes amortized constant time per
+   * node. The view must only be used by one thread.
+   */
+  @Override
+  IndexedNodes<V> nodes() {
+    return new NodeView(calculateHeight());
+  }
+
+  /**
+   * Read access to the nodes of this tree that remembers the node accessed last.
+   */
+  private final class NodeView implements IndexedNodes<V> {
+
+    private final int height;
+    private MerkleNode<V> lastNode;
+    private int lastIndex = -1;
+
+    NodeView(int height) {
+      this.height = height;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public HashStrategy getHashStrategy() {
+      return AbstractHashTree.this.getHashStrategy();
+    }
+
+    @Override
+    public boolean hasHash(int index) {
+      return search(index).hasHash();
+    }
+
+    @Override
+    public long getHash(int index) {
+      return search(index).getHash();
+    }
+
+    @Override
+    public V getValue(int position) {
+      return ((MerkleLeaf<V>) search((1 << height) - 1 + position)).getValue();
+    }
+
+    /** Returns the node with the given breadth-first index. */
+    private MerkleNode<V> search(int index) {
+      if (index == lastIndex) {
+        return lastNode;
+      }
+      MerkleNode<V> node;
+      // the index of the first node of a level is one less than a power of two
+      if (index == lastIndex + 1 && (index & (index + 1)) != 0) {
+        // climb to the lowest ancestor whose right subtree contains the next node, then descend
+        // to the leftmost node of that subtree on the same level
+        node = lastNode;
+        int levels = 0;
+        while (node.parent.getRight() == node) {
+          node = node.parent;
+          levels++;
+        }
+        node = node.parent.getRight();
+        for (int i = 0; i < levels; i++) {
+          node = ((MerkleInnerNode<V>) node).getLeft();
+        }
+      } else {
+        node = depthFirstSearch(index);
+      }
+      lastNode = node;
+      lastIndex = index;
+      return node;
     }
   }
 
   /**
-   * Helper method to search a node by index. This is a purely mathematical approach and does not
-   * work on the current tree. Calculates the path to a node by an index calculation and stores it
-   * in a deque.
-   * 
-   * <p>Note: As this method does not work on the current tree it will return paths to nodes that do
-   * not exist if the index is not given properly. Each method must handle this exception before
-   * calling this method.
+   * Replaces the hashes and values of all nodes by the given ones without calculating any hash.
+   *
+   * @param hashPresent the nodes that have a hash by their breadth-first index
+   * @param hashes the hashes of all nodes by their breadth-first index
+   * @param values the values of the leaves from left to right, or {@code null} for no values
    */
-  private static ArrayDeque<Integer> findPath(int index) {
-    ArrayDeque<Integer> pathToNode = new ArrayDeque<Integer>();
-    while (index > 0) {
-      pathToNode.add(index);
-      // calculation to get index of current node:
-      // currentIndex = (2 * parentIndex) + 1
-      // so parentIndex is calculated by:
-      // parentIndex = (currentIndex - 1) / 2
-      index = (index - 1) / 2;
+  void restoreNodes(BitSet hashPresent, long[] hashes, Object[] values) {
+    restoreNode(root, 0, (1 << calculateHeight()) - 1, hashPresent, hashes, values);
+    treeChanged();
+  }
+
+  /** Helper method for {@link #restoreNodes(BitSet, long[], Object[])}. */
+  @SuppressWarnings("unchecked")
+  private static <V> void restoreNode(MerkleNode<V> node, int index, int firstLeafIndex,
+      BitSet hashPresent, long[] hashes, Object[] values) {
+    node.hash = hashes[index];
+    node.hashPresent = hashPresent.get(index);
+    if (node instanceof MerkleInnerNode) {
+      final MerkleInnerNode<V> innerNode = (MerkleInnerNode<V>) node;
+      restoreNode(innerNode.getLeft(), 2 * index + 1, firstLeafIndex, hashPresent, hashes, values);
+      restoreNode(innerNode.getRight(), 2 * index + 2, firstLeafIndex, hashPresent, hashes,
+          values);
+    } else {
+      ((MerkleLeaf<V>) node).restoreValue(
+          values != null ? (V) values[index - firstLeafIndex] : null);
     }
-    return pathToNode;
   }
 
   @Override
@@ -171,6 +287,11 @@ abstract class AbstractHashTree<V> implements HashTree<V> {
     return root.toString();
   }
 
+  /** Returns the hash functions of the tree. */
+  protected HashStrategy getHashStrategy() {
+    return hashStrategy;
+  }
+
   /** Returns the root of the tree. */
   protected MerkleInnerNode<V> getRoot() {
     return root;
@@ -185,8 +306,4 @@ abstract class AbstractHashTree<V> implements HashTree<V> {
     }
     return height;
   }
-
-  private static int calculateLastInnerNodeIndex(int height) {
-    return (int) (Math.pow(2, height + 1) - 4) / 2;
-  }
 }
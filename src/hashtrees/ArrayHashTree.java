@@ -0,0 +1,305 @@
+package hashtrees;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is the common base of the trees of this package whose nodes are not linked objects
+ * but slots of flat arrays. The hashes of all nodes are stored in a {@code long[]} in the order of
+ * a breadth-first-traversal and a bitset records which of these slots actually hold a hash. Which
+ * nodes are the children and the parent of a node is defined by the {@link NodeLayout} of the
+ * tree, so looking up a node is a plain array access instead of a search.
+ *
+ * <p>The nodes needed to calculate the root hash are tracked by a {@link MissingNodeTracker} while
+ * hashes change instead of being searched.
+ *
+ * @param <V> the type of elements stored in the tree
+ */
+abstract class ArrayHashTree<V> extends MeasuredHashTree<V> {
+
+  /**
+   * The shape of the tree.
+   */
+  private final NodeLayout layout;
+
+  /**
+   * The breadth-first index of the leftmost leaf.
+   */
+  private final int firstLeafIndex;
+
+  /**
+   * The hashes of all nodes in breadth-first order. A slot is only valid if the corresponding bit
+   * in {@link #hashPresent} is set.
+   */
+  private final long[] hashes;
+
+  /**
+   * Marks the nodes that have a hash.
+   */
+  private final BitSet hashPresent;
+
+  /**
+   * The values of the leaves counted from left to right, {@code null} if a leaf has no value.
+   */
+  private final Object[] values;
+
+  /**
+   * Keeps track of the nodes needed to calculate the root hash.
+   */
+  private final MissingNodeTracker missingNodes;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Recalculates a single inner node for the sweeps of {@link #layout}.
+   */
+  private final NodeLayout.Recalculation recalculation = new NodeLayout.Recalculation() {
+
+    @Override
+    public boolean recalculate(int index) {
+      return ArrayHashTree.this.recalculate(index);
+    }
+  };
+
+  /**
+   * Creates a new tree without hashes.
+   *
+   * @param layout the shape of the tree
+   * @param hashStrategy the hash functions of the tree
+   */
+  ArrayHashTree(NodeLayout layout, HashStrategy hashStrategy) {
+    this.layout = layout;
+    this.firstLeafIndex = layout.getFirstLeafIndex();
+    this.hashes = new long[layout.getNumberOfNodes()];
+    this.hashPresent = new BitSet(layout.getNumberOfNodes());
+    this.values = new Object[layout.getNumberOfLeaves()];
+    this.missingNodes = new MissingNodeTracker(layout, hashPresent);
+    this.hashStrategy = hashStrategy;
+  }
+
+  /** Returns the shape of this tree. */
+  final NodeLayout getLayout() {
+    return layout;
+  }
+
+  @Override
+  public void setHash(int position, long hash) {
+    if (position < 0 || position >= hashes.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (position >= firstLeafIndex && values[position - firstLeafIndex] != null) {
+      // the hash would manipulate the hash calculated from the value
+      throw new IllegalArgumentException();
+    }
+    hashes[position] = hash;
+    hashPresent.set(position);
+    if (position != 0) {
+      layout.recalculatePath(layout.getParent(position), recalculation);
+    }
+    missingNodes.update(position);
+  }
+
+  @Override
+  public void setValue(int position, V value) {
+    if (position < 0 || position >= values.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    final int index = firstLeafIndex + position;
+    assignValue(position, value);
+    layout.recalculatePath(layout.getParent(index), recalculation);
+    missingNodes.update(index);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>All leaves are changed first, afterwards the inner nodes are recalculated level by level
+   * from the bottom up. Every inner node above a changed leaf is recalculated at most once. If an
+   * index is out of range the tree is left unchanged.
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    for (Integer position : values.keySet()) {
+      if (position < 0 || position >= this.values.length) {
+        throw new IndexOutOfBoundsException();
+      }
+    }
+    final int[] changedLeaves = new int[values.size()];
+    final int[] dirtyNodes = new int[values.size()];
+    int numberOfChangedLeaves = 0;
+    for (Map.Entry<Integer, ? extends V> entry : values.entrySet()) {
+      final int index = firstLeafIndex + entry.getKey();
+      assignValue(entry.getKey(), entry.getValue());
+      changedLeaves[numberOfChangedLeaves] = index;
+      dirtyNodes[numberOfChangedLeaves++] = layout.getParent(index);
+    }
+    layout.recalculateLevels(dirtyNodes, numberOfChangedLeaves, recalculation);
+    missingNodes.update(changedLeaves, numberOfChangedLeaves);
+  }
+
+  /** Helper method to change the value and the hash of a leaf without updating other nodes. */
+  private void assignValue(int position, V value) {
+    final int index = firstLeafIndex + position;
+    values[position] = value;
+    if (value != null) {
+      hashes[index] = hashStrategy.hashLeaf(value);
+      hashPresent.set(index);
+    } else {
+      hashPresent.clear(index);
+    }
+  }
+
+  /**
+   * Recalculates the hash of an inner node if possible without updating the next higher node.
+   *
+   * @return {@code true} if a new hash was calculated i.e. the parent node has to be updated
+   */
+  private boolean recalculate(int index) {
+    if (index == 0 && hashPresent.get(0)) {
+      // once the root hash is set it cannot be altered
+      return false;
+    }
+    final int firstChild = layout.getFirstChild(index);
+    final int numberOfChildren = layout.getNumberOfChildren(index);
+    if (hasAllHashes(firstChild, numberOfChildren)) {
+      hashes[index] = NodeLayout.hashChildren(hashStrategy, hashes, firstChild, numberOfChildren);
+      hashPresent.set(index);
+      return true;
+    } else {
+      hashPresent.clear(index);
+      return false;
+    }
+  }
+
+  /** Returns {@code true} if all of the given consecutive nodes have a hash. */
+  private boolean hasAllHashes(int first, int count) {
+    for (int i = first; i < first + count; i++) {
+      if (!hashPresent.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isConsistent() {
+    final int firstChild = layout.getFirstChild(0);
+    final int numberOfChildren = layout.getNumberOfChildren(0);
+    if (!hashPresent.get(0) || !hasAllHashes(firstChild, numberOfChildren)) {
+      return false;
+    }
+    return hashes[0]
+        == NodeLayout.hashChildren(hashStrategy, hashes, firstChild, numberOfChildren);
+  }
+
+  @Override
+  List<Integer> searchMissing() {
+    return missingNodes.getMissing();
+  }
+
+  @Override
+  public boolean isReady() {
+    return missingNodes.isComplete();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Like deleting the value of every leaf, the leaves and their parents lose their hashes, the
+   * hashes further up are kept. The leaves are deleted at once and every parent is recalculated
+   * without updating the nodes above.
+   */
+  @Override
+  public void clear() {
+    Arrays.fill(values, null);
+    hashPresent.clear(firstLeafIndex, hashes.length);
+    for (int index = Math.max(1, firstLeafIndex); index < hashes.length; index++) {
+      recalculate(layout.getParent(index));
+    }
+    missingNodes.reload();
+  }
+
+  @Override
+  IndexedNodes<V> nodes() {
+    return new IndexedNodes<V>() {
+
+      @Override
+      public int getHeight() {
+        return layout.getHeight();
+      }
+
+      @Override
+      public NodeLayout getLayout() {
+        return layout;
+      }
+
+      @Override
+      public HashStrategy getHashStrategy() {
+        return hashStrategy;
+      }
+
+      @Override
+      public boolean hasHash(int index) {
+        return hashPresent.get(index);
+      }
+
+      @Override
+      public long getHash(int index) {
+        return hashes[index];
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V getValue(int position) {
+        return (V) values[position];
+      }
+    };
+  }
+
+  /**
+   * Returns a textual representation of this tree. The levels of a subtree are indicated by
+   * surrounding parentheses, the format equals the one of {@link MutableMerkleTree#toString()}
+   * with all children of a node separated by spaces.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder res = new StringBuilder();
+    appendNode(res, 0);
+    return res.toString();
+  }
+
+  /** Helper method for {@link #toString()}. */
+  private void appendNode(StringBuilder res, int index) {
+    if (index >= firstLeafIndex) {
+      final Object value = values[index - firstLeafIndex];
+      if (value != null) {
+        res.append("(\"").append(value.toString()).append("\")");
+      } else if (hashPresent.get(index)) {
+        res.append(hashes[index]);
+      } else {
+        res.append("(*)");
+      }
+      return;
+    }
+    res.append("(");
+    if (hashPresent.get(index)) {
+      res.append(hashes[index]).append(" ");
+    } else {
+      res.append("* ");
+    }
+    final int firstChild = layout.getFirstChild(index);
+    for (int i = firstChild; i < firstChild + layout.getNumberOfChildren(index); i++) {
+      if (i != firstChild) {
+        res.append(" ");
+      }
+      appendNode(res, i);
+    }
+    res.append(")");
+  }
+
+}
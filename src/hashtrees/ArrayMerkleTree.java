@@ -0,0 +1,52 @@
+package hashtrees;
+
+/**
+ * Represents a mutable Merkle-Tree whose nodes are not linked objects but slots of flat arrays.
+ * The hashes of all nodes are stored in a {@code long[]} in the order of a breadth-first-traversal
+ * and a bitset records which of these slots actually hold a hash. Thus the node with the index
+ * {@code i} has the children {@code 2 * i + 1} and {@code 2 * i + 2} and the parent
+ * {@code (i - 1) / 2}, so looking up a node is a plain array access instead of a search.
+ *
+ * <p>Apart from the storage this tree behaves like a {@link MutableMerkleTree}.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+public class ArrayMerkleTree<V> extends ArrayHashTree<V> {
+
+  /**
+   * The maximum height, a higher tree has more nodes than an array can hold.
+   */
+  private static final int MAX_HEIGHT = 29;
+
+  /**
+   * Creates a new {@code ArrayMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @throws IllegalArgumentException if the tree would not fit into an array
+   */
+  public ArrayMerkleTree(int leavesNeeded) {
+    this(leavesNeeded, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code ArrayMerkleTree}.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param hashStrategy the hash functions of the tree
+   * @throws IllegalArgumentException if the tree would not fit into an array
+   */
+  public ArrayMerkleTree(int leavesNeeded, HashStrategy hashStrategy) {
+    super(NodeLayout.binary(heightFor(leavesNeeded)), hashStrategy);
+  }
+
+  /** Helper method to calculate the smallest height of at least 1 with enough leaves. */
+  private static int heightFor(int leavesNeeded) {
+    final int height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded));
+    if (height > MAX_HEIGHT) {
+      throw new IllegalArgumentException("Capacity too large: " + leavesNeeded);
+    }
+    return height;
+  }
+
+}
@@ -0,0 +1,578 @@
+package hashtrees;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a mutable Merkle-Tree that can be changed by several threads at the same time. The
+ * nodes are stored like in an {@link ArrayMerkleTree}, but guarded by several locks: the upper
+ * levels of the tree up to a fixed depth form the top, every node at the lowest level of the top
+ * has a stripe consisting of the subtrees of its two children. A change locks the stripe of the
+ * changed node and recalculates the nodes above it up to the stripe root. Only if the change
+ * reaches the top, the top lock is taken as well. Thus writers to different stripes run in
+ * parallel and only wait for each other while they recalculate the few nodes of the top.
+ *
+ * <p>Locks are always taken in the same order, stripes in ascending order before the top, so
+ * writers cannot deadlock. Operations reading the whole tree, like {@link #toString()}, take all
+ * locks and therefore see a consistent state. The root hash can be read consistently by
+ * {@link #getRootHash()}.
+ *
+ * <p>The nodes needed to calculate the root hash are tracked incrementally like in an
+ * {@code ArrayMerkleTree}. The tracker is guarded by the top lock: after a change has recalculated
+ * its nodes, it takes the top lock once more to copy the state of the changed path into the
+ * tracker. This costs every change the top lock for a time logarithmic in the size of the tree,
+ * but {@link #getMissing()} and {@link #isReady()} only need the top lock and do not search the
+ * whole tree.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+public class ConcurrentMerkleTree<V> extends MeasuredHashTree<V> {
+
+  /**
+   * The maximum height, a higher tree has more nodes than an array can hold.
+   */
+  private static final int MAX_HEIGHT = 29;
+
+  /**
+   * The maximum depth of the lowest level of the top, which results in at most 64 stripes.
+   */
+  private static final int MAX_TOP_DEPTH = 6;
+
+  /**
+   * The height of the tree i.e. the number of edges between the root and a leaf.
+   */
+  private final int height;
+
+  /**
+   * The breadth-first index of the leftmost leaf.
+   */
+  private final int firstLeafIndex;
+
+  /**
+   * The depth of the lowest level of the top.
+   */
+  private final int topDepth;
+
+  /**
+   * The breadth-first index of the first node that belongs to a stripe instead of the top.
+   */
+  private final int firstStripeIndex;
+
+  /**
+   * The hashes of all nodes in breadth-first order. A slot is only valid if the corresponding
+   * entry of {@link #hashPresent} is set. Both are only accessed while holding the lock of the
+   * node.
+   */
+  private final long[] hashes;
+
+  /**
+   * Marks the nodes that have a hash. Unlike the bits of a bitset, every entry can be written
+   * without affecting the entries of other stripes.
+   */
+  private final boolean[] hashPresent;
+
+  /**
+   * The values of the leaves counted from left to right, {@code null} if a leaf has no value.
+   */
+  private final Object[] values;
+
+  /**
+   * The locks of the stripes from left to right.
+   */
+  private final ReentrantLock[] stripeLocks;
+
+  /**
+   * The lock of the top, which also guards {@link #hashedNodes} and {@link #missingNodes}.
+   */
+  private final ReentrantLock topLock;
+
+  /**
+   * A copy of {@link #hashPresent} read by {@link #missingNodes}. A bit is copied after its node
+   * was changed, while holding the lock of the node and the top lock.
+   */
+  private final BitSet hashedNodes;
+
+  /**
+   * Keeps track of the nodes needed to calculate the root hash.
+   */
+  private final MissingNodeTracker missingNodes;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * The shape of the tree, which sweeps the levels of a batch of changes.
+   */
+  private final NodeLayout layout;
+
+  /**
+   * Recalculates a single inner node for the sweeps of {@link #layout}.
+   */
+  private final NodeLayout.Recalculation recalculation = new NodeLayout.Recalculation() {
+
+    @Override
+    public boolean recalculate(int index) {
+      return ConcurrentMerkleTree.this.recalculate(index);
+    }
+  };
+
+  /**
+   * Creates a new {@code ConcurrentMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @throws IllegalArgumentException if the tree would not fit into an array
+   */
+  public ConcurrentMerkleTree(int leavesNeeded) {
+    this(leavesNeeded, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code ConcurrentMerkleTree}.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param hashStrategy the hash functions of the tree
+   * @throws IllegalArgumentException if the tree would not fit into an array
+   */
+  public ConcurrentMerkleTree(int leavesNeeded, HashStrategy hashStrategy) {
+    this.height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded));
+    if (height > MAX_HEIGHT) {
+      throw new IllegalArgumentException("Capacity too large: " + leavesNeeded);
+    }
+    this.firstLeafIndex = (1 << height) - 1;
+    this.topDepth = Math.min(height - 1, MAX_TOP_DEPTH);
+    this.firstStripeIndex = (1 << (topDepth + 1)) - 1;
+    final int numberOfNodes = (1 << (height + 1)) - 1;
+    this.hashes = new long[numberOfNodes];
+    this.hashPresent = new boolean[numberOfNodes];
+    this.values = new Object[1 << height];
+    this.stripeLocks = new ReentrantLock[1 << topDepth];
+    for (int i = 0; i < stripeLocks.length; i++) {
+      stripeLocks[i] = new ReentrantLock();
+    }
+    this.topLock = new ReentrantLock();
+    this.hashedNodes = new BitSet(numberOfNodes);
+    this.layout = NodeLayout.binary(height);
+    this.missingNodes = new MissingNodeTracker(layout, hashedNodes);
+    this.hashStrategy = hashStrategy;
+  }
+
+  @Override
+  public void setHash(int position, long hash) {
+    if (position < 0 || position >= hashes.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    final ReentrantLock lock = lockOf(position);
+    lock.lock();
+    try {
+      if (position >= firstLeafIndex && values[position - firstLeafIndex] != null) {
+        // the hash would manipulate the hash calculated from the value
+        throw new IllegalArgumentException();
+      }
+      hashes[position] = hash;
+      hashPresent[position] = true;
+      if (position != 0) {
+        update(parentIndex(position));
+      }
+      trackPath(position);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void setValue(int position, V value) {
+    if (position < 0 || position >= values.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    final int index = firstLeafIndex + position;
+    final ReentrantLock lock = lockOf(index);
+    lock.lock();
+    try {
+      assignValue(position, value);
+      update(parentIndex(index));
+      trackPath(index);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The locks of all stripes containing a changed leaf are taken in ascending order, so the
+   * values are changed at once for other threads. All leaves are changed first, afterwards the
+   * inner nodes are recalculated level by level from the bottom up. Every inner node above a
+   * changed leaf is recalculated at most once. If an index is out of range the tree is left
+   * unchanged.
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    final int[] dirtyNodes = new int[values.size()];
+    int numberOfDirtyNodes = 0;
+    for (Integer position : values.keySet()) {
+      if (position < 0 || position >= this.values.length) {
+        throw new IndexOutOfBoundsException();
+      }
+      dirtyNodes[numberOfDirtyNodes++] = firstLeafIndex + position;
+    }
+    // the stripes of sorted leaves are in ascending order, which is the order they are locked in
+    Arrays.sort(dirtyNodes);
+
+    final int[] lockedStripes = new int[numberOfDirtyNodes];
+    int numberOfLockedStripes = 0;
+    try {
+      for (int i = 0; i < numberOfDirtyNodes; i++) {
+        final int stripe = stripeOf(dirtyNodes[i]);
+        if (numberOfLockedStripes == 0 || lockedStripes[numberOfLockedStripes - 1] != stripe) {
+          stripeLocks[stripe].lock();
+          lockedStripes[numberOfLockedStripes++] = stripe;
+        }
+      }
+      final int[] changedLeaves = dirtyNodes.clone();
+      final int numberOfChangedLeaves = numberOfDirtyNodes;
+      for (int i = 0; i < numberOfDirtyNodes; i++) {
+        final int position = dirtyNodes[i] - firstLeafIndex;
+        assignValue(position, values.get(position));
+        dirtyNodes[i] = parentIndex(dirtyNodes[i]);
+      }
+      // all dirty nodes are on the same level, thus they reach the top at the same time
+      while (numberOfDirtyNodes > 0 && dirtyNodes[0] >= firstStripeIndex) {
+        numberOfDirtyNodes =
+            layout.recalculateLevel(dirtyNodes, numberOfDirtyNodes, recalculation);
+      }
+      topLock.lock();
+      try {
+        while (numberOfDirtyNodes > 0) {
+          numberOfDirtyNodes =
+            layout.recalculateLevel(dirtyNodes, numberOfDirtyNodes, recalculation);
+        }
+        for (int i = 0; i < numberOfChangedLeaves; i++) {
+          copyPath(changedLeaves[i]);
+        }
+        missingNodes.update(changedLeaves, numberOfChangedLeaves);
+      } finally {
+        topLock.unlock();
+      }
+    } finally {
+      for (int i = numberOfLockedStripes - 1; i >= 0; i--) {
+        stripeLocks[lockedStripes[i]].unlock();
+      }
+    }
+  }
+
+  /**
+   * Updates the tracker after the nodes on the path from a node to the root have changed. The lock
+   * of the node must be held.
+   */
+  private void trackPath(int index) {
+    topLock.lock();
+    try {
+      copyPath(index);
+      missingNodes.update(index);
+    } finally {
+      topLock.unlock();
+    }
+  }
+
+  /**
+   * Copies the state of the nodes on the path from a node to the root into {@link #hashedNodes}.
+   * The lock of the node and the top lock must be held.
+   */
+  private void copyPath(int index) {
+    while (true) {
+      hashedNodes.set(index, hashPresent[index]);
+      if (index == 0) {
+        return;
+      }
+      index = parentIndex(index);
+    }
+  }
+
+  /** Helper method to change the hash of a leaf without updating the nodes above. */
+  private void assignValue(int position, V value) {
+    final int index = firstLeafIndex + position;
+    values[position] = value;
+    if (value != null) {
+      hashes[index] = hashStrategy.hashLeaf(value);
+      hashPresent[index] = true;
+    } else {
+      hashPresent[index] = false;
+    }
+  }
+
+  /**
+   * Recalculates the hash of an inner node if possible, and continues with the next higher node.
+   * If one of the children has no hash the node loses its hash and the update stops. The lock of
+   * the node must be held, the top lock is taken when the update reaches the top.
+   */
+  private void update(int index) {
+    int recalculatedNodes = 0;
+    while (index >= firstStripeIndex) {
+      if (!recalculate(index)) {
+        TreeMetrics.updatePropagated(recalculatedNodes);
+        return;
+      }
+      recalculatedNodes++;
+      index = parentIndex(index);
+    }
+    topLock.lock();
+    try {
+      while (recalculate(index)) {
+        recalculatedNodes++;
+        if (index == 0) {
+          break;
+        }
+        index = parentIndex(index);
+      }
+    } finally {
+      topLock.unlock();
+    }
+    TreeMetrics.updatePropagated(recalculatedNodes);
+  }
+
+  /**
+   * Recalculates the hash of an inner node if possible without updating the next higher node.
+   *
+   * @return {@code true} if a new hash was calculated i.e. the parent node has to be updated
+   */
+  private boolean recalculate(int index) {
+    if (index == 0 && hashPresent[0]) {
+      // once the root hash is set it cannot be altered
+      return false;
+    }
+    final int leftChildIndex = 2 * index + 1;
+    final int rightChildIndex = 2 * index + 2;
+    if (hashPresent[leftChildIndex] && hashPresent[rightChildIndex]) {
+      hashes[index] = hashStrategy.hashInner(hashes[leftChildIndex], hashes[rightChildIndex]);
+      hashPresent[index] = true;
+      return true;
+    } else {
+      hashPresent[index] = false;
+      return false;
+    }
+  }
+
+  /**
+   * Returns the root hash of the tree as seen after all changes that have finished so far.
+   *
+   * @return the root hash, {@code null} if the root has no hash
+   */
+  public Long getRootHash() {
+    topLock.lock();
+    try {
+      return hashPresent[0] ? Long.valueOf(hashes[0]) : null;
+    } finally {
+      topLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isConsistent() {
+    // the children of the root belong to the top unless the tree has a single stripe
+    if (topDepth > 0) {
+      topLock.lock();
+    } else {
+      lockAll();
+    }
+    try {
+      if (!hashPresent[0] || !hashPresent[1] || !hashPresent[2]) {
+        return false;
+      }
+      return hashes[0] == hashStrategy.hashInner(hashes[1], hashes[2]);
+    } finally {
+      if (topDepth > 0) {
+        topLock.unlock();
+      } else {
+        unlockAll();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the top lock is held while the tracked nodes are collected, which takes time linear
+   * in the number of nodes needed.
+   */
+  @Override
+  List<Integer> searchMissing() {
+    topLock.lock();
+    try {
+      return missingNodes.getMissing();
+    } finally {
+      topLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the top lock is held, the answer takes constant time.
+   */
+  @Override
+  public boolean isReady() {
+    topLock.lock();
+    try {
+      return missingNodes.isComplete();
+    } finally {
+      topLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lockAll();
+    try {
+      // like deleting the value of every leaf, the leaves and their parents lose their hashes
+      Arrays.fill(values, null);
+      Arrays.fill(hashPresent, firstLeafIndex, hashPresent.length, false);
+      for (int index = (firstLeafIndex - 1) / 2; index < firstLeafIndex; index++) {
+        recalculate(index);
+      }
+      hashedNodes.clear();
+      for (int index = 0; index < hashPresent.length; index++) {
+        hashedNodes.set(index, hashPresent[index]);
+      }
+      missingNodes.reload();
+    } finally {
+      unlockAll();
+    }
+  }
+
+  /** Returns the lock guarding the node with the given breadth-first index. */
+  private ReentrantLock lockOf(int index) {
+    return index < firstStripeIndex ? topLock : stripeLocks[stripeOf(index)];
+  }
+
+  /** Returns the stripe of a node below the top. */
+  private int stripeOf(int index) {
+    // the ancestor at the lowest level of the top is found by cutting off the lower levels of the
+    // path to the node
+    final int depth = 31 - Integer.numberOfLeadingZeros(index + 1);
+    return ((index + 1) >>> (depth - topDepth)) - (1 << topDepth);
+  }
+
+  /** Takes all locks in the order used by all operations. */
+  private void lockAll() {
+    for (ReentrantLock lock : stripeLocks) {
+      lock.lock();
+    }
+    topLock.lock();
+  }
+
+  /** Releases all locks taken by {@link #lockAll()}. */
+  private void unlockAll() {
+    topLock.unlock();
+    for (int i = stripeLocks.length - 1; i >= 0; i--) {
+      stripeLocks[i].unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every access takes the lock of the node, so concurrent writers may change the tree between
+   * two accesses.
+   */
+  @Override
+  IndexedNodes<V> nodes() {
+    return new IndexedNodes<V>() {
+
+      @Override
+      public int getHeight() {
+        return height;
+      }
+
+      @Override
+      public HashStrategy getHashStrategy() {
+        return hashStrategy;
+      }
+
+      @Override
+      public boolean hasHash(int index) {
+        final ReentrantLock lock = lockOf(index);
+        lock.lock();
+        try {
+          return hashPresent[index];
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      public long getHash(int index) {
+        final ReentrantLock lock = lockOf(index);
+        lock.lock();
+        try {
+          return hashes[index];
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V getValue(int position) {
+        final ReentrantLock lock = lockOf(firstLeafIndex + position);
+        lock.lock();
+        try {
+          return (V) values[position];
+        } finally {
+          lock.unlock();
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a textual representation of this tree. The levels of a subtree are indicated by
+   * surrounding parentheses, the format equals the one of {@link MutableMerkleTree#toString()}.
+   */
+  @Override
+  public String toString() {
+    lockAll();
+    try {
+      final StringBuilder res = new StringBuilder();
+      appendNode(res, 0);
+      return res.toString();
+    } finally {
+      unlockAll();
+    }
+  }
+
+  /** Helper method for {@link #toString()}. */
+  private void appendNode(StringBuilder res, int index) {
+    if (index >= firstLeafIndex) {
+      final Object value = values[index - firstLeafIndex];
+      if (value != null) {
+        res.append("(\"").append(value.toString()).append("\")");
+      } else if (hashPresent[index]) {
+        res.append(hashes[index]);
+      } else {
+        res.append("(*)");
+      }
+      return;
+    }
+    res.append("(");
+    if (hashPresent[index]) {
+      res.append(hashes[index]).append(" ");
+    } else {
+      res.append("* ");
+    }
+    appendNode(res, 2 * index + 1);
+    res.append(" ");
+    appendNode(res, 2 * index + 2);
+    res.append(")");
+  }
+
+  private static int parentIndex(int index) {
+    return (index - 1) / 2;
+  }
+
+}
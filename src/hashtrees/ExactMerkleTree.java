@@ -0,0 +1,76 @@
+package hashtrees;
+
+/**
+ * Represents a mutable Merkle-Tree with exactly the number of leaves requested instead of the next
+ * power of two. Every level has half as many nodes as the level below, rounded up: two neighbouring
+ * nodes share a parent, and if a level has an odd number of nodes the last one is promoted to the
+ * next level, i.e. it gets a parent with a single child that carries the same hash. Thus the hash
+ * of the root equals the Merkle Tree Hash of RFC 6962, which splits the leaves at the largest power
+ * of two below their number, and a tree with {@code n} leaves has less than {@code 2n + height}
+ * nodes.
+ *
+ * <p>The nodes are numbered by a breadth-first-traversal from the root down, every level from left
+ * to right. The node with the position {@code j} on a level has the children {@code 2j} and
+ * {@code 2j + 1} on the level below, if they exist, so if the number of leaves is a power of two
+ * the indices equal the ones of the other trees of this package. Leaves are counted from left to
+ * right as usual.
+ *
+ * <p>Apart from the layout this tree behaves like a {@link MutableMerkleTree}. A promoted node
+ * loses its hash together with its child. Proofs contain no sibling for a promoted node, and a tree
+ * whose number of leaves is a power of two can be compared with the binary trees of this package.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+public class ExactMerkleTree<V> extends ArrayHashTree<V> {
+
+  /**
+   * The maximum number of leaves, a larger tree has more nodes than an array can hold.
+   */
+  private static final int MAX_LEAVES = 1 << 29;
+
+  /**
+   * Creates a new {@code ExactMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param numberOfLeaves the number of leaves of this tree
+   * @throws IllegalArgumentException if the tree would have less than two leaves or would not fit
+   *         into an array
+   */
+  public ExactMerkleTree(int numberOfLeaves) {
+    this(numberOfLeaves, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code ExactMerkleTree}.
+   *
+   * @param numberOfLeaves the number of leaves of this tree
+   * @param hashStrategy the hash functions of the tree
+   * @throws IllegalArgumentException if the tree would have less than two leaves or would not fit
+   *         into an array
+   */
+  public ExactMerkleTree(int numberOfLeaves, HashStrategy hashStrategy) {
+    super(layoutFor(numberOfLeaves), hashStrategy);
+  }
+
+  /** Helper method to check the number of leaves before the layout is created. */
+  private static NodeLayout layoutFor(int numberOfLeaves) {
+    if (numberOfLeaves < 2) {
+      throw new IllegalArgumentException("Too few leaves: " + numberOfLeaves);
+    }
+    if (numberOfLeaves > MAX_LEAVES) {
+      throw new IllegalArgumentException("Capacity too large: " + numberOfLeaves);
+    }
+    return NodeLayout.exact(numberOfLeaves);
+  }
+
+  /** Returns the height of the tree i.e. the number of edges between the root and a leaf. */
+  public int getHeight() {
+    return getLayout().getHeight();
+  }
+
+  /** Returns the number of nodes of the tree, i.e. the number of valid breadth-first indices. */
+  public int getNumberOfNodes() {
+    return getLayout().getNumberOfNodes();
+  }
+
+}
@@ -0,0 +1,244 @@
+package hashtrees;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hashes a file as a sequence of fixed-size blocks, the last block may be shorter. Every block is
+ * the value of one leaf, counted from left to right, and is hashed by
+ * {@link HashStrategy#hashBytes(java.nio.ByteBuffer)}.
+ *
+ * <p>The file is memory-mapped and every block is hashed from a view of the mapping, so no byte is
+ * copied to the heap. Files of more than a few blocks are split into parts that are mapped and
+ * hashed in parallel by a {@link ForkJoinPool}.
+ *
+ * <p>The hashes can be written into the leaves of a tree of this package. Only the leaves
+ * whose hash actually changed are set, so after a file has been changed in place only the changed
+ * blocks lead to recalculated nodes. If the changed bytes are known, only the blocks containing
+ * them have to be read again.
+ */
+public final class FileMerkleHasher {
+
+  /**
+   * The number of bytes a single task maps and hashes at most, unless a block is larger. Larger
+   * parts are split and hashed in parallel.
+   */
+  private static final long SEQUENTIAL_THRESHOLD = 1 << 24;
+
+  /**
+   * The number of bytes of every block except the last one.
+   */
+  private final int blockSize;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Creates a new {@code FileMerkleHasher} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param blockSize the number of bytes of every block except the last one
+   * @throws IllegalArgumentException if the block size is not positive
+   */
+  public FileMerkleHasher(int blockSize) {
+    this(blockSize, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code FileMerkleHasher}.
+   *
+   * @param blockSize the number of bytes of every block except the last one
+   * @param hashStrategy the hash functions of the tree
+   * @throws IllegalArgumentException if the block size is not positive
+   */
+  public FileMerkleHasher(int blockSize, HashStrategy hashStrategy) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    }
+    this.blockSize = blockSize;
+    this.hashStrategy = hashStrategy;
+  }
+
+  /** Returns the number of bytes of every block except the last one. */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Returns the number of blocks, i.e. of leaves needed, of a file of the given size.
+   *
+   * @param fileSize the size of the file in bytes
+   * @return the number of blocks
+   * @throws IllegalArgumentException if the file has more blocks than an array can hold
+   */
+  public int getNumberOfBlocks(long fileSize) {
+    final long blocks = (fileSize + blockSize - 1) / blockSize;
+    if (blocks > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Too many blocks: " + blocks);
+    }
+    return (int) blocks;
+  }
+
+  /**
+   * Hashes all blocks of a file.
+   *
+   * @param file the file to be hashed
+   * @return the hashes of the blocks from left to right
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file has more blocks than an array can hold
+   */
+  public long[] hashBlocks(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long[] result = new long[getNumberOfBlocks(channel.size())];
+      hashBlocks(channel, 0, result.length, result);
+      return result;
+    }
+  }
+
+  /**
+   * Hashes all blocks of a file into the leaves of a tree. The tree must have at least as many
+   * leaves as the file has blocks, leaves behind the last block are left unchanged.
+   *
+   * @param file the file to be hashed
+   * @param tree a tree of this package whose leaves have no values
+   * @return the number of leaves whose hash changed
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the tree is not supported or a changed leaf has a value
+   * @throws IndexOutOfBoundsException if the tree has less leaves than the file has blocks
+   */
+  public int hashInto(Path file, HashTree<?> tree) throws IOException {
+    return hashInto(file, tree, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Hashes the blocks of a file that contain at least one byte of the given range into the leaves
+   * of a tree, all other leaves are left unchanged. Used to update a tree after a part of the file
+   * has been changed in place.
+   *
+   * @param file the file to be hashed
+   * @param tree a tree of this package whose leaves have no values
+   * @param offset the position of the first byte changed
+   * @param length the number of bytes changed, the range is cut off at the end of the file
+   * @return the number of leaves whose hash changed
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the range is negative, the tree is not supported or a
+   *         changed leaf has a value
+   * @throws IndexOutOfBoundsException if the tree has less leaves than the range has blocks
+   */
+  public int hashInto(Path file, HashTree<?> tree, long offset, long length)
+      throws IOException {
+    if (offset < 0 || length < 0) {
+      throw new IllegalArgumentException("Invalid range: " + offset + ", " + length);
+    }
+    final IndexedNodes<?> nodes = IndexedNodes.of(tree);
+    final int firstLeafIndex = nodes.getLayout().getFirstLeafIndex();
+    final int numberOfLeaves = nodes.getLayout().getNumberOfLeaves();
+    final long[] hashes;
+    final int firstBlock;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      final long end = length > size - offset ? size : offset + length;
+      if (offset >= end) {
+        return 0;
+      }
+      firstBlock = (int) (offset / blockSize);
+      final int lastBlock = getNumberOfBlocks(end) - 1;
+      if (lastBlock >= numberOfLeaves) {
+        throw new IndexOutOfBoundsException();
+      }
+      hashes = new long[lastBlock - firstBlock + 1];
+      hashBlocks(channel, firstBlock, hashes.length, hashes);
+    }
+    int changedLeaves = 0;
+    for (int i = 0; i < hashes.length; i++) {
+      final int index = firstLeafIndex + firstBlock + i;
+      if (!nodes.hasHash(index) || nodes.getHash(index) != hashes[i]) {
+        tree.setHash(index, hashes[i]);
+        changedLeaves++;
+      }
+    }
+    return changedLeaves;
+  }
+
+  /** Helper method to hash consecutive blocks of a file in parallel if they are large enough. */
+  private void hashBlocks(FileChannel channel, int firstBlock, int numberOfBlocks, long[] result)
+      throws IOException {
+    final BlockTask task =
+        new BlockTask(channel, firstBlock, numberOfBlocks, firstBlock, result);
+    try {
+      if ((long) numberOfBlocks * blockSize > SEQUENTIAL_THRESHOLD && numberOfBlocks > 1) {
+        ForkJoinPool.commonPool().invoke(task);
+      } else {
+        task.compute();
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Maps and hashes consecutive blocks of a file. Parts above a threshold size are split into two
+   * halves which are hashed in parallel.
+   */
+  private final class BlockTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final FileChannel channel;
+
+    private final int firstBlock;
+
+    private final int numberOfBlocks;
+
+    /**
+     * The block whose hash is stored at index 0 of {@link #result}.
+     */
+    private final int resultOffset;
+
+    private final long[] result;
+
+    BlockTask(FileChannel channel, int firstBlock, int numberOfBlocks, int resultOffset,
+        long[] result) {
+      this.channel = channel;
+      this.firstBlock = firstBlock;
+      this.numberOfBlocks = numberOfBlocks;
+      this.resultOffset = resultOffset;
+      this.result = result;
+    }
+
+    @Override
+    protected void compute() {
+      if ((long) numberOfBlocks * blockSize > SEQUENTIAL_THRESHOLD && numberOfBlocks > 1) {
+        final int half = numberOfBlocks / 2;
+        invokeAll(new BlockTask(channel, firstBlock, half, resultOffset, result),
+            new BlockTask(channel, firstBlock + half, numberOfBlocks - half, resultOffset,
+                result));
+        return;
+      }
+      try {
+        final long position = (long) firstBlock * blockSize;
+        final long size = Math.min((long) numberOfBlocks * blockSize, channel.size() - position);
+        final MappedByteBuffer mapping =
+            channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        for (int i = 0; i < numberOfBlocks; i++) {
+          final int blockStart = i * blockSize;
+          final int blockLength = (int) Math.min(blockSize, size - blockStart);
+          result[firstBlock + i - resultOffset] =
+              hashStrategy.hashBytes(mapping.slice(blockStart, blockLength));
+        }
+      } catch (IOException e) {
+        // tasks cannot throw checked exceptions, unwrapped by the caller
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+}
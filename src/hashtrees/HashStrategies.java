@@ -0,0 +1,61 @@
+package hashtrees;
+
+/**
+ * Provides the predefined implementations of {@link HashStrategy}.
+ */
+public final class HashStrategies {
+
+  private HashStrategies() {
+    // Generating objects of this class is not intended.
+  }
+
+  /**
+   * Returns the strategy used by all trees that are created without a strategy. It is the one
+   * returned by {@link #legacy()}, so these trees calculate the same hashes as earlier versions.
+   * The other strategies have to be passed explicitly.
+   *
+   * @return the default strategy
+   */
+  public static HashStrategy defaultStrategy() {
+    return LegacyHashStrategy.INSTANCE;
+  }
+
+  /**
+   * Returns a fast non-cryptographic strategy. Values are hashed by multiply-and-fold rounds over
+   * their textual representation as done by wyhash, inner nodes mix both child hashes and finish
+   * with an avalanche step. It detects accidental changes reliably, but must not be used where an
+   * adversary may craft collisions.
+   *
+   * @return the fast 64-bit strategy
+   */
+  public static HashStrategy fast() {
+    return MixHashStrategy.INSTANCE;
+  }
+
+  /**
+   * Returns a strategy based on SHA-256. Leaves hash the UTF-8 encoded textual representation of
+   * their value, inner nodes hash both child hashes. Leaf and inner inputs are prefixed with
+   * different bytes so that they cannot be confused. The hash of a node consists of the first eight
+   * bytes of the digest. The digests are computed by {@link java.security.MessageDigest}, which
+   * uses the SHA instructions of the CPU if the JVM supports them.
+   *
+   * @return the SHA-256 based strategy
+   */
+  public static HashStrategy sha256() {
+    return Sha256HashStrategy.INSTANCE;
+  }
+
+  /**
+   * Returns the strategy originally used by all trees: leaves are labelled with
+   * {@code value.toString().hashCode()} and inner nodes with the product of their child hashes. The
+   * product becomes 0 as soon as a single hash below is 0, so new trees should rather use
+   * {@link #fast()} or {@link #sha256()}. It is kept as the default to stay compatible with hashes
+   * calculated by earlier versions.
+   *
+   * @return the legacy strategy
+   */
+  public static HashStrategy legacy() {
+    return LegacyHashStrategy.INSTANCE;
+  }
+
+}
@@ -0,0 +1,83 @@
+package hashtrees;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Strategy for calculating the hashes of a Merkle-Tree. Leaf nodes are labelled with the hash of
+ * their value, inner nodes with the hash of the labels of their two children.
+ *
+ * <p>Implementations must be stateless or thread-safe, as trees may be built by several threads at
+ * once. Predefined strategies are provided by {@link HashStrategies}.
+ */
+public interface HashStrategy {
+
+  /**
+   * Calculates the hash of a leaf node. The predefined strategies hash the textual representation
+   * of the value, which values implementing {@link Hashable} provide without creating a string.
+   *
+   * @param value the value of the leaf, never {@code null}
+   * @return the hash of the value
+   */
+  public long hashLeaf(Object value);
+
+  /**
+   * Calculates the hash of an inner node. The order of the children matters, i.e. swapping them
+   * should result in a different hash.
+   *
+   * @param leftHash the hash of the left child
+   * @param rightHash the hash of the right child
+   * @return the hash of the inner node
+   */
+  public long hashInner(long leftHash, long rightHash);
+
+  /**
+   * Calculates the hash of a leaf whose value is a block of raw bytes, e.g. a part of a file. The
+   * remaining bytes of the buffer are hashed without changing its position, so the buffer may be a
+   * view of a mapped file that is never copied to the heap.
+   *
+   * <p>The default implementation starts with the number of bytes and combines it with the bytes
+   * as little-endian words of eight by {@link #hashInner(long, long)}, the last word is padded with
+   * zeros. The predefined strategies hash the bytes like the text of a leaf instead.
+   *
+   * @param block the bytes to be hashed
+   * @return the hash of the bytes
+   */
+  public default long hashBytes(ByteBuffer block) {
+    final ByteBuffer bytes = block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    final int from = bytes.position();
+    final int length = bytes.remaining();
+    long hash = length;
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      hash = hashInner(hash, bytes.getLong(from + i));
+    }
+    if (i < length) {
+      long word = 0;
+      for (int shift = 0; i < length; i++, shift += 8) {
+        word |= (bytes.get(from + i) & 0xffL) << shift;
+      }
+      hash = hashInner(hash, word);
+    }
+    return hash;
+  }
+
+  /**
+   * Calculates the hash of an inner node with any number of children, as needed by trees with a
+   * fan-out above two. The default implementation combines the hashes from left to right by
+   * {@link #hashInner(long, long)}, so for two children both methods agree.
+   *
+   * @param childHashes the array holding the hashes of the children from left to right
+   * @param from the index of the hash of the leftmost child
+   * @param count the number of children, at least two
+   * @return the hash of the inner node
+   */
+  public default long hashInner(long[] childHashes, int from, int count) {
+    long hash = hashInner(childHashes[from], childHashes[from + 1]);
+    for (int i = from + 2; i < from + count; i++) {
+      hash = hashInner(hash, childHashes[i]);
+    }
+    return hash;
+  }
+
+}
@@ -1,9 +1,16 @@
 package hashtrees;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Interface for HashTrees.
+ *
+ * <p>All trees of this package follow the same rules: once the root hash is set it cannot be
+ * altered by the hashes of its children, an inner node only has a hash if all of its children have
+ * one, and setting the hash of a leaf that has a value is not allowed.
  * 
  * @param <V> the type of elements stored in the tree
  */
@@ -29,6 +36,31 @@ public interface HashTree<V> {
    */
   public void setValue(int position, V value);
 
+  /**
+   * Changes the values at several positions at once. Unlike calling {@link #setValue(int, Object)}
+   * for each value, implementations may apply the values atomically with respect to the root hash:
+   * the inner nodes are only recalculated after all leaves are changed, so that every affected
+   * inner node is recalculated only once and a root hash that is not set before the call can only
+   * be calculated from the final values.
+   *
+   * <p>As the root hash cannot be altered once it is set, the result may differ from setting the
+   * values one by one. The loop may pass a state in which the root hash can be calculated from the
+   * values set so far, which pins a root hash that a later value of the same loop makes stale, so
+   * that {@link #isConsistent()} returns {@code false} afterwards. An atomic implementation only
+   * calculates the root hash of the final state.
+   *
+   * <p>The default implementation calls {@link #setValue(int, Object)} for each entry and thus is
+   * not atomic. All overriding trees of this package are atomic.
+   *
+   * @param values the new values mapped by the index of their leaf counted from left to right
+   * @throws IndexOutOfBoundsException if an index is out of range
+   */
+  public default void setValues(Map<Integer, ? extends V> values) {
+    for (Map.Entry<Integer, ? extends V> entry : values.entrySet()) {
+      setValue(entry.getKey(), entry.getValue());
+    }
+  }
+
   /**
    * Checks if the given root hash is matching with the expected root hash calculated by the hash
    * function.
@@ -44,6 +76,86 @@ public interface HashTree<V> {
    */
   public List<Integer> getMissing();
 
+  /**
+   * Checks if all nodes needed to calculate the root hash are present, i.e. if
+   * {@link #getMissing()} would return an empty list.
+   *
+   * <p>The default implementation calls {@link #getMissing()}.
+   *
+   * @return {@code true} if no node is missing
+   */
+  public default boolean isReady() {
+    return getMissing().isEmpty();
+  }
+
+  /**
+   * Verifies the whole tree instead of the root only. The hash of every leaf with a value is
+   * recalculated from its value and the hash of every inner node from the hashes of its children,
+   * and compared with the stored hash. Nodes that cannot be recalculated, e.g. leaves without a
+   * value or inner nodes with a child without a hash, are not reported. Of several inconsistent
+   * nodes on a path only the highest one is reported, as its subtree is not examined any further.
+   *
+   * <p>The default implementation supports the trees of this package and checks large
+   * trees in parallel. The tree must not be changed while it is checked.
+   *
+   * @return the breadth-first indices of the highest inconsistent nodes in ascending order
+   * @throws IllegalArgumentException if the tree is not supported
+   */
+  public default List<Integer> getInconsistent() {
+    return IntegrityCheckTask.check(this);
+  }
+
+  /**
+   * Determines the leaves in which this tree differs from another tree of the same shape. A leaf
+   * differs if only one of the trees has a hash for it or if the hashes are not equal. Subtrees
+   * whose roots have equal hashes in both trees are considered equal without looking at their
+   * nodes, thus comparing trees that differ in {@code k} leaves visits {@code O(k log n)} nodes.
+   *
+   * <p>The default implementation supports the trees of this package.
+   *
+   * @param other the tree to compare with
+   * @return the positions of the differing leaves counted from left to right in ascending order
+   * @throws IllegalArgumentException if the trees have different shapes or are not supported
+   */
+  public default List<Integer> diff(HashTree<?> other) {
+    return MerkleTreeDiff.diff(this, other);
+  }
+
+  /**
+   * Creates a proof that a leaf belongs to this tree, consisting of the hashes of the siblings of
+   * all nodes on the path from the leaf to the root.
+   *
+   * <p>The default implementation supports the trees of this package.
+   *
+   * @param leafIndex index of the leaf counted from left to right
+   * @return the proof
+   * @throws IndexOutOfBoundsException if the index is out of range
+   * @throws IllegalStateException if the leaf or a node needed has no hash
+   * @throws IllegalArgumentException if the tree is not supported
+   * @see MerkleProof#verify(long, Map, HashStrategy)
+   */
+  public default MerkleProof proof(int leafIndex) {
+    return proofs(Collections.singleton(leafIndex));
+  }
+
+  /**
+   * Creates a single proof that several leaves belong to this tree. Hashes needed by several
+   * leaves are included once, and hashes that can be calculated from the leaves are not included
+   * at all.
+   *
+   * <p>The default implementation supports the trees of this package.
+   *
+   * @param leafIndices the indices of the leaves counted from left to right
+   * @return the proof
+   * @throws IndexOutOfBoundsException if an index is out of range
+   * @throws IllegalStateException if a leaf or a node needed has no hash
+   * @throws IllegalArgumentException if no index is given or the tree is not supported
+   * @see MerkleProof#verify(long, Map, HashStrategy)
+   */
+  public default MerkleProof proofs(Set<Integer> leafIndices) {
+    return MerkleProof.create(this, leafIndices);
+  }
+
   /**
    * Deletes all existing values, thus the tree will be empty after this call returns.
    */
@@ -0,0 +1,20 @@
+package hashtrees;
+
+/**
+ * A value that can write its textual representation without creating a new {@code String}. The
+ * predefined {@link HashStrategy strategies} hash the textual representation of a leaf's value;
+ * for values implementing this interface they let it append the characters to a buffer that is
+ * reused for every leaf of a thread instead of calling {@link Object#toString()}. As the
+ * characters are the same, the hashes do not change.
+ */
+public interface Hashable {
+
+  /**
+   * Appends the textual representation of this value, the characters returned by
+   * {@link Object#toString()}.
+   *
+   * @param text the buffer to append to
+   */
+  public void appendTo(StringBuilder text);
+
+}
@@ -0,0 +1,74 @@
+package hashtrees;
+
+/**
+ * Gives read access to the nodes of a Merkle-Tree by their index calculated by a
+ * breadth-first-traversal, regardless of how the tree stores them. The {@link NodeLayout} of the
+ * tree tells which nodes are the children of a node and where the leaves start, for a binary tree
+ * the node with the index {@code i} has the children {@code 2 * i + 1} and {@code 2 * i + 2}, and
+ * the leaves start at the index {@code 2^height - 1}. Implemented by all trees of this package.
+ *
+ * @param <V> the type of elements stored in the tree
+ */
+interface IndexedNodes<V> {
+
+  /**
+   * Returns the height of the tree i.e. the number of edges between the root and a leaf.
+   */
+  int getHeight();
+
+  /**
+   * Returns the shape of the tree.
+   *
+   * <p>The default implementation returns the layout of a binary tree of the height of the tree.
+   */
+  default NodeLayout getLayout() {
+    return NodeLayout.binary(getHeight());
+  }
+
+  /**
+   * Returns the hash functions used to calculate the hashes of the tree.
+   */
+  HashStrategy getHashStrategy();
+
+  /**
+   * Returns {@code true} if the node with the given breadth-first index has a hash.
+   */
+  boolean hasHash(int index);
+
+  /**
+   * Returns the hash of the node with the given breadth-first index. The result is only
+   * meaningful if {@link #hasHash(int)} returns {@code true}.
+   */
+  long getHash(int index);
+
+  /**
+   * Returns the value of the leaf at the given position counted from left to right, {@code null}
+   * if it has no value or the tree does not keep values.
+   */
+  V getValue(int position);
+
+  /**
+   * Returns {@code true} if it is known that no node of the subtree below the node with the given
+   * breadth-first index has a hash or a value, so that the subtree can be skipped.
+   *
+   * <p>The default implementation returns {@code false}.
+   */
+  default boolean isEmpty(int index) {
+    return false;
+  }
+
+  /**
+   * Returns the nodes of a tree of this package.
+   *
+   * @param tree the tree
+   * @return a view of the nodes of the tree
+   * @throws IllegalArgumentException if the tree is not a tree of this package
+   */
+  static <V> IndexedNodes<V> of(HashTree<V> tree) {
+    if (tree instanceof MeasuredHashTree) {
+      return ((MeasuredHashTree<V>) tree).nodes();
+    }
+    throw new IllegalArgumentException("Unsupported tree: " + tree.getClass().getName());
+  }
+
+}
@@ -0,0 +1,166 @@
+package hashtrees;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Searches the inconsistent nodes of a Merkle-Tree. The hash of every leaf with a value is
+ * recalculated from its value and the hash of every inner node is recalculated from the hashes
+ * stored in its children. A node is inconsistent if the recalculated hash differs from the stored
+ * one. Nodes without a hash, leaves without a value and inner nodes with a child without a hash
+ * cannot be checked and count as consistent.
+ *
+ * <p>Only the highest inconsistent nodes are searched, i.e. the subtree below an inconsistent node
+ * is not visited, and neither are subtrees the tree knows to be empty. Subtrees above a threshold
+ * height are split into the subtrees of their children which are checked in parallel by a
+ * {@link ForkJoinPool}, smaller subtrees are checked level by level on the current thread.
+ */
+final class IntegrityCheckTask extends RecursiveTask<List<Integer>> {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Subtrees up to this height are checked sequentially, as splitting them would cost more than
+   * it gains.
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 12;
+
+  /**
+   * The tree to check. Every task reads it through a view of its own, as views may remember the
+   * node accessed last.
+   */
+  private final HashTree<?> tree;
+
+  /**
+   * The breadth-first index of the root of the subtree to check.
+   */
+  private final int index;
+
+  /**
+   * The height of the subtree i.e. the largest number of edges between its root and a leaf.
+   */
+  private final int height;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy strategy;
+
+  private IntegrityCheckTask(HashTree<?> tree, int index, int height, HashStrategy strategy) {
+    this.tree = tree;
+    this.index = index;
+    this.height = height;
+    this.strategy = strategy;
+  }
+
+  /**
+   * Determines the highest inconsistent nodes of a tree.
+   *
+   * @see HashTree#getInconsistent()
+   */
+  static List<Integer> check(HashTree<?> tree) {
+    final IndexedNodes<?> nodes = IndexedNodes.of(tree);
+    final IntegrityCheckTask task =
+        new IntegrityCheckTask(tree, 0, nodes.getHeight(), nodes.getHashStrategy());
+    final List<Integer> result;
+    if (nodes.getHeight() > SEQUENTIAL_THRESHOLD) {
+      result = ForkJoinPool.commonPool().invoke(task);
+    } else {
+      result = task.compute();
+    }
+    // the results of the subtrees are concatenated, thus their levels are interleaved
+    Collections.sort(result);
+    return result;
+  }
+
+  @Override
+  protected List<Integer> compute() {
+    final IndexedNodes<?> nodes = IndexedNodes.of(tree);
+    final NodeLayout layout = nodes.getLayout();
+    final long[] childHashes = new long[layout.getArity()];
+    if (height <= SEQUENTIAL_THRESHOLD) {
+      return checkSequentially(nodes, IndexedNodes.of(tree), layout, childHashes);
+    }
+    final List<Integer> result = new ArrayList<Integer>();
+    if (isInconsistent(nodes, nodes, layout, index, childHashes)) {
+      result.add(index);
+      return result;
+    }
+    final int firstChild = layout.getFirstChild(index);
+    final int numberOfChildren = layout.getNumberOfChildren(index);
+    final List<IntegrityCheckTask> subtasks = new ArrayList<IntegrityCheckTask>(numberOfChildren);
+    for (int child = firstChild; child < firstChild + numberOfChildren; child++) {
+      if (!nodes.isEmpty(child)) {
+        subtasks.add(new IntegrityCheckTask(tree, child, height - 1, strategy));
+      }
+    }
+    for (IntegrityCheckTask subtask : invokeAll(subtasks)) {
+      result.addAll(subtask.join());
+    }
+    return result;
+  }
+
+  /**
+   * Helper method to check the subtree on the current thread. The levels are read from left to
+   * right, which is the cheapest order for all views of the package, with one view for the
+   * current level and one for the level of the children.
+   */
+  private List<Integer> checkSequentially(IndexedNodes<?> nodes, IndexedNodes<?> children,
+      NodeLayout layout, long[] childHashes) {
+    final List<Integer> result = new ArrayList<Integer>();
+    // the nodes on the current level that still need to be checked, from left to right
+    int[] pending = {index};
+    int numberOfPendingNodes = nodes.isEmpty(index) ? 0 : 1;
+    while (numberOfPendingNodes > 0) {
+      int[] next = new int[numberOfPendingNodes * layout.getArity()];
+      int numberOfNextNodes = 0;
+      for (int i = 0; i < numberOfPendingNodes; i++) {
+        final int current = pending[i];
+        if (isInconsistent(nodes, children, layout, current, childHashes)) {
+          result.add(current);
+          continue;
+        }
+        final int firstChild = layout.getFirstChild(current);
+        final int lastChild = firstChild + layout.getNumberOfChildren(current) - 1;
+        for (int child = firstChild; child <= lastChild; child++) {
+          if (!children.isEmpty(child)) {
+            next[numberOfNextNodes++] = child;
+          }
+        }
+      }
+      pending = next;
+      numberOfPendingNodes = numberOfNextNodes;
+    }
+    return result;
+  }
+
+  /**
+   * Helper method to recalculate the hash of a node and compare it with the stored one. The
+   * hashes of the children are collected in the given buffer.
+   */
+  private boolean isInconsistent(IndexedNodes<?> nodes, IndexedNodes<?> children,
+      NodeLayout layout, int node, long[] childHashes) {
+    if (!nodes.hasHash(node)) {
+      return false;
+    }
+    final int firstLeafIndex = layout.getFirstLeafIndex();
+    if (node >= firstLeafIndex) {
+      final Object value = nodes.getValue(node - firstLeafIndex);
+      return value != null && strategy.hashLeaf(value) != nodes.getHash(node);
+    }
+    final int firstChild = layout.getFirstChild(node);
+    final int numberOfChildren = layout.getNumberOfChildren(node);
+    for (int i = 0; i < numberOfChildren; i++) {
+      if (!children.hasHash(firstChild + i)) {
+        return false;
+      }
+      childHashes[i] = children.getHash(firstChild + i);
+    }
+    return NodeLayout.hashChildren(strategy, childHashes, 0, numberOfChildren)
+        != nodes.getHash(node);
+  }
+
+}
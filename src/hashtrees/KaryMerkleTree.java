@@ -0,0 +1,84 @@
+package hashtrees;
+
+/**
+ * Represents a mutable Merkle-Tree in which every inner node has the same configurable number of
+ * children, its arity. A wider fan-out makes the tree flatter: a tree of arity {@code k} with
+ * {@code n} leaves has the height {@code log_k(n)}, so an update visits a quarter of the levels of
+ * a binary tree for {@code k = 16}, and the children of a node are next to each other in memory.
+ *
+ * <p>Like in an {@link ArrayMerkleTree} the nodes are slots of flat arrays in the order of a
+ * breadth-first-traversal. Thus the node with the index {@code i} has the children
+ * {@code k * i + 1} to {@code k * i + k} and the parent {@code (i - 1) / k}, and the leaves start
+ * at the index {@code (k^height - 1) / (k - 1)}. The hash of an inner node is calculated from the
+ * hashes of all of its children by {@link HashStrategy#hashInner(long[], int, int)}, so for the
+ * arity 2 the tree equals an {@code ArrayMerkleTree}.
+ *
+ * <p>Apart from that this tree behaves like a {@link MutableMerkleTree}. Proofs, differences and
+ * integrity checks handle all children of a node, only {@link MerkleTreeIO} is restricted to binary
+ * trees.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+public class KaryMerkleTree<V> extends ArrayHashTree<V> {
+
+  /**
+   * The maximum number of nodes, a larger tree does not fit into the arrays.
+   */
+  private static final long MAX_NODES = 1L << 30;
+
+  /**
+   * Creates a new {@code KaryMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param arity the number of children of every inner node
+   * @throws IllegalArgumentException if the arity is less than 2 or the tree would not fit into an
+   *         array
+   */
+  public KaryMerkleTree(int leavesNeeded, int arity) {
+    this(leavesNeeded, arity, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code KaryMerkleTree}.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param arity the number of children of every inner node
+   * @param hashStrategy the hash functions of the tree
+   * @throws IllegalArgumentException if the arity is less than 2 or the tree would not fit into an
+   *         array
+   */
+  public KaryMerkleTree(int leavesNeeded, int arity, HashStrategy hashStrategy) {
+    super(NodeLayout.kary(arity, heightFor(leavesNeeded, arity)), hashStrategy);
+  }
+
+  /** Helper method to calculate the smallest height of at least 1 with enough leaves. */
+  private static int heightFor(int leavesNeeded, int arity) {
+    if (arity < 2) {
+      throw new IllegalArgumentException("Arity too small: " + arity);
+    }
+    int height = 1;
+    long leaves = arity;
+    long numberOfNodes = 1 + leaves;
+    while (leaves < leavesNeeded && numberOfNodes <= MAX_NODES) {
+      height++;
+      leaves *= arity;
+      numberOfNodes += leaves;
+    }
+    if (numberOfNodes > MAX_NODES) {
+      throw new IllegalArgumentException("Capacity too large: " + leavesNeeded);
+    }
+    return height;
+  }
+
+  /** Returns the number of children of every inner node. */
+  public int getArity() {
+    return getLayout().getArity();
+  }
+
+  /** Returns the height of the tree i.e. the number of edges between the root and a leaf. */
+  public int getHeight() {
+    return getLayout().getHeight();
+  }
+
+}
@@ -0,0 +1,52 @@
+package hashtrees;
+
+/**
+ * Provides the textual representation of leaf values that the predefined strategies hash. Values
+ * implementing {@link Hashable} are written into a buffer of the current thread, all other values
+ * are converted by {@link Object#toString()}.
+ */
+final class LeafText {
+
+  private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder();
+    }
+  };
+
+  private LeafText() {
+    // Generating objects of this class is not intended.
+  }
+
+  /**
+   * Returns the textual representation of a value. The result may be the buffer of the current
+   * thread, so it is only valid until this method is called again by the same thread.
+   *
+   * @param value the value of a leaf
+   * @return the characters of the textual representation
+   */
+  static CharSequence of(Object value) {
+    if (value instanceof Hashable) {
+      final StringBuilder text = BUFFERS.get();
+      text.setLength(0);
+      ((Hashable) value).appendTo(text);
+      return text;
+    }
+    return value.toString();
+  }
+
+  /**
+   * Returns the hash code of a textual representation calculated like {@link String#hashCode()}.
+   */
+  static int hashCode(CharSequence text) {
+    if (text instanceof String) {
+      return text.hashCode();
+    }
+    int hash = 0;
+    for (int i = 0; i < text.length(); i++) {
+      hash = 31 * hash + text.charAt(i);
+    }
+    return hash;
+  }
+
+}
@@ -0,0 +1,45 @@
+package hashtrees;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The hash functions originally hard-wired into the nodes of a Merkle-Tree.
+ *
+ * @see HashStrategies#legacy()
+ */
+final class LegacyHashStrategy implements HashStrategy {
+
+  static final LegacyHashStrategy INSTANCE = new LegacyHashStrategy();
+
+  private LegacyHashStrategy() {
+    // singleton
+  }
+
+  @Override
+  public long hashLeaf(Object value) {
+    TreeMetrics.leafHashed();
+    return LeafText.hashCode(LeafText.of(value));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The bytes are hashed like the chars of a string by {@code String#hashCode()}.
+   */
+  @Override
+  public long hashBytes(ByteBuffer block) {
+    TreeMetrics.leafHashed();
+    int hash = 0;
+    for (int i = block.position(); i < block.limit(); i++) {
+      hash = 31 * hash + (block.get(i) & 0xff);
+    }
+    return hash;
+  }
+
+  @Override
+  public long hashInner(long leftHash, long rightHash) {
+    TreeMetrics.innerHashed();
+    return leftHash * rightHash;
+  }
+
+}
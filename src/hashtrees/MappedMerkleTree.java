@@ -0,0 +1,502 @@
+package hashtrees;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a mutable Merkle-Tree that is stored in a memory-mapped file instead of the heap. The
+ * layout equals the one of {@link ArrayMerkleTree}: the hashes of all nodes are stored in the order
+ * of a breadth-first-traversal, followed by bitmaps that record which nodes have a hash, which
+ * subtrees contain a hash and which leaves have a value. As the upper levels of the tree are stored
+ * at the beginning of the file, they stay in the page cache while the lower levels are only loaded
+ * when they are accessed. Every change is written to the mapping directly, so a tree can be
+ * reopened without any reading or hashing.
+ *
+ * <p>Values are not stored, only the hashes calculated from them, since they are the data blocks
+ * the tree is built for. Therefore {@link #toString()} shows leaves by their hash.
+ *
+ * <p>A tree must be opened with the same hash functions it was created with.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+public class MappedMerkleTree<V> extends MeasuredHashTree<V> implements Closeable {
+
+  /**
+   * The maximum height, a higher tree has more nodes than an {@code int} can index.
+   */
+  private static final int MAX_HEIGHT = 30;
+
+  /**
+   * Identifies files created by this class, the ASCII characters {@code MERKLE01}.
+   */
+  private static final long MAGIC = 0x4D45524B4C453031L;
+
+  /**
+   * The number of 8-byte words before the hashes: the magic number, the height and reserved words.
+   */
+  private static final int HEADER_WORDS = 8;
+
+  /**
+   * The number of bytes mapped by one buffer, as a buffer cannot map more than 2 GiB.
+   */
+  private static final long CHUNK_SIZE = 1L << 30;
+
+  /**
+   * The height of the tree i.e. the number of edges between the root and a leaf.
+   */
+  private final int height;
+
+  /**
+   * The breadth-first index of the leftmost leaf.
+   */
+  private final int firstLeafIndex;
+
+  /**
+   * The word offsets of the bitmaps recording which nodes have a hash, which subtrees (including
+   * their root) contain a hash and which leaves have a value.
+   */
+  private final long hashPresentOffset;
+  private final long occupiedOffset;
+  private final long valuePresentOffset;
+
+  /**
+   * The file the tree is stored in.
+   */
+  private final FileChannel channel;
+
+  /**
+   * The mapped chunks of the file.
+   */
+  private final MappedByteBuffer[] chunks;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * The shape of the tree, which sweeps the levels above changed nodes.
+   */
+  private final NodeLayout layout;
+
+  /**
+   * Recalculates a single inner node for the sweeps of {@link #layout}.
+   */
+  private final NodeLayout.Recalculation recalculation = new NodeLayout.Recalculation() {
+
+    @Override
+    public boolean recalculate(int index) {
+      return MappedMerkleTree.this.recalculate(index);
+    }
+  };
+
+  /** Maps a tree of the given height, the file must already have the header. */
+  private MappedMerkleTree(FileChannel channel, int height, HashStrategy hashStrategy)
+      throws IOException {
+    this.height = height;
+    this.layout = NodeLayout.binary(height);
+    this.firstLeafIndex = (1 << height) - 1;
+    final long numberOfNodes = (1L << (height + 1)) - 1;
+    this.hashPresentOffset = HEADER_WORDS + numberOfNodes;
+    this.occupiedOffset = hashPresentOffset + bitmapWords(numberOfNodes);
+    this.valuePresentOffset = occupiedOffset + bitmapWords(numberOfNodes);
+    final long fileSize = fileSize(height);
+    this.channel = channel;
+    this.chunks = new MappedByteBuffer[(int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+    for (int i = 0; i < chunks.length; i++) {
+      final long start = i * CHUNK_SIZE;
+      // mapping beyond the end of the file extends it, the new part is filled with zeros
+      chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+          Math.min(CHUNK_SIZE, fileSize - start));
+      chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+    }
+    this.hashStrategy = hashStrategy;
+  }
+
+  /**
+   * Creates a new empty {@code MappedMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions. An existing file is
+   * overwritten.
+   *
+   * @param file the file to store the tree in
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @return the new tree
+   * @throws IOException if the file cannot be created
+   * @throws IllegalArgumentException if the tree would have more than {@code 2^30} leaves
+   */
+  public static <V> MappedMerkleTree<V> create(Path file, int leavesNeeded) throws IOException {
+    return create(file, leavesNeeded, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new empty {@code MappedMerkleTree}. An existing file is overwritten.
+   *
+   * @param file the file to store the tree in
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param hashStrategy the hash functions of the tree
+   * @return the new tree
+   * @throws IOException if the file cannot be created
+   * @throws IllegalArgumentException if the tree would have more than {@code 2^30} leaves
+   */
+  public static <V> MappedMerkleTree<V> create(Path file, int leavesNeeded,
+      HashStrategy hashStrategy) throws IOException {
+    final int height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded));
+    if (height > MAX_HEIGHT) {
+      throw new IllegalArgumentException("Capacity too large: " + leavesNeeded);
+    }
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      final MappedMerkleTree<V> tree = new MappedMerkleTree<V>(channel, height, hashStrategy);
+      tree.putWord(1, height);
+      tree.putWord(0, MAGIC);
+      return tree;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a {@code MappedMerkleTree} stored in a file that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param file the file the tree is stored in
+   * @return the tree
+   * @throws IOException if the file cannot be read or does not contain a tree
+   */
+  public static <V> MappedMerkleTree<V> open(Path file) throws IOException {
+    return open(file, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Opens a {@code MappedMerkleTree} stored in a file. Nothing is read apart from the header, the
+   * nodes are loaded by the operating system when they are accessed.
+   *
+   * @param file the file the tree is stored in
+   * @param hashStrategy the hash functions the tree was created with
+   * @return the tree
+   * @throws IOException if the file cannot be read or does not contain a tree
+   */
+  public static <V> MappedMerkleTree<V> open(Path file, HashStrategy hashStrategy)
+      throws IOException {
+    final FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      final ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // read until the header is complete or the file ends
+      }
+      header.flip();
+      if (header.remaining() < 16 || header.getLong() != MAGIC) {
+        throw new IOException("Not a Merkle-Tree file: " + file);
+      }
+      final long height = header.getLong();
+      if (height < 1 || height > MAX_HEIGHT || channel.size() != fileSize((int) height)) {
+        throw new IOException("Corrupt Merkle-Tree file: " + file);
+      }
+      return new MappedMerkleTree<V>(channel, (int) height, hashStrategy);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public void setHash(int position, long hash) {
+    if (position < 0 || position > 2 * firstLeafIndex) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (position >= firstLeafIndex && getBit(valuePresentOffset, position - firstLeafIndex)) {
+      // the hash would manipulate the hash calculated from the value
+      throw new IllegalArgumentException();
+    }
+    putWord(HEADER_WORDS + position, hash);
+    setBit(hashPresentOffset, position, true);
+    if (position != 0) {
+      layout.recalculatePath(parentIndex(position), recalculation);
+    }
+    updateOccupied(position);
+  }
+
+  @Override
+  public void setValue(int position, V value) {
+    if (position < 0 || position > firstLeafIndex) {
+      throw new IndexOutOfBoundsException();
+    }
+    final int index = firstLeafIndex + position;
+    assignValue(index, value);
+    layout.recalculatePath(parentIndex(index), recalculation);
+    updateOccupied(index);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>All leaves are changed first, afterwards the inner nodes are recalculated level by level
+   * from the bottom up. Every inner node above a changed leaf is recalculated at most once. If an
+   * index is out of range the tree is left unchanged.
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    for (Integer position : values.keySet()) {
+      if (position < 0 || position > firstLeafIndex) {
+        throw new IndexOutOfBoundsException();
+      }
+    }
+    final int[] changedLeaves = new int[values.size()];
+    final int[] dirtyNodes = new int[values.size()];
+    int numberOfChangedLeaves = 0;
+    for (Map.Entry<Integer, ? extends V> entry : values.entrySet()) {
+      final int index = firstLeafIndex + entry.getKey();
+      assignValue(index, entry.getValue());
+      changedLeaves[numberOfChangedLeaves] = index;
+      dirtyNodes[numberOfChangedLeaves++] = parentIndex(index);
+    }
+    layout.recalculateLevels(dirtyNodes, numberOfChangedLeaves, recalculation);
+    for (int i = 0; i < numberOfChangedLeaves; i++) {
+      updateOccupied(changedLeaves[i]);
+    }
+  }
+
+  /** Helper method to change the hash of a leaf without updating the nodes above. */
+  private void assignValue(int index, V value) {
+    if (value != null) {
+      putWord(HEADER_WORDS + index, hashStrategy.hashLeaf(value));
+      setBit(hashPresentOffset, index, true);
+      setBit(valuePresentOffset, index - firstLeafIndex, true);
+    } else {
+      setBit(hashPresentOffset, index, false);
+      setBit(valuePresentOffset, index - firstLeafIndex, false);
+    }
+  }
+
+  /**
+   * Recalculates the hash of an inner node if possible without updating the next higher node.
+   *
+   * @return {@code true} if a new hash was calculated i.e. the parent node has to be updated
+   */
+  private boolean recalculate(int index) {
+    if (index == 0 && hasHash(0)) {
+      // once the root hash is set it cannot be altered
+      return false;
+    }
+    final int leftChildIndex = 2 * index + 1;
+    final int rightChildIndex = 2 * index + 2;
+    if (hasHash(leftChildIndex) && hasHash(rightChildIndex)) {
+      putWord(HEADER_WORDS + index,
+          hashStrategy.hashInner(getHash(leftChildIndex), getHash(rightChildIndex)));
+      setBit(hashPresentOffset, index, true);
+      return true;
+    } else {
+      setBit(hashPresentOffset, index, false);
+      return false;
+    }
+  }
+
+  /** Recalculates which nodes on the path from a node to the root have a non-empty subtree. */
+  private void updateOccupied(int index) {
+    while (true) {
+      setBit(occupiedOffset, index, isOccupied(index));
+      if (index == 0) {
+        return;
+      }
+      index = parentIndex(index);
+    }
+  }
+
+  /** Helper method for {@link #updateOccupied(int)}. */
+  private boolean isOccupied(int index) {
+    return hasHash(index) || (index < firstLeafIndex
+        && (getBit(occupiedOffset, 2 * index + 1) || getBit(occupiedOffset, 2 * index + 2)));
+  }
+
+  @Override
+  public boolean isConsistent() {
+    if (!hasHash(0) || !hasHash(1) || !hasHash(2)) {
+      return false;
+    }
+    return getHash(0) == hashStrategy.hashInner(getHash(1), getHash(2));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The nodes are searched by {@link MissingNodeTracker#search(IndexedNodes)}, which skips the
+   * subtrees without a hash by the occupancy bitmap of the file.
+   */
+  @Override
+  List<Integer> searchMissing() {
+    return MissingNodeTracker.search(nodes());
+  }
+
+  @Override
+  public void clear() {
+    for (long word = valuePresentOffset; word < valuePresentOffset + bitmapWords(1L << height);
+        word++) {
+      putWord(word, 0L);
+    }
+    // like deleting the value of every leaf, the leaves and their parents lose their hashes
+    for (int index = firstLeafIndex; index <= 2 * firstLeafIndex; index++) {
+      setBit(hashPresentOffset, index, false);
+    }
+    for (int index = (firstLeafIndex - 1) / 2; index < firstLeafIndex; index++) {
+      recalculate(index);
+    }
+    for (int index = 2 * firstLeafIndex; index >= 0; index--) {
+      setBit(occupiedOffset, index, isOccupied(index));
+    }
+  }
+
+  /**
+   * Writes all changes of the mapping to the storage device.
+   *
+   * @see MappedByteBuffer#force()
+   */
+  public void force() {
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+  }
+
+  /**
+   * Closes the file. The tree must not be used afterwards. Changes that are not yet
+   * {@linkplain #force() forced} are still written by the operating system.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>As values are not stored, the view has no values.
+   */
+  @Override
+  IndexedNodes<V> nodes() {
+    return new IndexedNodes<V>() {
+
+      @Override
+      public int getHeight() {
+        return height;
+      }
+
+      @Override
+      public HashStrategy getHashStrategy() {
+        return hashStrategy;
+      }
+
+      @Override
+      public boolean hasHash(int index) {
+        return MappedMerkleTree.this.hasHash(index);
+      }
+
+      @Override
+      public long getHash(int index) {
+        return MappedMerkleTree.this.getHash(index);
+      }
+
+      @Override
+      public V getValue(int position) {
+        return null;
+      }
+
+      @Override
+      public boolean isEmpty(int index) {
+        return !getBit(occupiedOffset, index);
+      }
+    };
+  }
+
+  /**
+   * Returns a textual representation of this tree. The levels of a subtree are indicated by
+   * surrounding parentheses, the format equals the one of {@link MutableMerkleTree#toString()}
+   * except that leaves with a value are shown by their hash.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder res = new StringBuilder();
+    appendNode(res, 0);
+    return res.toString();
+  }
+
+  /** Helper method for {@link #toString()}. */
+  private void appendNode(StringBuilder res, int index) {
+    if (index >= firstLeafIndex) {
+      if (hasHash(index)) {
+        res.append(getHash(index));
+      } else {
+        res.append("(*)");
+      }
+      return;
+    }
+    res.append("(");
+    if (hasHash(index)) {
+      res.append(getHash(index)).append(" ");
+    } else {
+      res.append("* ");
+    }
+    appendNode(res, 2 * index + 1);
+    res.append(" ");
+    appendNode(res, 2 * index + 2);
+    res.append(")");
+  }
+
+  private boolean hasHash(int index) {
+    return getBit(hashPresentOffset, index);
+  }
+
+  private long getHash(int index) {
+    return getWord(HEADER_WORDS + index);
+  }
+
+  /** Returns a bit of the bitmap starting at the given word. */
+  private boolean getBit(long bitmapOffset, long bit) {
+    return (getWord(bitmapOffset + (bit >>> 6)) & (1L << bit)) != 0;
+  }
+
+  /** Changes a bit of the bitmap starting at the given word. */
+  private void setBit(long bitmapOffset, long bit, boolean value) {
+    final long word = bitmapOffset + (bit >>> 6);
+    final long bits = getWord(word);
+    putWord(word, value ? bits | (1L << bit) : bits & ~(1L << bit));
+  }
+
+  /** Reads the 8-byte word with the given index of the file. */
+  private long getWord(long word) {
+    final long offset = word << 3;
+    return chunks[(int) (offset / CHUNK_SIZE)].getLong((int) (offset % CHUNK_SIZE));
+  }
+
+  /** Writes the 8-byte word with the given index of the file. */
+  private void putWord(long word, long value) {
+    final long offset = word << 3;
+    chunks[(int) (offset / CHUNK_SIZE)].putLong((int) (offset % CHUNK_SIZE), value);
+  }
+
+  /** Returns the number of bytes of the file of a tree with the given height. */
+  private static long fileSize(int height) {
+    final long numberOfNodes = (1L << (height + 1)) - 1;
+    return 8 * (HEADER_WORDS + numberOfNodes + 2 * bitmapWords(numberOfNodes)
+        + bitmapWords(1L << height));
+  }
+
+  /** Returns the number of words of a bitmap with the given number of bits. */
+  private static long bitmapWords(long bits) {
+    return (bits + 63) >>> 6;
+  }
+
+  private static int parentIndex(int index) {
+    return (index - 1) / 2;
+  }
+
+}
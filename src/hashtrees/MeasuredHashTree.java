@@ -0,0 +1,45 @@
+package hashtrees;
+
+import java.util.List;
+
+/**
+ * This class is the common base of all trees of this package. It reports every search for the
+ * nodes needed to calculate the root hash to {@link TreeMetrics}, so that a tree cannot skip the
+ * measurement: subclasses only implement the search itself by {@link #searchMissing()}. Every
+ * tree also provides a view of its nodes by {@link #nodes()}, so the algorithms working on any
+ * tree of this package do not depend on the implementations.
+ *
+ * @param <V> the type of elements stored in the tree
+ */
+abstract class MeasuredHashTree<V> implements HashTree<V> {
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The search is done by {@link #searchMissing()} and reported to {@link TreeMetrics}.
+   */
+  @Override
+  public final List<Integer> getMissing() {
+    final long startTime = TreeMetrics.startTime();
+    final List<Integer> missing = searchMissing();
+    TreeMetrics.missingSearched(this, startTime, missing.size());
+    return missing;
+  }
+
+  /**
+   * Determines which nodes are needed to calculate the root hash, called by
+   * {@link #getMissing()}.
+   *
+   * @return a {@code List<Integer>} containing the indices of the nodes needed in ascending order
+   */
+  abstract List<Integer> searchMissing();
+
+  /**
+   * Returns read access to the nodes of this tree by their breadth-first index, used by the proofs,
+   * differences, integrity checks and the IO of this package.
+   *
+   * @return a view of the nodes of this tree
+   */
+  abstract IndexedNodes<V> nodes();
+
+}
@@ -1,7 +1,5 @@
 package hashtrees;
 
-import java.util.Optional;
-
 /**
  * This class represents an inner node of a Merkle-Tree.
  * 
@@ -24,7 +22,7 @@ public class MerkleInnerNode<V> extends MerkleNode<V> {
    * Merkle-Tree.
    */
   public MerkleInnerNode() {
-    this.hash = Optional.empty();
+    this.hashPresent = false;
   }
 
   /**
@@ -34,7 +32,10 @@ public class MerkleInnerNode<V> extends MerkleNode<V> {
    * @param hash the hash of this node (can be {@code null})
    */
   public MerkleInnerNode(Long hash) {
-    this.hash = Optional.ofNullable(hash);
+    if (hash != null) {
+      this.hash = hash;
+      this.hashPresent = true;
+    }
   }
 
   /**
@@ -44,32 +45,50 @@ public class MerkleInnerNode<V> extends MerkleNode<V> {
    */
   public MerkleInnerNode(MerkleInnerNode<V> parent) {
     this.parent = parent;
-    this.hash = Optional.empty();
+    this.hashPresent = false;
   }
 
   /**
-   * Recalculates the hash of a node if possible, and updates the next higher node.
+   * Recalculates the hash of a node if possible, and continues with the next higher nodes as long
+   * as new hashes are calculated.
    */
   @Override
-  void update() {
-    if ((parent == null && hasHash()) || right == null) {
+  void update(HashStrategy strategy) {
+    int recalculatedNodes = 0;
+    MerkleInnerNode<V> node = this;
+    while (node != null && node.recalculate(strategy)) {
+      recalculatedNodes++;
+      node = node.parent;
+    }
+    TreeMetrics.updatePropagated(recalculatedNodes);
+  }
+
+  /**
+   * Recalculates the hash of a node if possible without updating the next higher node.
+   *
+   * @param strategy the hash functions of the tree
+   * @return {@code true} if a new hash was calculated i.e. the parent node has to be updated
+   */
+  boolean recalculate(HashStrategy strategy) {
+    if ((parent == null && hashPresent) || right == null) {
       // once the root hash is set it cannot be altered
-      return;
-    } else if (right.hasHash() && left.hasHash()) {
-      hash = Optional.of(hashFunction(left.getStoredHash(), right.getStoredHash()));
-      if (parent != null) {
-        parent.update();
-      }
+      return false;
+    } else if (right.hashPresent && left.hashPresent) {
+      hash = strategy.hashInner(left.hash, right.hash);
+      hashPresent = true;
+      return true;
     } else {
-      hash = Optional.empty();
+      hashPresent = false;
+      return false;
     }
   }
 
   @Override
-  void setHash(Long hash) {
-    this.hash = Optional.ofNullable(hash);
+  void setHash(long hash, HashStrategy strategy) {
+    this.hash = hash;
+    this.hashPresent = true;
     if (parent != null) {
-      parent.update();
+      parent.update(strategy);
     }
   }
 
@@ -93,19 +112,17 @@ public class MerkleInnerNode<V> extends MerkleNode<V> {
     this.right = right;
   }
 
-  /** Sets the parent node. */
-  void setParent(MerkleInnerNode<V> parent) {
-    this.parent = parent;
-  }
-
-  /** Checks if the hash stored in this node is correct. */
-  boolean checkHash() {
-    return hash.get() == (hashFunction(right.getStoredHash(), left.getStoredHash()));
-  }
-
-  /** Hash function for inner nodes. */
-  private static long hashFunction(long leftHash, long rightHash) {
-    return leftHash * rightHash;
+  /**
+   * Checks if the hash stored in this node is correct. A node is not correct if it or one of its
+   * children does not have a hash.
+   *
+   * @param strategy the hash functions of the tree
+   */
+  boolean checkHash(HashStrategy strategy) {
+    if (!hashPresent || !left.hashPresent || !right.hashPresent) {
+      return false;
+    }
+    return hash == strategy.hashInner(left.hash, right.hash);
   }
 
   /**
@@ -116,8 +133,8 @@ public class MerkleInnerNode<V> extends MerkleNode<V> {
   public String toString() {
     StringBuilder res = new StringBuilder();
     res.append("(");
-    if (hasHash()) {
-      res.append(hash.get().toString() + " ");
+    if (hashPresent) {
+      res.append(hash).append(" ");
     } else {
       res.append("* ");
     }
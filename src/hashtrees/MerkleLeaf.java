@@ -1,7 +1,5 @@
 package hashtrees;
 
-import java.util.Optional;
-
 /**
  * This class represents a leaf node of a Merkle-Tree. Unlike inner nodes leaf nodes do not have
  * child nodes, but a value.
@@ -10,7 +8,10 @@ import java.util.Optional;
  */
 public class MerkleLeaf<V> extends MerkleNode<V> {
 
-  private Optional<V> value;
+  /**
+   * The value of this leaf, {@code null} if there is no value.
+   */
+  private V value;
 
   /**
    * Creates a new {@code MerkleLeaf}.
@@ -18,28 +19,59 @@ public class MerkleLeaf<V> extends MerkleNode<V> {
    * @param parent the parent of this node
    */
   public MerkleLeaf(MerkleInnerNode<V> parent) {
-    this.value = Optional.empty();
+    this.value = null;
     this.parent = parent;
-    this.hash = Optional.empty();
+    this.hashPresent = false;
   }
 
-  /** Sets the value for this node. */
-  void setValue(V value) {
-    this.value = Optional.ofNullable(value);
+  /**
+   * Sets the value for this node.
+   *
+   * @param value the new value, {@code null} to delete the value
+   * @param strategy the hash functions of the tree
+   */
+  void setValue(V value, HashStrategy strategy) {
+    assignValue(value, strategy);
+    update(strategy);
+  }
+
+  /**
+   * Sets the value and the hash for this node without updating the parent node.
+   *
+   * @param value the new value, {@code null} to delete the value
+   * @param strategy the hash functions of the tree
+   */
+  void assignValue(V value, HashStrategy strategy) {
+    this.value = value;
     if (value != null) {
-      hash = Optional.of(Long.valueOf(hashFunction(value)));
+      hash = strategy.hashLeaf(value);
+      hashPresent = true;
     } else {
-      hash = Optional.empty();
+      hashPresent = false;
     }
-    update();
+  }
+
+  /** Returns the value of this leaf, {@code null} if there is no value. */
+  V getValue() {
+    return value;
+  }
+
+  /**
+   * Sets the value of this node without calculating its hash, used when the hash is already
+   * known.
+   *
+   * @param value the new value, {@code null} if there is no value
+   */
+  void restoreValue(V value) {
+    this.value = value;
   }
 
   /**
    * Tells the parent of this leaf to update.
    */
   @Override
-  void update() {
-    parent.update();
+  void update(HashStrategy strategy) {
+    parent.update(strategy);
   }
 
   /**
@@ -49,30 +81,26 @@ public class MerkleLeaf<V> extends MerkleNode<V> {
    *         actual hash
    */
   @Override
-  void setHash(Long hash) {
-    if (!value.isPresent()) {
-      this.hash = Optional.of(hash);
-      update();
+  void setHash(long hash, HashStrategy strategy) {
+    if (value == null) {
+      this.hash = hash;
+      this.hashPresent = true;
+      update(strategy);
     } else {
       throw new IllegalArgumentException();
     }
   }
 
-  /** Hash function for leaf nodes. */
-  private long hashFunction(V value) {
-    return value.toString().hashCode();
-  }
-
   /**
    * Returns a textual representation of this node. Values are indicated by surrounding quotes, no
    * value is represented by an asterisk. Hashes are indicated by no surrounding quotes.
    */
   @Override
   public String toString() {
-    if (value.isPresent()) {
-      return "(\"" + value.get().toString() + "\")";
-    } else if (hasHash()) {
-      return hash.get().toString();
+    if (value != null) {
+      return "(\"" + value.toString() + "\")";
+    } else if (hashPresent) {
+      return Long.toString(hash);
     } else {
       return "(*)";
     }
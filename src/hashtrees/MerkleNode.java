@@ -1,11 +1,12 @@
 package hashtrees;
 
-import java.util.Optional;
-
 /**
  * This class is a skeleton for all nodes of a Merkle-Tree. It provides methods for checking if a
  * hash is present and getting the stored hash.
  *
+ * <p>The hash is stored as a primitive {@code long} together with a flag telling whether it is
+ * present, so recalculating hashes does not allocate any objects.
+ *
  * @param <V> the type of elements in the node
  */
 abstract class MerkleNode<V> {
@@ -16,35 +17,54 @@ abstract class MerkleNode<V> {
   protected MerkleInnerNode<V> parent;
 
   /**
-   * The node's hash.
+   * The node's hash. Only valid if {@link #hashPresent} is {@code true}.
+   */
+  protected long hash;
+
+  /**
+   * Tells whether the node has a hash.
    */
-  protected Optional<Long> hash;
+  protected boolean hashPresent;
 
   /**
    * Returns {@code true}, if the node has a hash.
    */
   public boolean hasHash() {
-    return hash.isPresent();
+    return hashPresent;
   }
 
   /**
    * Returns the stored hash of this node. Returns {@code null} if there is no hash.
    */
   public Long getStoredHash() {
-    if (hasHash()) {
-      return hash.get();
+    if (hashPresent) {
+      return hash;
     } else {
       return null;
     }
   }
 
-  abstract void update();
+  /**
+   * Returns the stored hash of this node without boxing it. The result is only meaningful if
+   * {@link #hasHash()} returns {@code true}.
+   */
+  long getHash() {
+    return hash;
+  }
+
+  /**
+   * Updates this node and the next higher nodes after a hash below has changed.
+   *
+   * @param strategy the hash functions of the tree
+   */
+  abstract void update(HashStrategy strategy);
 
   /**
    * Sets the hash for this node updates the parent node to recalculate its hash.
    * 
    * @param hash the new hash
+   * @param strategy the hash functions of the tree
    */
-  abstract void setHash(Long hash);
+  abstract void setHash(long hash, HashStrategy strategy);
 
 }
@@ -0,0 +1,433 @@
+package hashtrees;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Proves that one or several leaves belong to a Merkle-Tree with a known root hash. A proof
+ * contains the hashes of the nodes that are needed besides the leaves to calculate the root hash:
+ * for a single leaf these are the siblings of all nodes on its path to the root. For several leaves
+ * a sibling is only included if it is not on the path of another leaf itself and every hash is
+ * included once, so the proof is never larger than the single proofs together.
+ *
+ * <p>A verifier calculates the hashes of the leaves from their values and combines them with the
+ * hashes of the proof from the bottom up. Several proofs of the same tree can be verified together
+ * by {@link #verify(long, Collection, Map, HashStrategy)}, which calculates every inner node only
+ * once.
+ *
+ * <p>Nodes are identified by their index calculated by a breadth-first-traversal, leaves by their
+ * position counted from left to right. Proofs of binary trees are created by the constructor,
+ * proofs of trees of a higher arity by {@link #forKaryTree(int, int, int[], int[], long[])} and
+ * proofs of an {@link ExactMerkleTree} by {@link #forExactTree(int, int[], int[], long[])}.
+ * Instances of this class are immutable.
+ */
+public final class MerkleProof {
+
+  /**
+   * The shape of the tree.
+   */
+  private final NodeLayout layout;
+
+  /**
+   * The positions of the proven leaves in ascending order.
+   */
+  private final int[] leafPositions;
+
+  /**
+   * The breadth-first indices of the nodes included in descending order.
+   */
+  private final int[] nodeIndices;
+
+  /**
+   * The hashes of the nodes included, in the order of {@link #nodeIndices}.
+   */
+  private final long[] nodeHashes;
+
+  /**
+   * Creates a new {@code MerkleProof} of a binary tree, e.g. from a proof transferred by a client.
+   *
+   * @param height the height of the tree
+   * @param leafPositions the positions of the proven leaves
+   * @param nodeIndices the breadth-first indices of the nodes included
+   * @param nodeHashes the hashes of the nodes included in the order of their indices
+   * @throws IllegalArgumentException if the indices and hashes differ in length, or a position or
+   *         an index does not exist in a tree of the given height
+   */
+  public MerkleProof(int height, int[] leafPositions, int[] nodeIndices, long[] nodeHashes) {
+    this(binaryLayout(height), leafPositions, nodeIndices, nodeHashes);
+  }
+
+  /**
+   * Creates a new {@code MerkleProof} of a tree in which every inner node has the same number of
+   * children, like a {@link KaryMerkleTree}.
+   *
+   * @param arity the number of children of every inner node
+   * @param height the height of the tree
+   * @param leafPositions the positions of the proven leaves
+   * @param nodeIndices the breadth-first indices of the nodes included
+   * @param nodeHashes the hashes of the nodes included in the order of their indices
+   * @return the proof
+   * @throws IllegalArgumentException if the indices and hashes differ in length, the tree would not
+   *         fit into an array, or a position or an index does not exist in the tree
+   */
+  public static MerkleProof forKaryTree(int arity, int height, int[] leafPositions,
+      int[] nodeIndices, long[] nodeHashes) {
+    if (arity < 2 || height < 1) {
+      throw new IllegalArgumentException();
+    }
+    return new MerkleProof(NodeLayout.kary(arity, height), leafPositions, nodeIndices, nodeHashes);
+  }
+
+  /**
+   * Creates a new {@code MerkleProof} of a tree with exactly the given number of leaves, like an
+   * {@link ExactMerkleTree}.
+   *
+   * @param numberOfLeaves the number of leaves of the tree
+   * @param leafPositions the positions of the proven leaves
+   * @param nodeIndices the breadth-first indices of the nodes included
+   * @param nodeHashes the hashes of the nodes included in the order of their indices
+   * @return the proof
+   * @throws IllegalArgumentException if the indices and hashes differ in length, the tree would not
+   *         fit into an array, or a position or an index does not exist in the tree
+   */
+  public static MerkleProof forExactTree(int numberOfLeaves, int[] leafPositions,
+      int[] nodeIndices, long[] nodeHashes) {
+    if (numberOfLeaves < 2 || numberOfLeaves > 1 << 29) {
+      throw new IllegalArgumentException();
+    }
+    return new MerkleProof(NodeLayout.exact(numberOfLeaves), leafPositions, nodeIndices,
+        nodeHashes);
+  }
+
+  private MerkleProof(NodeLayout layout, int[] leafPositions, int[] nodeIndices,
+      long[] nodeHashes) {
+    if (nodeIndices.length != nodeHashes.length) {
+      throw new IllegalArgumentException();
+    }
+    this.layout = layout;
+    this.leafPositions = leafPositions.clone();
+    Arrays.sort(this.leafPositions);
+    for (int position : this.leafPositions) {
+      if (position < 0 || position >= layout.getNumberOfLeaves()) {
+        throw new IllegalArgumentException("No leaf: " + position);
+      }
+    }
+    // sort the nodes by descending index, which is the order they are used in
+    final long[] sortedNodes = new long[nodeIndices.length];
+    for (int i = 0; i < nodeIndices.length; i++) {
+      if (nodeIndices[i] < 0 || nodeIndices[i] >= layout.getNumberOfNodes()) {
+        throw new IllegalArgumentException("No node: " + nodeIndices[i]);
+      }
+      sortedNodes[i] = ((long) nodeIndices[i] << 32) | i;
+    }
+    Arrays.sort(sortedNodes);
+    this.nodeIndices = new int[nodeIndices.length];
+    this.nodeHashes = new long[nodeIndices.length];
+    for (int i = 0; i < sortedNodes.length; i++) {
+      final long node = sortedNodes[sortedNodes.length - 1 - i];
+      this.nodeIndices[i] = (int) (node >>> 32);
+      this.nodeHashes[i] = nodeHashes[(int) node];
+    }
+  }
+
+  /** Helper method to check the height of a binary tree before its layout is created. */
+  private static NodeLayout binaryLayout(int height) {
+    if (height < 1 || height > 30) {
+      throw new IllegalArgumentException();
+    }
+    return NodeLayout.binary(height);
+  }
+
+  /**
+   * Creates the proof for several leaves of a tree.
+   *
+   * @see HashTree#proofs(Set)
+   */
+  static MerkleProof create(HashTree<?> tree, Set<Integer> leafPositions) {
+    final IndexedNodes<?> nodes = IndexedNodes.of(tree);
+    final NodeLayout layout = nodes.getLayout();
+    final int firstLeafIndex = layout.getFirstLeafIndex();
+    if (leafPositions.isEmpty()) {
+      throw new IllegalArgumentException("No leaves to prove");
+    }
+    final int[] positions = new int[leafPositions.size()];
+    int numberOfPositions = 0;
+    for (int position : leafPositions) {
+      if (position < 0 || position >= layout.getNumberOfLeaves()) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (!nodes.hasHash(firstLeafIndex + position)) {
+        throw new IllegalStateException("Leaf without hash: " + position);
+      }
+      positions[numberOfPositions++] = position;
+    }
+    Arrays.sort(positions);
+
+    // the nodes whose hash is known to the verifier level by level, starting with the leaves;
+    // the parents of nodes in ascending order are in ascending order as well
+    int[] known = new int[positions.length];
+    int[] parents = new int[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      known[i] = firstLeafIndex + positions[i];
+    }
+    int numberOfKnown = known.length;
+    int[] indices = new int[layout.getHeight() * positions.length];
+    long[] hashes = new long[indices.length];
+    int numberOfNodes = 0;
+    while (known[0] != 0) {
+      int numberOfParents = 0;
+      // walk the level from right to left so that the nodes are included in descending order
+      int i = numberOfKnown - 1;
+      while (i >= 0) {
+        final int parent = layout.getParent(known[i]);
+        final int firstChild = layout.getFirstChild(parent);
+        for (int sibling = firstChild + layout.getNumberOfChildren(parent) - 1;
+            sibling >= firstChild; sibling--) {
+          if (i >= 0 && known[i] == sibling) {
+            // known to the verifier, either a proven leaf or calculated from the level below
+            i--;
+            continue;
+          }
+          if (!nodes.hasHash(sibling)) {
+            throw new IllegalStateException("Node without hash: " + sibling);
+          }
+          if (numberOfNodes == indices.length) {
+            indices = Arrays.copyOf(indices, 2 * numberOfNodes);
+            hashes = Arrays.copyOf(hashes, 2 * numberOfNodes);
+          }
+          indices[numberOfNodes] = sibling;
+          hashes[numberOfNodes++] = nodes.getHash(sibling);
+        }
+        parents[numberOfParents++] = parent;
+      }
+      // the parents were collected from right to left
+      final int[] level = known;
+      known = parents;
+      parents = level;
+      for (int j = 0, k = numberOfParents - 1; j < k; j++, k--) {
+        final int parent = known[j];
+        known[j] = known[k];
+        known[k] = parent;
+      }
+      numberOfKnown = numberOfParents;
+    }
+    return new MerkleProof(layout, positions, Arrays.copyOf(indices, numberOfNodes),
+        Arrays.copyOf(hashes, numberOfNodes));
+  }
+
+  /** Returns the height of the tree. */
+  public int getHeight() {
+    return layout.getHeight();
+  }
+
+  /** Returns the largest number of children an inner node of the tree has. */
+  public int getArity() {
+    return layout.getArity();
+  }
+
+  /** Returns the number of leaves of the tree. */
+  public int getNumberOfLeaves() {
+    return layout.getNumberOfLeaves();
+  }
+
+  /** Returns the positions of the proven leaves counted from left to right in ascending order. */
+  public int[] getLeafPositions() {
+    return leafPositions.clone();
+  }
+
+  /** Returns the breadth-first indices of the nodes included in descending order. */
+  public int[] getNodeIndices() {
+    return nodeIndices.clone();
+  }
+
+  /** Returns the hashes of the nodes included in the order of {@link #getNodeIndices()}. */
+  public long[] getNodeHashes() {
+    return nodeHashes.clone();
+  }
+
+  /**
+   * Checks if the given values are the values of the proven leaves of a tree with the given root
+   * hash.
+   *
+   * @param rootHash the root hash of the tree
+   * @param values the values of the proven leaves mapped by their position
+   * @param hashStrategy the hash functions of the tree
+   * @return {@code true} if the root hash calculated from the values and this proof matches
+   */
+  public boolean verify(long rootHash, Map<Integer, ?> values, HashStrategy hashStrategy) {
+    return verify(rootHash, Collections.singletonList(this), values, hashStrategy);
+  }
+
+  /**
+   * Checks several proofs of the same tree in a single pass from the bottom up. The hashes of all
+   * proofs and leaves are merged, nodes that are included several times must have equal hashes.
+   * Every inner node needed is calculated once, no matter how many proofs need it.
+   *
+   * @param rootHash the root hash of the tree
+   * @param proofs the proofs to be checked
+   * @param values the values of all proven leaves mapped by their position
+   * @param hashStrategy the hash functions of the tree
+   * @return {@code true} if every proven leaf has a value and the root hash calculated from the
+   *         values and the proofs matches
+   * @throws IllegalArgumentException if the proofs are for trees of different shapes
+   */
+  public static boolean verify(long rootHash, Collection<MerkleProof> proofs,
+      Map<Integer, ?> values, HashStrategy hashStrategy) {
+    if (proofs.isEmpty()) {
+      return false;
+    }
+    final NodeLayout layout = proofs.iterator().next().layout;
+    final int firstLeafIndex = layout.getFirstLeafIndex();
+    int numberOfNodes = values.size();
+    for (MerkleProof proof : proofs) {
+      if (!proof.layout.equals(layout)) {
+        throw new IllegalArgumentException("Proofs of different trees");
+      }
+      for (int position : proof.leafPositions) {
+        if (values.get(position) == null) {
+          return false;
+        }
+      }
+      numberOfNodes += proof.nodeIndices.length;
+    }
+
+    // all known nodes sorted by descending index, i.e. from the bottom up
+    final long[] order = new long[numberOfNodes];
+    final long[] hashes = new long[numberOfNodes];
+    int n = 0;
+    for (Map.Entry<Integer, ?> entry : values.entrySet()) {
+      final int position = entry.getKey();
+      if (position < 0 || position >= layout.getNumberOfLeaves() || entry.getValue() == null) {
+        return false;
+      }
+      hashes[n] = hashStrategy.hashLeaf(entry.getValue());
+      order[n] = ((long) (firstLeafIndex + position) << 32) | n;
+      n++;
+    }
+    for (MerkleProof proof : proofs) {
+      for (int i = 0; i < proof.nodeIndices.length; i++) {
+        hashes[n] = proof.nodeHashes[i];
+        order[n] = ((long) proof.nodeIndices[i] << 32) | n;
+        n++;
+      }
+    }
+    Arrays.sort(order);
+    return new Verifier(layout, order, hashes, hashStrategy).calculatesRoot(rootHash);
+  }
+
+  /**
+   * Combines known nodes from the bottom up. The known nodes and the calculated parents are two
+   * streams sorted by descending index, as the parents of nodes visited in descending order are
+   * calculated in descending order as well. The next node is always the one with the highest
+   * index of both streams, so the last child of a node is directly followed by its siblings from
+   * right to left.
+   */
+  private static final class Verifier {
+
+    private final NodeLayout layout;
+    private final long[] order;
+    private final long[] hashes;
+    private final HashStrategy hashStrategy;
+    private int nextKnown;
+
+    private final int[] parentIndices;
+    private final long[] parentHashes;
+    private int firstParent;
+    private int numberOfParents;
+
+    private int currentIndex;
+    private long currentHash;
+
+    /**
+     * The hashes of the children of the node calculated next.
+     */
+    private final long[] childHashes;
+
+    /**
+     * Becomes {@code false} if occurrences of a node differ in their hash.
+     */
+    private boolean valid = true;
+
+    Verifier(NodeLayout layout, long[] order, long[] hashes, HashStrategy hashStrategy) {
+      this.layout = layout;
+      this.order = order;
+      this.hashes = hashes;
+      this.hashStrategy = hashStrategy;
+      this.nextKnown = order.length - 1;
+      // a parent of several children replaces at least two nodes, a parent of a single child only
+      // one, which happens at most once per level
+      final int maxParents = order.length + 2 * layout.getHeight();
+      this.parentIndices = new int[maxParents];
+      this.parentHashes = new long[maxParents];
+      this.childHashes = new long[layout.getArity()];
+    }
+
+    /** Returns {@code true} if the known nodes lead to the given root hash. */
+    boolean calculatesRoot(long rootHash) {
+      while (next()) {
+        if (currentIndex == 0) {
+          return currentHash == rootHash && !next() && valid;
+        }
+        final int parent = layout.getParent(currentIndex);
+        final int firstChild = layout.getFirstChild(parent);
+        final int numberOfChildren = layout.getNumberOfChildren(parent);
+        if (currentIndex != firstChild + numberOfChildren - 1) {
+          // a child without its right sibling
+          return false;
+        }
+        childHashes[numberOfChildren - 1] = currentHash;
+        for (int i = numberOfChildren - 2; i >= 0; i--) {
+          if (!next() || currentIndex != firstChild + i) {
+            return false;
+          }
+          childHashes[i] = currentHash;
+        }
+        parentIndices[numberOfParents] = parent;
+        parentHashes[numberOfParents++] =
+            NodeLayout.hashChildren(hashStrategy, childHashes, 0, numberOfChildren);
+      }
+      return false;
+    }
+
+    /**
+     * Moves to the node with the next lower index of both streams. Occurrences of the same node
+     * are merged.
+     *
+     * @return {@code false} if there is no node left or occurrences of a node differ in their
+     *         hash, which makes the verifier invalid
+     */
+    private boolean next() {
+      final boolean hasKnown = nextKnown >= 0;
+      final boolean hasParent = firstParent < numberOfParents;
+      if (!hasKnown && !hasParent) {
+        return false;
+      }
+      final int knownIndex = hasKnown ? (int) (order[nextKnown] >>> 32) : -1;
+      final int parentIndex = hasParent ? parentIndices[firstParent] : -1;
+      currentIndex = Math.max(knownIndex, parentIndex);
+      boolean first = true;
+      while (nextKnown >= 0 && (int) (order[nextKnown] >>> 32) == currentIndex) {
+        final long hash = hashes[(int) order[nextKnown--]];
+        if (!first && hash != currentHash) {
+          valid = false;
+          return false;
+        }
+        currentHash = hash;
+        first = false;
+      }
+      if (firstParent < numberOfParents && parentIndices[firstParent] == currentIndex) {
+        final long hash = parentHashes[firstParent++];
+        if (!first && hash != currentHash) {
+          valid = false;
+          return false;
+        }
+        currentHash = hash;
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,291 @@
+package hashtrees;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Calculates the root hash of a Merkle-Tree whose leaves are filled from left to right without
+ * keeping the values or the tree. Like a {@link MerkleTreeBuilder} the calculator combines the
+ * hashes of complete subtrees while values are pushed, but it only keeps the subtrees that do not
+ * have a parent yet, i.e. one subtree per set bit of the number of values. Thus the memory needed
+ * is {@code O(log n)} for {@code n} values, which may be more than an array can hold.
+ *
+ * <p>Values can be pushed one by one, from an {@link Iterator} or from a {@link Stream}. A
+ * {@link Spliterator} that knows the exact size of all of its parts can also be hashed in
+ * parallel: every part is hashed by a {@link ForkJoinPool} on its own and the subtrees of
+ * neighbouring parts are combined afterwards, which results in the same hashes as pushing all
+ * values one by one.
+ *
+ * <p>Two root hashes are available: {@link #getRootHash()} equals the root hash of a tree built by
+ * a {@code MerkleTreeBuilder} from the same values, {@link #getExactRootHash()} equals the root
+ * hash of an {@link ExactMerkleTree} with these values.
+ *
+ * @param <V> the type of the values
+ */
+public final class MerkleRootCalculator<V> {
+
+  /**
+   * Parts of a spliterator up to this number of values are hashed sequentially, as splitting them
+   * would cost more than it gains.
+   */
+  private static final long SEQUENTIAL_THRESHOLD = 1 << 12;
+
+  /**
+   * The maximum number of subtrees without a parent. Values pushed from the start of the tree
+   * need one subtree per level, a part starting somewhere else may need two.
+   */
+  private static final int MAX_SUBTREES = 2 * Long.SIZE;
+
+  /**
+   * The position of the first value counted from the start of the whole tree.
+   */
+  private final long start;
+
+  /**
+   * The position behind the last value pushed.
+   */
+  private long end;
+
+  /**
+   * The number of subtrees without a parent.
+   */
+  private int numberOfSubtrees;
+
+  /**
+   * The levels of the subtrees without a parent from left to right, a subtree of the level
+   * {@code l} covers {@code 2^l} values.
+   */
+  private final int[] levels = new int[MAX_SUBTREES];
+
+  /**
+   * The hashes of the subtrees without a parent, indexed like {@link #levels}.
+   */
+  private final long[] hashes = new long[MAX_SUBTREES];
+
+  /**
+   * Marks the subtrees without a hash because one of their values is {@code null}, indexed like
+   * {@link #levels}.
+   */
+  private final boolean[] empty = new boolean[MAX_SUBTREES];
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Creates a new {@code MerkleRootCalculator} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   */
+  public MerkleRootCalculator() {
+    this(HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code MerkleRootCalculator}.
+   *
+   * @param hashStrategy the hash functions of the tree
+   */
+  public MerkleRootCalculator(HashStrategy hashStrategy) {
+    this(0, hashStrategy);
+  }
+
+  private MerkleRootCalculator(long start, HashStrategy hashStrategy) {
+    this.start = start;
+    this.end = start;
+    this.hashStrategy = hashStrategy;
+  }
+
+  /**
+   * Inserts a value at the next leaf.
+   *
+   * @param element the element to be inserted, may be {@code null}
+   * @return this calculator
+   */
+  public MerkleRootCalculator<V> push(V element) {
+    if (element != null) {
+      pushSubtree(0, hashStrategy.hashLeaf(element), false);
+    } else {
+      pushSubtree(0, 0L, true);
+    }
+    return this;
+  }
+
+  /**
+   * Inserts all remaining values of an iterator at the next leaves.
+   *
+   * @param elements the elements to be inserted
+   * @return this calculator
+   */
+  public MerkleRootCalculator<V> pushAll(Iterator<? extends V> elements) {
+    while (elements.hasNext()) {
+      push(elements.next());
+    }
+    return this;
+  }
+
+  /**
+   * Inserts all values of a stream at the next leaves in the encounter order of the stream. The
+   * values are hashed in parallel if the stream is parallel.
+   *
+   * @param elements the elements to be inserted
+   * @return this calculator
+   * @see #pushAll(Spliterator, boolean)
+   */
+  public MerkleRootCalculator<V> pushAll(Stream<? extends V> elements) {
+    return pushAll(elements.spliterator(), elements.isParallel());
+  }
+
+  /**
+   * Inserts all remaining values of a spliterator at the next leaves in encounter order. In
+   * parallel mode the spliterator is split and its parts are hashed by the common
+   * {@link ForkJoinPool}. This needs the exact position of every value, thus a spliterator that
+   * is not {@link Spliterator#SIZED SIZED} and {@link Spliterator#SUBSIZED SUBSIZED} is always
+   * hashed sequentially.
+   *
+   * @param elements the elements to be inserted
+   * @param parallel {@code true} to hash the values in parallel if possible
+   * @return this calculator
+   */
+  public MerkleRootCalculator<V> pushAll(Spliterator<? extends V> elements, boolean parallel) {
+    if (parallel && elements.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED)
+        && elements.estimateSize() > SEQUENTIAL_THRESHOLD) {
+      append(ForkJoinPool.commonPool().invoke(new PartTask<V>(elements, end, hashStrategy)));
+    } else {
+      pushSequentially(elements);
+    }
+    return this;
+  }
+
+  /** Helper method to push the remaining values of a spliterator on the current thread. */
+  private void pushSequentially(Spliterator<? extends V> elements) {
+    pushAll(Spliterators.iterator(elements));
+  }
+
+  /** Returns the number of values pushed so far. */
+  public long getSize() {
+    return end - start;
+  }
+
+  /**
+   * Returns the root hash of the tree a {@link MerkleTreeBuilder} builds from the values pushed,
+   * provided it was created for at most as many leaves. As the leaves of such a tree are a power
+   * of two and an inner node only has a hash if both children have one, the root only has a hash
+   * if the number of values is a power of two, at least two, and no value is {@code null}.
+   *
+   * @return the root hash, or {@code null} if the root has no hash
+   */
+  public Long getRootHash() {
+    if (numberOfSubtrees != 1 || levels[0] == 0 || empty[0]) {
+      return null;
+    }
+    return hashes[0];
+  }
+
+  /**
+   * Returns the root hash of an {@link ExactMerkleTree} with the values pushed, which equals the
+   * Merkle Tree Hash of RFC 6962. The subtrees without a parent are combined from right to left,
+   * so unlike {@link #getRootHash()} the number of values need not be a power of two.
+   *
+   * @return the root hash, or {@code null} if less than two values were pushed or a value is
+   *         {@code null}
+   */
+  public Long getExactRootHash() {
+    if (getSize() < 2) {
+      return null;
+    }
+    for (int i = 0; i < numberOfSubtrees; i++) {
+      if (empty[i]) {
+        return null;
+      }
+    }
+    long hash = hashes[numberOfSubtrees - 1];
+    for (int i = numberOfSubtrees - 2; i >= 0; i--) {
+      hash = hashStrategy.hashInner(hashes[i], hash);
+    }
+    return hash;
+  }
+
+  /**
+   * Appends the subtrees of a calculator whose values directly follow the values of this one.
+   */
+  private void append(MerkleRootCalculator<V> next) {
+    for (int i = 0; i < next.numberOfSubtrees; i++) {
+      pushSubtree(next.levels[i], next.hashes[i], next.empty[i]);
+    }
+  }
+
+  /**
+   * Helper method to append a complete subtree behind the last value. While the last two
+   * subtrees are siblings they are replaced by their parent.
+   */
+  private void pushSubtree(int level, long hash, boolean emptySubtree) {
+    levels[numberOfSubtrees] = level;
+    hashes[numberOfSubtrees] = hash;
+    empty[numberOfSubtrees] = emptySubtree;
+    numberOfSubtrees++;
+    end += 1L << level;
+    while (numberOfSubtrees > 1) {
+      final int right = numberOfSubtrees - 1;
+      final int left = right - 1;
+      final int childLevel = levels[right];
+      // the right subtree starts at an odd multiple of its size if its sibling is on the left
+      if (levels[left] != childLevel || ((end >>> childLevel) & 1) != 0) {
+        break;
+      }
+      empty[left] |= empty[right];
+      if (!empty[left]) {
+        hashes[left] = hashStrategy.hashInner(hashes[left], hashes[right]);
+      }
+      levels[left] = childLevel + 1;
+      numberOfSubtrees--;
+    }
+  }
+
+  /**
+   * Hashes a part of a spliterator whose position within the tree is known. Parts above a
+   * threshold size are split further and hashed in parallel.
+   */
+  private static final class PartTask<V> extends RecursiveTask<MerkleRootCalculator<V>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Spliterator<? extends V> elements;
+
+    private final long start;
+
+    private final HashStrategy hashStrategy;
+
+    PartTask(Spliterator<? extends V> elements, long start, HashStrategy hashStrategy) {
+      this.elements = elements;
+      this.start = start;
+      this.hashStrategy = hashStrategy;
+    }
+
+    @Override
+    protected MerkleRootCalculator<V> compute() {
+      final long size = elements.getExactSizeIfKnown();
+      final Spliterator<? extends V> prefix =
+          size > SEQUENTIAL_THRESHOLD ? elements.trySplit() : null;
+      if (prefix == null) {
+        final MerkleRootCalculator<V> calculator =
+            new MerkleRootCalculator<V>(start, hashStrategy);
+        calculator.pushSequentially(elements);
+        return calculator;
+      }
+      // the prefix covers the first values, the rest follows behind it
+      final PartTask<V> first = new PartTask<V>(prefix, start, hashStrategy);
+      final PartTask<V> second =
+          new PartTask<V>(elements, start + prefix.getExactSizeIfKnown(), hashStrategy);
+      second.fork();
+      final MerkleRootCalculator<V> calculator = first.compute();
+      calculator.append(second.join());
+      return calculator;
+    }
+  }
+
+}
@@ -1,83 +1,205 @@
 package hashtrees;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
- * Used to construct and operate on a {@code MutableMerkleTree}.
- * 
+ * Used to construct and operate on a Merkle-Tree whose leaves are filled from left to right.
+ *
+ * <p>The builder does not keep a tree of linked nodes. Instead it stores the hashes of all complete
+ * subtrees level by level: the hash of the subtree covering the leaves
+ * {@code [i * 2^l, (i + 1) * 2^l)} is stored at index {@code i} of level {@code l}. A push
+ * appends a leaf hash and combines completed subtrees while it moves up, so it calculates one hash
+ * on average and at most one per level. As the arrays grow by doubling, the tree never has to be
+ * copied when it gets another level.
+ *
  * @param <V> the type of elements stored in the tree
  */
 public class MerkleTreeBuilder<V> {
 
+  /**
+   * The initial number of slots for values and leaf hashes.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
   /**
    * The height of the current tree.
    */
   private int height;
 
   /**
-   * The values stored in the current tree.
+   * The number of values pushed so far.
    */
-  private Queue<V> leafData;
+  private int size;
 
   /**
-   * The current tree.
+   * The values stored in the current tree, only the first {@link #size} slots are used.
    */
-  private MutableMerkleTree<V> tree;
+  private Object[] values;
 
   /**
-   * Creates a new {@code MerkleTreeBuilder}.
-   * 
+   * The hashes of all complete subtrees, indexed by level and position within the level. A level is
+   * {@code null} until its first subtree is complete.
+   */
+  private long[][] hashes;
+
+  /**
+   * The complete subtrees that have no hash because one of their values is {@code null}, indexed
+   * like {@link #hashes}. Only created if such a value is pushed.
+   */
+  private BitSet[] emptySubtrees;
+
+  /**
+   * Tells whether {@link #emptySubtrees} is shared with a tree built before, so that it must be
+   * copied before a subtree is marked as empty.
+   */
+  private boolean emptySubtreesShared;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Creates a new {@code MerkleTreeBuilder} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
    * @param leavesNeeded the number of leaves needed for the Merkle-Tree
    */
   public MerkleTreeBuilder(int leavesNeeded) {
-    height = MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded);
-    leafData = new LinkedList<V>();
-    this.tree = new MutableMerkleTree<V>(leavesNeeded);
+    this(leavesNeeded, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code MerkleTreeBuilder}.
+   *
+   * @param leavesNeeded the number of leaves needed for the Merkle-Tree
+   * @param hashStrategy the hash functions of the tree
+   */
+  public MerkleTreeBuilder(int leavesNeeded, HashStrategy hashStrategy) {
+    this.height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded));
+    this.hashStrategy = hashStrategy;
+    reset();
   }
 
   /**
    * Inserts a value at the next possible leaf.
-   * 
+   *
    * @param element the element to be inserted
    * @return this builder
    */
   public MerkleTreeBuilder<V> push(V element) {
-    int maxNumberOfLeaves = (int) Math.pow(2, height);
-    int currentLeafIndex = leafData.size();
-
-    if (maxNumberOfLeaves == currentLeafIndex) {
+    if (size == 1 << height) {
       // the tree is full so it has to be extended by one level i.e. it has twice as much leaf nodes
-      MutableMerkleTree<V> nextHigherTree = new MutableMerkleTree<V>(leafData.size() + 2);
-      nextHigherTree.getRoot().setLeft(tree.getRoot());
-      tree.getRoot().setParent(nextHigherTree.getRoot());
-      tree = nextHigherTree;
       height++;
     }
-    tree.setValue(currentLeafIndex, element);
-    leafData.add(element);
+    if (size == values.length) {
+      values = Arrays.copyOf(values, 2 * size);
+    }
+    values[size] = element;
+    int level = 0;
+    int position = size;
+    if (element != null) {
+      storeHash(level, position, hashStrategy.hashLeaf(element));
+    } else {
+      markEmpty(level, position);
+    }
+    // a subtree with an odd position completes the subtree of its parent
+    while ((position & 1) == 1) {
+      final int parentPosition = position >>> 1;
+      if (isEmpty(level, position - 1) || isEmpty(level, position)) {
+        markEmpty(level + 1, parentPosition);
+      } else {
+        final long[] children = hashes[level];
+        storeHash(level + 1, parentPosition,
+            hashStrategy.hashInner(children[position - 1], children[position]));
+      }
+      level++;
+      position = parentPosition;
+    }
+    size++;
     return this;
   }
 
   /**
-   * Constructs an {@code UnmodifiableMerkleTree} from the current tree.
-   * 
-   * @return an {@code UnmodifiableMerkleTree} contentwise equal to the current tree
+   * Constructs an unmodifiable view of the current tree. The view shares the values and hashes
+   * already calculated by this builder, so building takes constant time. Pushing further values or
+   * clearing this builder does not change a tree built before, and the tree can be read by other
+   * threads while this builder is still in use. The bitsets of empty subtrees are shared as well
+   * and copied by the next push of a {@code null} value.
+   *
+   * @return an unmodifiable {@code HashTree} contentwise equal to the current tree
    */
   public HashTree<V> build() {
-    Long rootHash = tree.getRoot().getStoredHash();
-    return new UnmodifiableMerkleTree<V>(height, rootHash, leafData);
+    final long startTime = TreeMetrics.startTime();
+    final HashTree<V> tree = new MerkleTreeSnapshot<V>(height, size, values, hashes.clone(),
+        emptySubtrees, hashStrategy);
+    emptySubtreesShared = emptySubtrees != null;
+    TreeMetrics.treeBuilt(tree, startTime, size);
+    return tree;
   }
 
   /**
    * Deletes all existing values in this tree.
-   * 
+   *
    * @see HashTree#clear()
    */
   public void clear() {
-    tree.clear();
-    tree.getRoot().setHash(null);
-    leafData.clear();
+    reset();
+  }
+
+  /** Helper method to drop all values and hashes. */
+  private void reset() {
+    size = 0;
+    values = new Object[INITIAL_CAPACITY];
+    hashes = new long[Integer.SIZE][];
+    emptySubtrees = null;
+    emptySubtreesShared = false;
+  }
+
+  /** Helper method to store the hash of a complete subtree, the level grows if necessary. */
+  private void storeHash(int level, int position, long hash) {
+    long[] levelHashes = hashes[level];
+    if (levelHashes == null || position >= levelHashes.length) {
+      // positions of empty subtrees are skipped, thus the level may lag behind by more than one
+      int capacity = levelHashes == null ? Math.max(1, INITIAL_CAPACITY >>> level)
+          : levelHashes.length;
+      while (capacity <= position) {
+        capacity *= 2;
+      }
+      levelHashes = levelHashes == null ? new long[capacity] : Arrays.copyOf(levelHashes, capacity);
+      hashes[level] = levelHashes;
+    }
+    levelHashes[position] = hash;
+  }
+
+  /**
+   * Helper method to mark a complete subtree without a hash. Bitsets shared with a tree built
+   * before are copied first, as a bitset must not be changed while another thread reads it.
+   */
+  private void markEmpty(int level, int position) {
+    if (emptySubtrees == null) {
+      emptySubtrees = new BitSet[Integer.SIZE];
+    } else if (emptySubtreesShared) {
+      final BitSet[] copy = new BitSet[Integer.SIZE];
+      for (int i = 0; i < copy.length; i++) {
+        if (emptySubtrees[i] != null) {
+          copy[i] = (BitSet) emptySubtrees[i].clone();
+        }
+      }
+      emptySubtrees = copy;
+      emptySubtreesShared = false;
+    }
+    if (emptySubtrees[level] == null) {
+      emptySubtrees[level] = new BitSet();
+    }
+    emptySubtrees[level].set(position);
+  }
+
+  /** Returns {@code true} if a complete subtree has no hash. */
+  private boolean isEmpty(int level, int position) {
+    return emptySubtrees != null && emptySubtrees[level] != null
+        && emptySubtrees[level].get(position);
   }
 
 }
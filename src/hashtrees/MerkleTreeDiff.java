@@ -0,0 +1,63 @@
+package hashtrees;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares two Merkle-Trees of the same {@linkplain NodeLayout shape}. Starting at the children of
+ * the root, the comparison only descends into subtrees whose roots do not have equal hashes in both
+ * trees, so it visits {@code O(k log n)} nodes for {@code k} differing leaves. The root itself is
+ * skipped as its hash may be set from outside instead of being calculated from its children.
+ */
+final class MerkleTreeDiff {
+
+  private MerkleTreeDiff() {
+    // Generating objects of this class is not intended.
+  }
+
+  /**
+   * Determines the leaves that differ between two trees.
+   *
+   * @see HashTree#diff(HashTree)
+   */
+  static List<Integer> diff(HashTree<?> tree, HashTree<?> other) {
+    final IndexedNodes<?> nodes = IndexedNodes.of(tree);
+    final IndexedNodes<?> otherNodes = IndexedNodes.of(other);
+    final NodeLayout layout = nodes.getLayout();
+    if (!layout.equals(otherNodes.getLayout())) {
+      throw new IllegalArgumentException("Different shapes: " + layout + " and "
+          + otherNodes.getLayout());
+    }
+    final List<Integer> result = new ArrayList<Integer>();
+    collectChildDifferences(nodes, otherNodes, layout, 0, result);
+    return result;
+  }
+
+  /** Helper method to add the differing leaves of the subtrees of all children of a node. */
+  private static void collectChildDifferences(IndexedNodes<?> nodes, IndexedNodes<?> otherNodes,
+      NodeLayout layout, int index, List<Integer> result) {
+    final int firstChild = layout.getFirstChild(index);
+    for (int child = firstChild; child < firstChild + layout.getNumberOfChildren(index); child++) {
+      collectDifferences(nodes, otherNodes, layout, child, result);
+    }
+  }
+
+  /** Helper method to add the differing leaves of a subtree from left to right. */
+  private static void collectDifferences(IndexedNodes<?> nodes, IndexedNodes<?> otherNodes,
+      NodeLayout layout, int index, List<Integer> result) {
+    final int firstLeafIndex = layout.getFirstLeafIndex();
+    final boolean hasHash = nodes.hasHash(index);
+    if (hasHash == otherNodes.hasHash(index)
+        && (!hasHash || nodes.getHash(index) == otherNodes.getHash(index))) {
+      // equal hashes stand for equal subtrees, leaves without a hash on both sides are equal
+      if (hasHash || index >= firstLeafIndex) {
+        return;
+      }
+    } else if (index >= firstLeafIndex) {
+      result.add(index - firstLeafIndex);
+      return;
+    }
+    collectChildDifferences(nodes, otherNodes, layout, index, result);
+  }
+
+}
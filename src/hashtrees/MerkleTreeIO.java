@@ -0,0 +1,388 @@
+package hashtrees;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Writes binary Merkle-Trees to channels and reads them back without recalculating any hash.
+ *
+ * <p>The format starts with a header of 24 bytes: the ASCII characters {@code HASHTREE}, the
+ * format version, the height of the tree, flags and a reserved word. The nodes follow in the order
+ * of a breadth-first-traversal, grouped in blocks of 64: every block consists of a bitmap telling
+ * which of its nodes have a hash, followed by these hashes. If the values are included, the leaves
+ * follow in blocks of 64 as well: a bitmap telling which of them have a value, followed by the
+ * length and the bytes of each value. All numbers are stored in little-endian byte order.
+ *
+ * <p>Trees are read into {@link MutableMerkleTree}s or {@link UnmodifiableMerkleTree}s. Their
+ * hashes are taken as they are, so they must have been calculated by the hash functions passed to
+ * the reader. Whether the root hash matches its children can be checked by
+ * {@link HashTree#isConsistent()} afterwards.
+ */
+public final class MerkleTreeIO {
+
+  /**
+   * Identifies the format, the ASCII characters {@code HASHTREE}.
+   */
+  private static final long MAGIC = 0x4841534854524545L;
+
+  /**
+   * The version of the format written.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Set in the flags if the values of the leaves are included.
+   */
+  private static final int FLAG_VALUES = 1;
+
+  /**
+   * The maximum height of a tree that can be read, a higher tree has more nodes than an array can
+   * hold.
+   */
+  private static final int MAX_HEIGHT = 29;
+
+  /**
+   * The size of the buffers between the trees and the channels.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private MerkleTreeIO() {
+    // Generating objects of this class is not intended.
+  }
+
+  /**
+   * Writes the hashes of a tree to a channel, values are not included.
+   *
+   * @param tree the tree to be written
+   * @param channel the channel to write to, it is not closed
+   * @throws IOException if writing to the channel fails
+   * @throws IllegalArgumentException if the tree is not a binary tree of this package
+   */
+  public static <V> void write(HashTree<V> tree, WritableByteChannel channel) throws IOException {
+    write(tree, channel, null);
+  }
+
+  /**
+   * Writes the hashes and values of a tree to a channel.
+   *
+   * @param tree the tree to be written
+   * @param channel the channel to write to, it is not closed
+   * @param codec converts the values to bytes, {@code null} to write no values
+   * @throws IOException if writing to the channel fails
+   * @throws IllegalArgumentException if the tree is not a binary tree of this package
+   */
+  public static <V> void write(HashTree<V> tree, WritableByteChannel channel,
+      ValueCodec<? super V> codec) throws IOException {
+    final IndexedNodes<V> nodes = IndexedNodes.of(tree);
+    final int height = nodes.getHeight();
+    if (!nodes.getLayout().equals(NodeLayout.binary(height))) {
+      // the format stores complete binary trees, which are read back as such
+      throw new IllegalArgumentException("Not a binary tree: " + nodes.getLayout());
+    }
+    final Output out = new Output(channel);
+    out.putLong(MAGIC);
+    out.putInt(VERSION);
+    out.putInt(height);
+    out.putInt(codec != null ? FLAG_VALUES : 0);
+    out.putInt(0);
+
+    final long numberOfNodes = (1L << (height + 1)) - 1;
+    final long[] blockHashes = new long[Long.SIZE];
+    for (long blockStart = 0; blockStart < numberOfNodes; blockStart += Long.SIZE) {
+      final int blockSize = (int) Math.min(Long.SIZE, numberOfNodes - blockStart);
+      long presence = 0L;
+      int numberOfHashes = 0;
+      for (int i = 0; i < blockSize; i++) {
+        final int index = (int) (blockStart + i);
+        if (nodes.hasHash(index)) {
+          presence |= 1L << i;
+          blockHashes[numberOfHashes++] = nodes.getHash(index);
+        }
+      }
+      out.putLong(presence);
+      for (int i = 0; i < numberOfHashes; i++) {
+        out.putLong(blockHashes[i]);
+      }
+    }
+
+    if (codec != null) {
+      final long numberOfLeaves = 1L << height;
+      final Object[] blockValues = new Object[Long.SIZE];
+      for (long blockStart = 0; blockStart < numberOfLeaves; blockStart += Long.SIZE) {
+        final int blockSize = (int) Math.min(Long.SIZE, numberOfLeaves - blockStart);
+        long presence = 0L;
+        for (int i = 0; i < blockSize; i++) {
+          final V value = nodes.getValue((int) (blockStart + i));
+          blockValues[i] = value;
+          if (value != null) {
+            presence |= 1L << i;
+          }
+        }
+        out.putLong(presence);
+        for (int i = 0; i < blockSize; i++) {
+          if (blockValues[i] != null) {
+            @SuppressWarnings("unchecked")
+            final byte[] bytes = codec.encode((V) blockValues[i]);
+            out.putInt(bytes.length);
+            out.put(bytes);
+            blockValues[i] = null;
+          }
+        }
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads a tree written by {@link #write(HashTree, WritableByteChannel, ValueCodec)} into a new
+   * {@code MutableMerkleTree}.
+   *
+   * @param channel the channel to read from, it is not closed
+   * @param hashStrategy the hash functions the tree was created with
+   * @param codec converts bytes back to values, {@code null} to skip the values
+   * @return the tree
+   * @throws IOException if reading from the channel fails or it does not contain a tree
+   */
+  public static <V> MutableMerkleTree<V> readMutableTree(ReadableByteChannel channel,
+      HashStrategy hashStrategy, ValueCodec<? extends V> codec) throws IOException {
+    final Content content = read(channel, codec);
+    final MutableMerkleTree<V> tree =
+        new MutableMerkleTree<V>(1 << content.height, hashStrategy);
+    tree.restoreNodes(content.hashPresent, content.hashes, content.values);
+    return tree;
+  }
+
+  /**
+   * Reads a tree written by {@link #write(HashTree, WritableByteChannel, ValueCodec)} into a new
+   * {@code UnmodifiableMerkleTree}.
+   *
+   * @param channel the channel to read from, it is not closed
+   * @param hashStrategy the hash functions the tree was created with
+   * @param codec converts bytes back to values, {@code null} to skip the values
+   * @return the tree
+   * @throws IOException if reading from the channel fails or it does not contain a tree
+   */
+  public static <V> UnmodifiableMerkleTree<V> readUnmodifiableTree(ReadableByteChannel channel,
+      HashStrategy hashStrategy, ValueCodec<? extends V> codec) throws IOException {
+    final Content content = read(channel, codec);
+    final UnmodifiableMerkleTree<V> tree =
+        new UnmodifiableMerkleTree<V>(content.height, hashStrategy);
+    tree.restoreNodes(content.hashPresent, content.hashes, content.values);
+    return tree;
+  }
+
+  /** Helper method to read the content of a tree into arrays. */
+  private static Content read(ReadableByteChannel channel, ValueCodec<?> codec)
+      throws IOException {
+    final Input in = new Input(channel);
+    if (in.getLong() != MAGIC) {
+      throw new IOException("Not a Merkle-Tree");
+    }
+    final int version = in.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported version: " + version);
+    }
+    final int height = in.getInt();
+    if (height < 1 || height > MAX_HEIGHT) {
+      throw new IOException("Unsupported height: " + height);
+    }
+    final int flags = in.getInt();
+    in.getInt();
+
+    // the height cannot be trusted, so the arrays only grow while the blocks actually arrive: a
+    // corrupt height makes the channel end early instead of allocating the whole tree
+    final int numberOfNodes = (1 << (height + 1)) - 1;
+    final Content content = new Content(height);
+    for (int blockStart = 0; blockStart < numberOfNodes; blockStart += Long.SIZE) {
+      final long presence = in.getLong();
+      final int blockEnd = Math.min(numberOfNodes, blockStart + Long.SIZE);
+      if (content.hashes.length < blockEnd) {
+        content.hashes = Arrays.copyOf(content.hashes, grownLength(content.hashes.length,
+            blockEnd, numberOfNodes));
+      }
+      for (long bits = presence; bits != 0; bits &= bits - 1) {
+        final int index = blockStart + Long.numberOfTrailingZeros(bits);
+        if (index >= numberOfNodes) {
+          throw new IOException("Corrupt Merkle-Tree: hash of a node that does not exist");
+        }
+        content.hashPresent.set(index);
+        content.hashes[index] = in.getLong();
+      }
+    }
+
+    if ((flags & FLAG_VALUES) != 0 && codec != null) {
+      final int numberOfLeaves = 1 << height;
+      content.values = new Object[0];
+      for (int blockStart = 0; blockStart < numberOfLeaves; blockStart += Long.SIZE) {
+        final long presence = in.getLong();
+        final int blockEnd = Math.min(numberOfLeaves, blockStart + Long.SIZE);
+        if (content.values.length < blockEnd) {
+          content.values = Arrays.copyOf(content.values, grownLength(content.values.length,
+              blockEnd, numberOfLeaves));
+        }
+        for (long bits = presence; bits != 0; bits &= bits - 1) {
+          final int position = blockStart + Long.numberOfTrailingZeros(bits);
+          if (position >= numberOfLeaves) {
+            throw new IOException("Corrupt Merkle-Tree: value of a leaf that does not exist");
+          }
+          content.values[position] = codec.decode(in.getBytes(in.getInt()));
+        }
+      }
+    }
+    return content;
+  }
+
+  /**
+   * Returns the new length of an array read block by block: at least doubled, so the array is
+   * copied a logarithmic number of times, but not longer than the whole array.
+   *
+   * @param length the current length
+   * @param needed the length needed for the current block
+   * @param total the length of the complete array
+   */
+  private static int grownLength(int length, int needed, int total) {
+    return (int) Math.min(total, Math.max(needed, 2L * length));
+  }
+
+  /**
+   * The hashes and values read from a channel. Once the whole tree is read the arrays have the
+   * full length.
+   */
+  private static final class Content {
+
+    final int height;
+    final BitSet hashPresent;
+    long[] hashes;
+    Object[] values;
+
+    Content(int height) {
+      this.height = height;
+      this.hashPresent = new BitSet();
+      this.hashes = new long[0];
+    }
+  }
+
+  /**
+   * Buffers the bytes written to a channel.
+   */
+  private static final class Output {
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    Output(WritableByteChannel channel) {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void putLong(long value) throws IOException {
+      if (buffer.remaining() < Long.BYTES) {
+        flush();
+      }
+      buffer.putLong(value);
+    }
+
+    void putInt(int value) throws IOException {
+      if (buffer.remaining() < Integer.BYTES) {
+        flush();
+      }
+      buffer.putInt(value);
+    }
+
+    void put(byte[] bytes) throws IOException {
+      int offset = 0;
+      while (offset < bytes.length) {
+        if (!buffer.hasRemaining()) {
+          flush();
+        }
+        final int length = Math.min(buffer.remaining(), bytes.length - offset);
+        buffer.put(bytes, offset, length);
+        offset += length;
+      }
+    }
+
+    /** Writes all buffered bytes to the channel. */
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Buffers the bytes read from a channel.
+   */
+  private static final class Input {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    Input(ReadableByteChannel channel) {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.flip();
+    }
+
+    long getLong() throws IOException {
+      require(Long.BYTES);
+      return buffer.getLong();
+    }
+
+    int getInt() throws IOException {
+      require(Integer.BYTES);
+      return buffer.getInt();
+    }
+
+    /**
+     * Reads the given number of bytes. The length is read from the channel as well and cannot be
+     * trusted, so the array only grows while the bytes actually arrive: a corrupt length makes the
+     * channel end early instead of allocating more memory than the channel contains.
+     */
+    byte[] getBytes(int length) throws IOException {
+      if (length < 0) {
+        throw new IOException("Corrupt Merkle-Tree: negative length");
+      }
+      byte[] bytes = new byte[Math.min(length, BUFFER_SIZE)];
+      int offset = 0;
+      while (offset < length) {
+        if (!buffer.hasRemaining()) {
+          try {
+            require(1);
+          } catch (EOFException e) {
+            throw new IOException("Corrupt Merkle-Tree: value longer than the remaining bytes");
+          }
+        }
+        if (offset == bytes.length) {
+          bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+        }
+        final int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+        buffer.get(bytes, offset, chunk);
+        offset += chunk;
+      }
+      return bytes;
+    }
+
+    /** Reads from the channel until the buffer holds at least the given number of bytes. */
+    private void require(int bytes) throws IOException {
+      if (buffer.remaining() >= bytes) {
+        return;
+      }
+      buffer.compact();
+      while (buffer.position() < bytes) {
+        if (channel.read(buffer) < 0) {
+          throw new EOFException();
+        }
+      }
+      buffer.flip();
+    }
+  }
+
+}
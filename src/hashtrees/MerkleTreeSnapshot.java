@@ -0,0 +1,255 @@
+package hashtrees;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents an unmodifiable view of the tree of a {@link MerkleTreeBuilder} at the time it was
+ * built. The view does not copy or recalculate anything, it reads the hashes the builder has
+ * already calculated.
+ *
+ * <p>This is safe because the builder never overwrites data the view can see: a push only writes
+ * slots behind the ones of all complete subtrees, arrays that have to grow are replaced by copies
+ * and clearing the builder replaces all of its arrays. The bitsets of empty subtrees are never
+ * changed once they are shared with a view, the builder changes a copy instead. Thus a view can
+ * be read by several threads while the builder is still in use.
+ *
+ * <p>A node of the view has a hash if its whole subtree was pushed and contains no {@code null}
+ * value, which is exactly the case in which it has a hash in a {@link MutableMerkleTree} filled
+ * with the same values.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+final class MerkleTreeSnapshot<V> extends MeasuredHashTree<V> {
+
+  /**
+   * The height of the tree i.e. the number of edges between the root and a leaf.
+   */
+  private final int height;
+
+  /**
+   * The number of leaves that were pushed, counted from the left.
+   */
+  private final int size;
+
+  /**
+   * The values of the builder, only the first {@link #size} slots belong to this tree.
+   */
+  private final Object[] values;
+
+  /**
+   * The hashes of all complete subtrees indexed by level and position within the level.
+   */
+  private final long[][] hashes;
+
+  /**
+   * The complete subtrees that have no hash, indexed like {@link #hashes}. May be {@code null} if
+   * there are none.
+   */
+  private final BitSet[] emptySubtrees;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Keeps track of the nodes needed to calculate the root hash, {@code null} until
+   * {@link #getMissing()} is called for the first time. Volatile so that a tracker created by one
+   * thread is seen completely initialized by all others.
+   */
+  private volatile MissingNodeTracker missingNodes;
+
+  /**
+   * Creates a new {@code MerkleTreeSnapshot}. The arrays given are shared with the builder, only
+   * the arrays of levels must be copies as the builder replaces levels when they grow. The builder
+   * must not change the bitsets of empty subtrees afterwards.
+   *
+   * @param height the height of the tree
+   * @param size the number of values pushed
+   * @param values the values of the leaves from left to right
+   * @param hashes the hashes of all complete subtrees by level
+   * @param emptySubtrees the complete subtrees without a hash by level, or {@code null}
+   * @param hashStrategy the hash functions of the tree
+   */
+  MerkleTreeSnapshot(int height, int size, Object[] values, long[][] hashes,
+      BitSet[] emptySubtrees, HashStrategy hashStrategy) {
+    this.height = height;
+    this.size = size;
+    this.values = values;
+    this.hashes = hashes;
+    this.emptySubtrees = emptySubtrees;
+    this.hashStrategy = hashStrategy;
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void setHash(int position, long hash) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void setValue(int position, V value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isConsistent() {
+    if (!hasHash(height, 0) || !hasHash(height - 1, 0) || !hasHash(height - 1, 1)) {
+      return false;
+    }
+    return hashes[height][0]
+        == hashStrategy.hashInner(hashes[height - 1][0], hashes[height - 1][1]);
+  }
+
+  @Override
+  List<Integer> searchMissing() {
+    return getMissingNodeTracker().getMissing();
+  }
+
+  @Override
+  public boolean isReady() {
+    return getMissingNodeTracker().isComplete();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns the tracker for the nodes needed to calculate the root hash. As the tree cannot
+   * change, it is created on first use and kept afterwards. Threads calling this at the same time
+   * may create a tracker each, all of them are equal.
+   */
+  private MissingNodeTracker getMissingNodeTracker() {
+    MissingNodeTracker tracker = missingNodes;
+    if (tracker == null) {
+      final BitSet hashedNodes = new BitSet();
+      for (int level = 0; level <= height; level++) {
+        final int firstIndex = (1 << (height - level)) - 1;
+        final int completeSubtrees = size >>> level;
+        for (int position = 0; position < completeSubtrees; position++) {
+          if (!isEmpty(level, position)) {
+            hashedNodes.set(firstIndex + position);
+          }
+        }
+      }
+      tracker = new MissingNodeTracker(NodeLayout.binary(height), hashedNodes);
+      missingNodes = tracker;
+    }
+    return tracker;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The index is translated to the level and the position within the level the builder uses.
+   */
+  @Override
+  IndexedNodes<V> nodes() {
+    return new IndexedNodes<V>() {
+
+      @Override
+      public int getHeight() {
+        return height;
+      }
+
+      @Override
+      public HashStrategy getHashStrategy() {
+        return hashStrategy;
+      }
+
+      @Override
+      public boolean hasHash(int index) {
+        final int depth = 31 - Integer.numberOfLeadingZeros(index + 1);
+        return MerkleTreeSnapshot.this.hasHash(height - depth, index + 1 - (1 << depth));
+      }
+
+      @Override
+      public long getHash(int index) {
+        final int depth = 31 - Integer.numberOfLeadingZeros(index + 1);
+        final long[] levelHashes = hashes[height - depth];
+        final int position = index + 1 - (1 << depth);
+        return levelHashes != null && position < levelHashes.length ? levelHashes[position] : 0L;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V getValue(int position) {
+        return position < size ? (V) values[position] : null;
+      }
+    };
+  }
+
+  /**
+   * Returns a textual representation of this tree. The levels of a subtree are indicated by
+   * surrounding parentheses, the format equals the one of {@link MutableMerkleTree#toString()}.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder res = new StringBuilder();
+    appendNode(res, height, 0);
+    return res.toString();
+  }
+
+  /** Helper method for {@link #toString()}. */
+  private void appendNode(StringBuilder res, int level, int position) {
+    if (level == 0) {
+      final Object value = position < size ? values[position] : null;
+      if (value != null) {
+        res.append("(\"").append(value.toString()).append("\")");
+      } else {
+        res.append("(*)");
+      }
+      return;
+    }
+    res.append("(");
+    if (hasHash(level, position)) {
+      res.append(hashes[level][position]).append(" ");
+    } else {
+      res.append("* ");
+    }
+    appendNode(res, level - 1, 2 * position);
+    res.append(" ");
+    appendNode(res, level - 1, 2 * position + 1);
+    res.append(")");
+  }
+
+  /** Returns {@code true} if the subtree at the given level and position has a hash. */
+  private boolean hasHash(int level, int position) {
+    return position < size >>> level && !isEmpty(level, position);
+  }
+
+  /** Returns {@code true} if a complete subtree has no hash. */
+  private boolean isEmpty(int level, int position) {
+    return emptySubtrees != null && emptySubtrees[level] != null
+        && emptySubtrees[level].get(position);
+  }
+
+}
@@ -0,0 +1,317 @@
+package hashtrees;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Keeps track of the nodes needed to calculate the root hash of a Merkle-Tree, i.e. the result of
+ * {@link HashTree#getMissing()}, while hashes are set and removed. Nodes are identified by their
+ * index calculated by a breadth-first-traversal, the {@link NodeLayout} of the tree tells which
+ * nodes are the children and the parent of a node.
+ *
+ * <p>A node without a hash is needed if it is a leaf or if its whole subtree is empty, as asking
+ * for its hash is cheaper than asking for all hashes below it. The children of the root and of
+ * every inner node that has neither a hash nor an empty subtree are searched for needed nodes.
+ * Nodes below a node with a hash are never needed. If no child of the root has a hash in its
+ * subtree, all leaves are needed instead of the children of the root.
+ *
+ * <p>The tracker does not own the information which nodes have a hash, it reads it from a bitset
+ * maintained by the tree. After the hashes on the path from a node to the root have changed
+ * {@link #update(int)} must be called for that node. As all hashes that can change by a single
+ * operation are on such a path, an update only looks at the path and at the subtrees next to it
+ * whose state actually changes. Trees that cannot provide such a bitset use the same rules by
+ * {@link #search(IndexedNodes)}.
+ */
+final class MissingNodeTracker {
+
+  /**
+   * The shape of the tree.
+   */
+  private final NodeLayout layout;
+
+  /**
+   * The breadth-first index of the leftmost leaf.
+   */
+  private final int firstLeafIndex;
+
+  /**
+   * The nodes that have a hash, maintained by the tree.
+   */
+  private final BitSet hashedNodes;
+
+  /**
+   * The nodes whose subtree (including the node itself) contains at least one hash.
+   */
+  private final BitSet occupiedNodes;
+
+  /**
+   * The nodes whose children are searched for needed nodes.
+   */
+  private final BitSet searchedNodes;
+
+  /**
+   * The nodes currently needed to calculate the root hash.
+   */
+  private final BitSet missingNodes;
+
+  /**
+   * The number of set bits in {@link #missingNodes}.
+   */
+  private int numberOfMissingNodes;
+
+  /**
+   * The nodes on the path from the root to the node currently refreshed, reused by every update.
+   */
+  private final int[] path;
+
+  /**
+   * Creates a new {@code MissingNodeTracker} and calculates the needed nodes of the current tree.
+   *
+   * @param layout the shape of the tree
+   * @param hashedNodes the nodes that have a hash, maintained by the tree
+   */
+  MissingNodeTracker(NodeLayout layout, BitSet hashedNodes) {
+    this.layout = layout;
+    this.firstLeafIndex = layout.getFirstLeafIndex();
+    this.hashedNodes = hashedNodes;
+    this.occupiedNodes = new BitSet();
+    this.searchedNodes = new BitSet();
+    this.missingNodes = new BitSet();
+    this.path = new int[layout.getHeight() + 1];
+    reload();
+  }
+
+  /**
+   * Recalculates all needed nodes from scratch. Must be called if hashes outside of a single path
+   * have changed, e.g. when the tree was cleared.
+   */
+  void reload() {
+    occupiedNodes.clear();
+    searchedNodes.clear();
+    missingNodes.clear();
+    numberOfMissingNodes = 0;
+    occupiedNodes.or(hashedNodes);
+    for (int i = firstLeafIndex - 1; i >= 0; i--) {
+      if (hasOccupiedChild(i)) {
+        occupiedNodes.set(i);
+      }
+    }
+    // the root is always searched as its own hash is the one to be checked
+    searchedNodes.set(0);
+    final int firstChild = layout.getFirstChild(0);
+    for (int child = firstChild; child < firstChild + layout.getNumberOfChildren(0); child++) {
+      addSubtree(child);
+    }
+  }
+
+  /**
+   * Updates the needed nodes after the hashes on the path from a node to the root have changed.
+   *
+   * @param index the lowest node whose hash has changed
+   */
+  void update(int index) {
+    updateOccupied(index);
+    refreshPath(index);
+  }
+
+  /**
+   * Updates the needed nodes after the hashes on the paths from several nodes to the root have
+   * changed.
+   *
+   * @param indices an array containing the lowest nodes whose hashes have changed
+   * @param count the number of valid entries in {@code indices}
+   */
+  void update(int[] indices, int count) {
+    // the state of all paths must be correct before the subtrees next to them are searched
+    for (int i = 0; i < count; i++) {
+      updateOccupied(indices[i]);
+    }
+    for (int i = 0; i < count; i++) {
+      refreshPath(indices[i]);
+    }
+  }
+
+  /** Returns {@code true} if no node is needed to calculate the root hash. */
+  boolean isComplete() {
+    return numberOfMissingNodes == 0;
+  }
+
+  /**
+   * Returns the indices of the nodes needed to calculate the root hash in ascending order.
+   *
+   * @see HashTree#getMissing()
+   */
+  List<Integer> getMissing() {
+    if (!hasOccupiedChild(0)) {
+      return allLeaves(layout);
+    }
+    final List<Integer> result = new ArrayList<Integer>(numberOfMissingNodes);
+    for (int i = missingNodes.nextSetBit(0); i >= 0; i = missingNodes.nextSetBit(i + 1)) {
+      result.add(i);
+    }
+    return result;
+  }
+
+  /**
+   * Searches the nodes needed to calculate the root hash of a tree by the rules of this class
+   * without tracking them. Only the needed nodes and the nodes above them are visited, subtrees
+   * that have a hash or are {@linkplain IndexedNodes#isEmpty(int) known to be empty} are skipped.
+   * Subtrees that are empty but not known to be are searched down to their leaves.
+   *
+   * @param nodes the nodes of the tree
+   * @return the indices of the needed nodes in ascending order
+   */
+  static List<Integer> search(IndexedNodes<?> nodes) {
+    final NodeLayout layout = nodes.getLayout();
+    final int firstLeafIndex = layout.getFirstLeafIndex();
+    final int firstChildOfRoot = layout.getFirstChild(0);
+    boolean emptyTree = true;
+    for (int i = firstChildOfRoot; i < firstChildOfRoot + layout.getNumberOfChildren(0); i++) {
+      emptyTree &= !nodes.hasHash(i) && nodes.isEmpty(i);
+    }
+    if (emptyTree) {
+      return allLeaves(layout);
+    }
+    int[] searchedNodes = {0};
+    int numberOfSearchedNodes = 1;
+    final List<Integer> result = new ArrayList<Integer>();
+    // searching level by level finds the nodes in ascending order
+    while (numberOfSearchedNodes > 0) {
+      int[] nextNodes = new int[Math.min(numberOfSearchedNodes * layout.getArity(),
+          layout.getNumberOfNodes())];
+      int numberOfNextNodes = 0;
+      for (int i = 0; i < numberOfSearchedNodes; i++) {
+        final int firstChild = layout.getFirstChild(searchedNodes[i]);
+        final int lastChild = firstChild + layout.getNumberOfChildren(searchedNodes[i]) - 1;
+        for (int child = firstChild; child <= lastChild; child++) {
+          if (nodes.hasHash(child)) {
+            continue;
+          } else if (child >= firstLeafIndex || nodes.isEmpty(child)) {
+            result.add(child);
+          } else {
+            nextNodes[numberOfNextNodes++] = child;
+          }
+        }
+      }
+      searchedNodes = nextNodes;
+      numberOfSearchedNodes = numberOfNextNodes;
+    }
+    return result;
+  }
+
+  /** Helper method to list all leaves of a tree, needed if the tree is empty. */
+  private static List<Integer> allLeaves(NodeLayout layout) {
+    final List<Integer> result = new ArrayList<Integer>(layout.getNumberOfLeaves());
+    for (int i = layout.getFirstLeafIndex(); i < layout.getNumberOfNodes(); i++) {
+      result.add(i);
+    }
+    return result;
+  }
+
+  /** Recalculates which nodes on the path from a node to the root have a non-empty subtree. */
+  private void updateOccupied(int index) {
+    while (true) {
+      occupiedNodes.set(index,
+          hashedNodes.get(index) || (index < firstLeafIndex && hasOccupiedChild(index)));
+      if (index == 0) {
+        return;
+      }
+      index = layout.getParent(index);
+    }
+  }
+
+  /** Returns {@code true} if the subtree of at least one child of an inner node has a hash. */
+  private boolean hasOccupiedChild(int index) {
+    final int firstChild = layout.getFirstChild(index);
+    for (int child = firstChild; child < firstChild + layout.getNumberOfChildren(index); child++) {
+      if (occupiedNodes.get(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Recalculates the needed nodes on the path from the root to a node. Whenever a node on the path
+   * starts or stops being searched, the subtrees of its children next to the path are added or
+   * removed. Below the last node of the path all subtrees are affected.
+   */
+  private void refreshPath(int index) {
+    int length = 0;
+    path[length++] = index;
+    while (index != 0) {
+      index = layout.getParent(index);
+      path[length++] = index;
+    }
+    boolean parentSearched = true;
+    for (int i = length - 1; i >= 0; i--) {
+      final int current = path[i];
+      final boolean searched = current == 0 || (parentSearched && isSearchable(current));
+      if (current != 0) {
+        setMissing(current, parentSearched && needsHash(current));
+      }
+      if (searched != searchedNodes.get(current)) {
+        searchedNodes.set(current, searched);
+        final int nextOnPath = i > 0 ? path[i - 1] : -1;
+        final int firstChild = layout.getFirstChild(current);
+        final int lastChild = firstChild + layout.getNumberOfChildren(current) - 1;
+        for (int child = firstChild; child <= lastChild; child++) {
+          if (child == nextOnPath) {
+            continue;
+          } else if (searched) {
+            addSubtree(child);
+          } else {
+            removeSubtree(child);
+          }
+        }
+      }
+      parentSearched = searched;
+    }
+  }
+
+  /** Marks the needed nodes of a subtree whose parent is searched. */
+  private void addSubtree(int index) {
+    if (needsHash(index)) {
+      setMissing(index, true);
+    } else if (isSearchable(index)) {
+      searchedNodes.set(index);
+      final int firstChild = layout.getFirstChild(index);
+      final int lastChild = firstChild + layout.getNumberOfChildren(index) - 1;
+      for (int child = firstChild; child <= lastChild; child++) {
+        addSubtree(child);
+      }
+    }
+  }
+
+  /** Unmarks all nodes of a subtree whose parent is no longer searched. */
+  private void removeSubtree(int index) {
+    setMissing(index, false);
+    if (searchedNodes.get(index)) {
+      searchedNodes.clear(index);
+      final int firstChild = layout.getFirstChild(index);
+      final int lastChild = firstChild + layout.getNumberOfChildren(index) - 1;
+      for (int child = firstChild; child <= lastChild; child++) {
+        removeSubtree(child);
+      }
+    }
+  }
+
+  /** Returns {@code true} if a node is needed provided its parent is searched. */
+  private boolean needsHash(int index) {
+    return !hashedNodes.get(index) && (index >= firstLeafIndex || !occupiedNodes.get(index));
+  }
+
+  /** Returns {@code true} if the children of a node are searched provided its parent is. */
+  private boolean isSearchable(int index) {
+    return index < firstLeafIndex && !hashedNodes.get(index) && occupiedNodes.get(index);
+  }
+
+  private void setMissing(int index, boolean missing) {
+    if (missingNodes.get(index) != missing) {
+      missingNodes.set(index, missing);
+      numberOfMissingNodes += missing ? 1 : -1;
+    }
+  }
+
+}
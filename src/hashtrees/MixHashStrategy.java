@@ -0,0 +1,90 @@
+package hashtrees;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fast non-cryptographic 64-bit hash strategy in the style of wyhash. Input words are combined
+ * with the state by a 64x64 to 128 bit multiplication whose halves are folded together, the result
+ * is finished by the avalanche step of SplitMix64.
+ *
+ * @see HashStrategies#fast()
+ */
+final class MixHashStrategy implements HashStrategy {
+
+  static final MixHashStrategy INSTANCE = new MixHashStrategy();
+
+  // the secret constants of wyhash
+  private static final long P0 = 0xa0761d6478bd642fL;
+  private static final long P1 = 0xe7037ed1a0b428dbL;
+  private static final long P2 = 0x8ebc6af09c88c6e3L;
+  private static final long P3 = 0x589965cc75374cc3L;
+
+  private MixHashStrategy() {
+    // singleton
+  }
+
+  @Override
+  public long hashLeaf(Object value) {
+    TreeMetrics.leafHashed();
+    final CharSequence text = LeafText.of(value);
+    final int length = text.length();
+    long state = P0 ^ length;
+    int i = 0;
+    // four chars fit into one word
+    for (; i + 4 <= length; i += 4) {
+      final long word = text.charAt(i) | (long) text.charAt(i + 1) << 16
+          | (long) text.charAt(i + 2) << 32 | (long) text.charAt(i + 3) << 48;
+      state = multiplyFold(word ^ P1, state ^ P2);
+    }
+    long word = 0;
+    for (int shift = 0; i < length; i++, shift += 16) {
+      word |= (long) text.charAt(i) << shift;
+    }
+    state = multiplyFold(word ^ P1, state ^ P3);
+    return avalanche(state);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The bytes are combined in little-endian words of eight like the chars of a text.
+   */
+  @Override
+  public long hashBytes(ByteBuffer block) {
+    TreeMetrics.leafHashed();
+    final ByteBuffer bytes = block.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    final int from = bytes.position();
+    final int length = bytes.remaining();
+    long state = P0 ^ length;
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      state = multiplyFold(bytes.getLong(from + i) ^ P1, state ^ P2);
+    }
+    long word = 0;
+    for (int shift = 0; i < length; i++, shift += 8) {
+      word |= (bytes.get(from + i) & 0xffL) << shift;
+    }
+    state = multiplyFold(word ^ P1, state ^ P3);
+    return avalanche(state);
+  }
+
+  @Override
+  public long hashInner(long leftHash, long rightHash) {
+    TreeMetrics.innerHashed();
+    return avalanche(multiplyFold(leftHash ^ P0, rightHash ^ P1));
+  }
+
+  /** Multiplies two words to a 128 bit product and folds its halves together. */
+  private static long multiplyFold(long a, long b) {
+    return (a * b) ^ Math.multiplyHigh(a, b);
+  }
+
+  /** The finalizer of SplitMix64, every input bit affects every output bit. */
+  private static long avalanche(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+}
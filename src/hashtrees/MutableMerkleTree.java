@@ -1,5 +1,12 @@
 package hashtrees;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Represents a mutable Merkle-Tree. A Merkle-Tree is a hash tree in which every leaf node is
  * labelled with the hash of a data block and every non-leaf node is labelled with the cryptographic
@@ -10,55 +17,98 @@ package hashtrees;
 public class MutableMerkleTree<V> extends AbstractHashTree<V> implements HashTree<V> {
 
   /**
-   * Creates a new Merkle-Tree.
+   * Creates a new Merkle-Tree that uses the {@linkplain HashStrategies#defaultStrategy() default}
+   * hash functions.
    * 
    * @param leavesNeeded the number of leaves needed in this tree
    */
   public MutableMerkleTree(int leavesNeeded) {
-    super();
-    int height = getExponentOfNextPowerOfTwo(leavesNeeded);
-    create(getRoot(), height);
+    this(leavesNeeded, HashStrategies.defaultStrategy());
   }
 
-  /** Helper method to create a MutableMerkleTree from a given height. */
-  private void create(MerkleInnerNode<V> parent, int height) {
-    height--;
-    if (height > 0) {
-      MerkleInnerNode<V> temp = parent;
-
-      // create left subtree
-      parent.setLeft(new MerkleInnerNode<V>(parent));
-      temp = (MerkleInnerNode<V>) parent.getLeft();
-      create(temp, height);
-
-      // create right subtree
-      parent.setRight(new MerkleInnerNode<V>(parent));
-      temp = (MerkleInnerNode<V>) parent.getRight();
-      create(temp, height);
-    } else {
-      // height == 0, that means last level
-      parent.setLeft(new MerkleLeaf<V>(parent));
-      parent.setRight(new MerkleLeaf<V>(parent));
-    }
+  /**
+   * Creates a new Merkle-Tree.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param hashStrategy the hash functions of the tree
+   */
+  public MutableMerkleTree(int leavesNeeded, HashStrategy hashStrategy) {
+    super(hashStrategy);
+    int height = getExponentOfNextPowerOfTwo(leavesNeeded);
+    SubtreeCreationTask.create(getRoot(), height, null, hashStrategy);
   }
 
   @Override
   public void setHash(int position, long hash) {
     MerkleNode<V> changeNode = depthFirstSearch(position);
-    changeNode.setHash(hash);
+    changeNode.setHash(hash, getHashStrategy());
+    nodeChanged(changeNode, position);
   }
 
   @Override
   public void setValue(int position, V value) {
-    int bfsIndex = (int) Math.pow(2, calculateHeight()) + position - 1;
+    final int bfsIndex = (1 << calculateHeight()) + position - 1;
     MerkleNode<V> changeNode = depthFirstSearch(bfsIndex);
     if (changeNode instanceof MerkleLeaf) {
-      ((MerkleLeaf<V>) changeNode).setValue(value);
+      ((MerkleLeaf<V>) changeNode).setValue(value, getHashStrategy());
+      nodeChanged(changeNode, bfsIndex);
     } else {
       throw new IndexOutOfBoundsException();
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>All leaves are changed first, afterwards the inner nodes are recalculated level by level
+   * from the bottom up. Every inner node above a changed leaf is recalculated at most once. If an
+   * index is out of range the tree is left unchanged.
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    final int firstLeafIndex = (1 << calculateHeight()) - 1;
+    // search all leaves first so that an invalid index does not leave the tree half changed
+    final List<MerkleLeaf<V>> leaves = new ArrayList<MerkleLeaf<V>>(values.size());
+    final int[] leafIndices = new int[values.size()];
+    for (Map.Entry<Integer, ? extends V> entry : values.entrySet()) {
+      final int position = entry.getKey();
+      if (position < 0) {
+        throw new IndexOutOfBoundsException();
+      }
+      final MerkleNode<V> changeNode = depthFirstSearch(firstLeafIndex + position);
+      if (!(changeNode instanceof MerkleLeaf)) {
+        throw new IndexOutOfBoundsException();
+      }
+      leafIndices[leaves.size()] = firstLeafIndex + position;
+      leaves.add((MerkleLeaf<V>) changeNode);
+    }
+
+    // all leaves are on the same level, thus their parents are on the same level as well
+    final HashStrategy strategy = getHashStrategy();
+    Set<MerkleInnerNode<V>> dirtyNodes = newIdentitySet();
+    int leafNumber = 0;
+    for (Map.Entry<Integer, ? extends V> entry : values.entrySet()) {
+      final MerkleLeaf<V> leaf = leaves.get(leafNumber++);
+      leaf.assignValue(entry.getValue(), strategy);
+      dirtyNodes.add(leaf.parent);
+    }
+    while (!dirtyNodes.isEmpty()) {
+      final Set<MerkleInnerNode<V>> dirtyParents = newIdentitySet();
+      for (MerkleInnerNode<V> node : dirtyNodes) {
+        if (node.recalculate(strategy) && node.parent != null) {
+          dirtyParents.add(node.parent);
+        }
+      }
+      dirtyNodes = dirtyParents;
+    }
+    nodesChanged(leaves, leafIndices);
+  }
+
+  /** Helper method for {@link #setValues(Map)}. */
+  private static <V> Set<MerkleInnerNode<V>> newIdentitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<MerkleInnerNode<V>, Boolean>());
+  }
+
   /** Returns the height of the tree. */
   private int calculateHeight() {
     MerkleNode<V> current = getRoot();
@@ -73,6 +123,7 @@ public class MutableMerkleTree<V> extends AbstractHashTree<V> implements HashTre
   @Override
   public void clear() {
     deleteLeafValues(getRoot());
+    treeChanged();
   }
 
   /** Helper method for deleting all values i.e. clearing the tree. */
@@ -81,18 +132,19 @@ public class MutableMerkleTree<V> extends AbstractHashTree<V> implements HashTre
       deleteLeafValues(((MerkleInnerNode<V>) nd).getLeft());
       deleteLeafValues(((MerkleInnerNode<V>) nd).getRight());
     } else {
-      ((MerkleLeaf<V>) nd).setValue(null);
+      ((MerkleLeaf<V>) nd).setValue(null, getHashStrategy());
     }
   }
 
-  /** Returns the exponent of the next power of a given number. */
+  /**
+   * Returns the exponent of the next power of a given number. Calculated on the bits of the number
+   * as the floating point logarithm is not exact for all powers of two.
+   */
   static int getExponentOfNextPowerOfTwo(int x) {
-    return (int) Math.ceil(log2(x));
-  }
-
-  /** Returns the binary logarithm (base 2) of an {@code int} value. */
-  private static double log2(int x) {
-    return (Math.log(x) / Math.log(2));
+    if (x <= 1) {
+      return 0;
+    }
+    return Integer.SIZE - Integer.numberOfLeadingZeros(x - 1);
   }
 
 }
@@ -0,0 +1,423 @@
+package hashtrees;
+
+import java.util.Arrays;
+
+/**
+ * Describes the shape of a Merkle-Tree whose nodes are numbered by a breadth-first-traversal: the
+ * number of nodes, where the leaves start and which nodes are the parent and the children of a
+ * node. All layouts number every level from left to right directly after the level above, so the
+ * children of a node are consecutive and the parents of nodes in ascending order are in ascending
+ * order as well.
+ *
+ * <p>Besides the index arithmetic a layout recalculates the inner nodes of a tree from the bottom
+ * up, either on the path above a single changed node or level by level above several changed
+ * nodes. The tree provides the recalculation of a single node by a {@link Recalculation}.
+ *
+ * <p>Instances are immutable, two layouts are equal if they describe the same shape.
+ */
+abstract class NodeLayout {
+
+  /**
+   * Recalculates the hash of a single inner node of a tree.
+   */
+  interface Recalculation {
+
+    /**
+     * Recalculates the hash of an inner node if possible without updating the next higher node.
+     *
+     * @param index the breadth-first index of the node
+     * @return {@code true} if a new hash was calculated i.e. the parent node has to be updated
+     */
+    boolean recalculate(int index);
+  }
+
+  /**
+   * Returns the layout of a complete binary tree.
+   *
+   * @param height the height of the tree, at least 1
+   * @return the layout
+   */
+  static NodeLayout binary(int height) {
+    return new Binary(height);
+  }
+
+  /**
+   * Returns the layout of a complete tree in which every inner node has the same number of
+   * children.
+   *
+   * @param arity the number of children of every inner node, at least 2
+   * @param height the height of the tree, at least 1
+   * @return the layout, equal to {@link #binary(int)} for the arity 2
+   */
+  static NodeLayout kary(int arity, int height) {
+    if (arity == 2) {
+      return new Binary(height);
+    }
+    return new Kary(arity, height);
+  }
+
+  /**
+   * Returns the layout of a tree with exactly the given number of leaves, like an
+   * {@link ExactMerkleTree}: every level has half as many nodes as the level below, rounded up,
+   * and the last node of a level with an odd number of nodes is the only child of its parent.
+   *
+   * @param numberOfLeaves the number of leaves, at least 2
+   * @return the layout, equal to {@link #binary(int)} if the number of leaves is a power of two
+   */
+  static NodeLayout exact(int numberOfLeaves) {
+    final int height = MutableMerkleTree.getExponentOfNextPowerOfTwo(numberOfLeaves);
+    if (numberOfLeaves == 1 << height) {
+      return new Binary(height);
+    }
+    return new Exact(numberOfLeaves, height);
+  }
+
+  /** Returns the height of the tree i.e. the number of edges between the root and a leaf. */
+  abstract int getHeight();
+
+  /** Returns the number of nodes, i.e. the number of valid breadth-first indices. */
+  abstract int getNumberOfNodes();
+
+  /** Returns the breadth-first index of the leftmost leaf. */
+  abstract int getFirstLeafIndex();
+
+  /** Returns the number of leaves. */
+  final int getNumberOfLeaves() {
+    return getNumberOfNodes() - getFirstLeafIndex();
+  }
+
+  /** Returns the largest number of children an inner node has. */
+  abstract int getArity();
+
+  /** Returns the breadth-first index of the parent of a node other than the root. */
+  abstract int getParent(int index);
+
+  /** Returns the breadth-first index of the leftmost child of an inner node. */
+  abstract int getFirstChild(int index);
+
+  /** Returns the number of children of a node, {@code 0} for a leaf. */
+  abstract int getNumberOfChildren(int index);
+
+  /**
+   * Calculates the hash of an inner node from the hashes of its children.
+   *
+   * @param strategy the hash functions of the tree
+   * @param childHashes the array holding the hashes of the children from left to right
+   * @param from the index of the hash of the leftmost child
+   * @param count the number of children
+   * @return the hash of the inner node, the hash of the child if there is only one
+   */
+  static long hashChildren(HashStrategy strategy, long[] childHashes, int from, int count) {
+    if (count == 1) {
+      // a single child is promoted with its hash
+      return childHashes[from];
+    } else if (count == 2) {
+      return strategy.hashInner(childHashes[from], childHashes[from + 1]);
+    }
+    return strategy.hashInner(childHashes, from, count);
+  }
+
+  /**
+   * Recalculates the inner nodes on the path from a node to the root, starting at the node itself.
+   * The update stops at the first node that does not get a new hash.
+   *
+   * @param index the breadth-first index of the lowest inner node to recalculate
+   * @param recalculation recalculates a single node
+   */
+  final void recalculatePath(int index, Recalculation recalculation) {
+    int recalculatedNodes = 0;
+    while (recalculation.recalculate(index)) {
+      recalculatedNodes++;
+      if (index == 0) {
+        break;
+      }
+      index = getParent(index);
+    }
+    TreeMetrics.updatePropagated(recalculatedNodes);
+  }
+
+  /**
+   * Recalculates the inner nodes above several nodes of the same level level by level from the
+   * bottom up. Every inner node is recalculated at most once, and the path above a node stops at
+   * the first node that does not get a new hash.
+   *
+   * @param dirtyNodes the breadth-first indices of the lowest inner nodes to recalculate, all on
+   *        the same level, the array is overwritten
+   * @param count the number of valid entries in {@code dirtyNodes}
+   * @param recalculation recalculates a single node
+   */
+  final void recalculateLevels(int[] dirtyNodes, int count, Recalculation recalculation) {
+    // sorted indices of one level stay sorted when replaced by their parents, so duplicates are
+    // always next to each other
+    Arrays.sort(dirtyNodes, 0, count);
+    while (count > 0) {
+      count = recalculateLevel(dirtyNodes, count, recalculation);
+    }
+  }
+
+  /**
+   * Recalculates the sorted nodes of one level and replaces them by their parents that have to be
+   * recalculated next.
+   *
+   * @param dirtyNodes the breadth-first indices of the nodes in ascending order, duplicates allowed
+   * @param count the number of valid entries in {@code dirtyNodes}
+   * @param recalculation recalculates a single node
+   * @return the number of parents, which are stored at the beginning of {@code dirtyNodes}
+   */
+  final int recalculateLevel(int[] dirtyNodes, int count, Recalculation recalculation) {
+    int numberOfDirtyParents = 0;
+    int previousIndex = -1;
+    for (int i = 0; i < count; i++) {
+      final int index = dirtyNodes[i];
+      if (index != previousIndex && recalculation.recalculate(index) && index != 0) {
+        dirtyNodes[numberOfDirtyParents++] = getParent(index);
+      }
+      previousIndex = index;
+    }
+    return numberOfDirtyParents;
+  }
+
+  /**
+   * The layout of a complete binary tree: the node with the index {@code i} has the children
+   * {@code 2 * i + 1} and {@code 2 * i + 2} and the parent {@code (i - 1) / 2}.
+   */
+  private static final class Binary extends NodeLayout {
+
+    private final int height;
+
+    Binary(int height) {
+      this.height = height;
+    }
+
+    @Override
+    int getHeight() {
+      return height;
+    }
+
+    @Override
+    int getNumberOfNodes() {
+      return (1 << (height + 1)) - 1;
+    }
+
+    @Override
+    int getFirstLeafIndex() {
+      return (1 << height) - 1;
+    }
+
+    @Override
+    int getArity() {
+      return 2;
+    }
+
+    @Override
+    int getParent(int index) {
+      return (index - 1) / 2;
+    }
+
+    @Override
+    int getFirstChild(int index) {
+      return 2 * index + 1;
+    }
+
+    @Override
+    int getNumberOfChildren(int index) {
+      return index < getFirstLeafIndex() ? 2 : 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Binary && ((Binary) obj).height == height;
+    }
+
+    @Override
+    public int hashCode() {
+      return height;
+    }
+
+    @Override
+    public String toString() {
+      return "binary tree of height " + height;
+    }
+  }
+
+  /**
+   * The layout of a complete tree of the arity {@code k}: the node with the index {@code i} has
+   * the children {@code k * i + 1} to {@code k * i + k} and the parent {@code (i - 1) / k}.
+   */
+  private static final class Kary extends NodeLayout {
+
+    private final int arity;
+    private final int height;
+    private final int firstLeafIndex;
+    private final int numberOfNodes;
+
+    Kary(int arity, int height) {
+      this.arity = arity;
+      this.height = height;
+      long leaves = 1;
+      long nodes = 1;
+      for (int i = 0; i < height && nodes <= Integer.MAX_VALUE; i++) {
+        leaves *= arity;
+        nodes += leaves;
+      }
+      if (nodes > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Too many nodes: " + nodes);
+      }
+      this.firstLeafIndex = (int) (nodes - leaves);
+      this.numberOfNodes = (int) nodes;
+    }
+
+    @Override
+    int getHeight() {
+      return height;
+    }
+
+    @Override
+    int getNumberOfNodes() {
+      return numberOfNodes;
+    }
+
+    @Override
+    int getFirstLeafIndex() {
+      return firstLeafIndex;
+    }
+
+    @Override
+    int getArity() {
+      return arity;
+    }
+
+    @Override
+    int getParent(int index) {
+      return (index - 1) / arity;
+    }
+
+    @Override
+    int getFirstChild(int index) {
+      return arity * index + 1;
+    }
+
+    @Override
+    int getNumberOfChildren(int index) {
+      return index < firstLeafIndex ? arity : 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Kary)) {
+        return false;
+      }
+      final Kary other = (Kary) obj;
+      return other.arity == arity && other.height == height;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * arity + height;
+    }
+
+    @Override
+    public String toString() {
+      return "tree of arity " + arity + " and height " + height;
+    }
+  }
+
+  /**
+   * The layout of a tree with an arbitrary number of leaves: the node with the position {@code j}
+   * on a level has the children {@code 2j} and {@code 2j + 1} on the level below, if they exist.
+   */
+  private static final class Exact extends NodeLayout {
+
+    private final int numberOfLeaves;
+    private final int height;
+
+    /**
+     * The breadth-first index of the first node of every level, indexed by the depth of the level.
+     * The additional last entry is the number of nodes.
+     */
+    private final int[] levelOffsets;
+
+    Exact(int numberOfLeaves, int height) {
+      this.numberOfLeaves = numberOfLeaves;
+      this.height = height;
+      // the sizes of the levels from the leaves up, stored from the root down
+      final int[] levelSizes = new int[height + 1];
+      int size = numberOfLeaves;
+      for (int depth = height; depth >= 0; depth--) {
+        levelSizes[depth] = size;
+        size = (size + 1) / 2;
+      }
+      this.levelOffsets = new int[height + 2];
+      for (int depth = 0; depth <= height; depth++) {
+        levelOffsets[depth + 1] = levelOffsets[depth] + levelSizes[depth];
+      }
+    }
+
+    @Override
+    int getHeight() {
+      return height;
+    }
+
+    @Override
+    int getNumberOfNodes() {
+      return levelOffsets[height + 1];
+    }
+
+    @Override
+    int getFirstLeafIndex() {
+      return levelOffsets[height];
+    }
+
+    @Override
+    int getArity() {
+      return 2;
+    }
+
+    @Override
+    int getParent(int index) {
+      final int depth = depthOf(index);
+      return levelOffsets[depth - 1] + (index - levelOffsets[depth]) / 2;
+    }
+
+    @Override
+    int getFirstChild(int index) {
+      final int depth = depthOf(index);
+      return levelOffsets[depth + 1] + 2 * (index - levelOffsets[depth]);
+    }
+
+    @Override
+    int getNumberOfChildren(int index) {
+      final int depth = depthOf(index);
+      if (depth == height) {
+        return 0;
+      }
+      final int firstChild = levelOffsets[depth + 1] + 2 * (index - levelOffsets[depth]);
+      return firstChild + 1 < levelOffsets[depth + 2] ? 2 : 1;
+    }
+
+    /** Returns the depth of the level containing the node with the given breadth-first index. */
+    private int depthOf(int index) {
+      int depth = height;
+      while (levelOffsets[depth] > index) {
+        depth--;
+      }
+      return depth;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Exact && ((Exact) obj).numberOfLeaves == numberOfLeaves;
+    }
+
+    @Override
+    public int hashCode() {
+      return numberOfLeaves;
+    }
+
+    @Override
+    public String toString() {
+      return "tree of " + numberOfLeaves + " leaves";
+    }
+  }
+
+}
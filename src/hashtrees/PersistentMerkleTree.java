@@ -0,0 +1,504 @@
+package hashtrees;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a persistent Merkle-Tree, i.e. a tree that is never changed but creates a new version
+ * of itself for every change. A new version shares all unchanged subtrees with the version it was
+ * created from and only copies the nodes on the path from the changed node to the root, so keeping
+ * {@code k} versions that differ by one change each costs {@code O(k log n)} nodes instead of
+ * {@code k} whole trees. All versions stay readable and can be checked by {@link #isConsistent()}
+ * and {@link #getMissing()} at any time, also by several threads.
+ *
+ * <p>Changes are made by {@link #withValue(int, Object)}, {@link #withValues(Map)},
+ * {@link #withHash(int, long)} and {@link #cleared()}, the mutators of {@link HashTree} are not
+ * supported. Apart from that a version behaves like a {@link MutableMerkleTree} that has seen the
+ * same changes.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+public final class PersistentMerkleTree<V> extends MeasuredHashTree<V> {
+
+  /**
+   * The height of the tree i.e. the number of edges between the root and a leaf.
+   */
+  private final int height;
+
+  /**
+   * The root of this version.
+   */
+  private final Node root;
+
+  /**
+   * The empty subtrees of all heights, indexed by their height. They are shared by all versions
+   * of a tree, so an empty tree consists of {@code height + 1} nodes only.
+   */
+  private final Node[] emptyNodes;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * Creates a new empty {@code PersistentMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   */
+  public PersistentMerkleTree(int leavesNeeded) {
+    this(leavesNeeded, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new empty {@code PersistentMerkleTree}.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param hashStrategy the hash functions of the tree
+   */
+  public PersistentMerkleTree(int leavesNeeded, HashStrategy hashStrategy) {
+    this.height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded));
+    this.emptyNodes = new Node[height + 1];
+    emptyNodes[0] = new Node(0L, false, null, null, null);
+    for (int i = 1; i <= height; i++) {
+      emptyNodes[i] = new Node(0L, false, emptyNodes[i - 1], emptyNodes[i - 1], null);
+    }
+    this.root = emptyNodes[height];
+    this.hashStrategy = hashStrategy;
+  }
+
+  /** Creates another version of a tree. */
+  private PersistentMerkleTree(PersistentMerkleTree<V> previous, Node root) {
+    this.height = previous.height;
+    this.root = root;
+    this.emptyNodes = previous.emptyNodes;
+    this.hashStrategy = previous.hashStrategy;
+  }
+
+  /**
+   * Returns a new version of this tree in which the hash at a given position is changed.
+   *
+   * @param position index of the node calculated by a breadth-first-traversal
+   * @param hash the new hash
+   * @return the new version
+   * @throws IndexOutOfBoundsException if the index is out of range
+   * @throws IllegalArgumentException if the node is a leaf that has a value
+   * @see HashTree#setHash(int, long)
+   */
+  public PersistentMerkleTree<V> withHash(int position, long hash) {
+    if (position < 0 || position >= (1 << (height + 1)) - 1) {
+      throw new IndexOutOfBoundsException();
+    }
+    final Node[] path = searchPath(position);
+    final Node node = path[path.length - 1];
+    if (node.value != null) {
+      // the hash would manipulate the hash calculated from the value
+      throw new IllegalArgumentException();
+    }
+    return copyPath(position, path, new Node(hash, true, node.left, node.right, null));
+  }
+
+  /**
+   * Returns a new version of this tree in which the value at a given position is changed.
+   *
+   * @param position index of the leaf counted from left to right
+   * @param value the new value
+   * @return the new version
+   * @throws IndexOutOfBoundsException if the index is out of range
+   * @see HashTree#setValue(int, Object)
+   */
+  public PersistentMerkleTree<V> withValue(int position, V value) {
+    if (position < 0 || position >= 1 << height) {
+      throw new IndexOutOfBoundsException();
+    }
+    final int index = (1 << height) - 1 + position;
+    final Node leaf;
+    if (value != null) {
+      leaf = new Node(hashStrategy.hashLeaf(value), true, null, null, value);
+    } else {
+      leaf = emptyNodes[0];
+    }
+    return copyPath(index, searchPath(index), leaf);
+  }
+
+  /**
+   * Returns a new version of this tree in which the values at several positions are changed. All
+   * leaves are changed first, afterwards the inner nodes above them are copied and recalculated
+   * from the bottom up, so every node on the paths to the changed leaves is copied only once. Like
+   * {@link HashTree#setValues(Map)} of the other trees the root hash can only be calculated from
+   * the final values.
+   *
+   * @param values the new values mapped by the index of their leaf counted from left to right
+   * @return the new version
+   * @throws IndexOutOfBoundsException if an index is out of range
+   * @see HashTree#setValues(Map)
+   */
+  public PersistentMerkleTree<V> withValues(Map<Integer, ? extends V> values) {
+    final int[] positions = new int[values.size()];
+    int count = 0;
+    for (Integer position : values.keySet()) {
+      if (position < 0 || position >= 1 << height) {
+        throw new IndexOutOfBoundsException();
+      }
+      positions[count++] = position;
+    }
+    if (count == 0) {
+      return this;
+    }
+    Arrays.sort(positions);
+    final Object[] newValues = new Object[count];
+    for (int i = 0; i < count; i++) {
+      newValues[i] = values.get(positions[i]);
+    }
+    return new PersistentMerkleTree<V>(this,
+        copySubtree(root, height, 0, positions, newValues, 0, count, new boolean[1]));
+  }
+
+  /**
+   * Helper method for {@link #withValues(Map)}. Copies a subtree in which the leaves at the given
+   * positions get new values. Subtrees without a changed leaf are shared. As in
+   * {@link #copyPath(int, Node[], Node)} a node is only recalculated if one of its children got a
+   * new hash, otherwise it is copied with its old hash.
+   *
+   * @param node the root of the subtree
+   * @param subtreeHeight the height of the subtree
+   * @param firstPosition the position of the leftmost leaf of the subtree
+   * @param positions the positions of the changed leaves in ascending order
+   * @param values the new values in the order of {@code positions}
+   * @param from the first entry of {@code positions} inside the subtree
+   * @param to the entry after the last one inside the subtree
+   * @param recalculated receives whether the returned node got a new hash
+   * @return the copy of the subtree
+   */
+  private Node copySubtree(Node node, int subtreeHeight, int firstPosition, int[] positions,
+      Object[] values, int from, int to, boolean[] recalculated) {
+    if (subtreeHeight == 0) {
+      recalculated[0] = true;
+      final Object value = values[from];
+      return value != null ? new Node(hashStrategy.hashLeaf(value), true, null, null, value)
+          : emptyNodes[0];
+    }
+    final int middle = firstPosition + (1 << (subtreeHeight - 1));
+    int split = from;
+    while (split < to && positions[split] < middle) {
+      split++;
+    }
+    boolean recalculate = false;
+    Node left = node.left;
+    if (from < split) {
+      left = copySubtree(node.left, subtreeHeight - 1, firstPosition, positions, values, from,
+          split, recalculated);
+      recalculate |= recalculated[0];
+    }
+    Node right = node.right;
+    if (split < to) {
+      right = copySubtree(node.right, subtreeHeight - 1, middle, positions, values, split, to,
+          recalculated);
+      recalculate |= recalculated[0];
+    }
+    recalculated[0] = false;
+    // once the root hash is set it cannot be altered
+    if (!recalculate || (subtreeHeight == height && node.hashPresent)) {
+      return new Node(node.hash, node.hashPresent, left, right, null);
+    } else if (left.hashPresent && right.hashPresent) {
+      recalculated[0] = true;
+      return new Node(hashStrategy.hashInner(left.hash, right.hash), true, left, right, null);
+    }
+    return new Node(0L, false, left, right, null);
+  }
+
+  /**
+   * Returns a new version of this tree without any values, like a {@link MutableMerkleTree} after
+   * {@link MutableMerkleTree#clear()}: the leaves and their parents lose their hashes, the hashes
+   * further up are kept.
+   *
+   * @return the new version
+   */
+  public PersistentMerkleTree<V> cleared() {
+    return new PersistentMerkleTree<V>(this, clearedLeaves(root, height, true));
+  }
+
+  /**
+   * Helper method for {@link #cleared()}. Returns a copy of a subtree without the hashes of the
+   * leaves and their parents, subtrees without any hash are shared.
+   */
+  private Node clearedLeaves(Node node, int subtreeHeight, boolean isRoot) {
+    if (!node.occupied) {
+      return node;
+    } else if (subtreeHeight == 1) {
+      // once the root hash is set it cannot be altered
+      return isRoot && node.hashPresent
+          ? new Node(node.hash, true, emptyNodes[0], emptyNodes[0], null) : emptyNodes[1];
+    }
+    return new Node(node.hash, node.hashPresent, clearedLeaves(node.left, subtreeHeight - 1, false),
+        clearedLeaves(node.right, subtreeHeight - 1, false), null);
+  }
+
+  /**
+   * Returns the nodes on the path from the root to a node. The binary representation of
+   * {@code index + 1} without its leading one bit is the path to the node: starting at the root
+   * every 0 stands for the left child and every 1 for the right child.
+   */
+  private Node[] searchPath(int index) {
+    final int path = index + 1;
+    final int depth = 31 - Integer.numberOfLeadingZeros(path);
+    final Node[] nodes = new Node[depth + 1];
+    nodes[0] = root;
+    for (int i = 1; i <= depth; i++) {
+      final Node parent = nodes[i - 1];
+      nodes[i] = ((path >>> (depth - i)) & 1) == 0 ? parent.left : parent.right;
+    }
+    return nodes;
+  }
+
+  /**
+   * Creates the new version in which the last node of a path is replaced. The nodes above are
+   * copied and recalculated from the bottom up. If one of the children of a node has no hash the
+   * node loses its hash, and the nodes above are copied with their old hashes.
+   */
+  private PersistentMerkleTree<V> copyPath(int index, Node[] path, Node replacement) {
+    final int pathBits = index + 1;
+    Node current = replacement;
+    boolean recalculate = true;
+    for (int depth = path.length - 2; depth >= 0; depth--) {
+      final Node parent = path[depth];
+      final boolean isRightChild = ((pathBits >>> (path.length - 2 - depth)) & 1) == 1;
+      final Node left = isRightChild ? parent.left : current;
+      final Node right = isRightChild ? current : parent.right;
+      // once the root hash is set it cannot be altered
+      if (!recalculate || (depth == 0 && parent.hashPresent)) {
+        recalculate = false;
+        current = new Node(parent.hash, parent.hashPresent, left, right, null);
+      } else if (left.hashPresent && right.hashPresent) {
+        current = new Node(hashStrategy.hashInner(left.hash, right.hash), true, left, right, null);
+      } else {
+        recalculate = false;
+        current = new Node(0L, false, left, right, null);
+      }
+    }
+    return new PersistentMerkleTree<V>(this, current);
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   * @see #withHash(int, long)
+   */
+  @Override
+  public void setHash(int position, long hash) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   * @see #withValue(int, Object)
+   */
+  @Override
+  public void setValue(int position, V value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   * @see #withValue(int, Object)
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   * @see #cleared()
+   */
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isConsistent() {
+    if (!root.hashPresent || !root.left.hashPresent || !root.right.hashPresent) {
+      return false;
+    }
+    return root.hash == hashStrategy.hashInner(root.left.hash, root.right.hash);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the needed nodes and the nodes above them are visited, subtrees that have a hash or
+   * are empty are skipped. The indices are returned in ascending order.
+   */
+  @Override
+  List<Integer> searchMissing() {
+    final List<Integer> result = new ArrayList<Integer>();
+    if (!root.left.occupied && !root.right.occupied) {
+      // no hash below the root, every leaf is needed
+      final int firstLeafIndex = (1 << height) - 1;
+      for (int i = firstLeafIndex; i <= 2 * firstLeafIndex; i++) {
+        result.add(i);
+      }
+      return result;
+    }
+    // the root is always searched as its own hash is the one to be checked
+    collectMissing(root.left, 1, result);
+    collectMissing(root.right, 2, result);
+    // the nodes are found depth-first but are returned in breadth-first order
+    Collections.sort(result);
+    return result;
+  }
+
+  /** Helper method to add the needed nodes of a subtree whose parent is searched. */
+  private static void collectMissing(Node node, int index, List<Integer> result) {
+    if (node.hashPresent) {
+      return;
+    } else if (node.left == null || !node.occupied) {
+      result.add(index);
+    } else {
+      collectMissing(node.left, 2 * index + 1, result);
+      collectMissing(node.right, 2 * index + 2, result);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every access follows the path from the root to the node.
+   */
+  @Override
+  IndexedNodes<V> nodes() {
+    return new IndexedNodes<V>() {
+
+      @Override
+      public int getHeight() {
+        return height;
+      }
+
+      @Override
+      public HashStrategy getHashStrategy() {
+        return hashStrategy;
+      }
+
+      @Override
+      public boolean hasHash(int index) {
+        return searchNode(index).hashPresent;
+      }
+
+      @Override
+      public long getHash(int index) {
+        return searchNode(index).hash;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V getValue(int position) {
+        return (V) searchNode((1 << height) - 1 + position).value;
+      }
+
+      @Override
+      public boolean isEmpty(int index) {
+        final int depth = 31 - Integer.numberOfLeadingZeros(index + 1);
+        return searchNode(index) == emptyNodes[height - depth];
+      }
+    };
+  }
+
+  /** Returns the node with the given breadth-first index. */
+  private Node searchNode(int index) {
+    final int path = index + 1;
+    Node current = root;
+    for (int bit = 30 - Integer.numberOfLeadingZeros(path); bit >= 0; bit--) {
+      current = ((path >>> bit) & 1) == 0 ? current.left : current.right;
+    }
+    return current;
+  }
+
+  /**
+   * Returns a textual representation of this tree. The levels of a subtree are indicated by
+   * surrounding parentheses, the format equals the one of {@link MutableMerkleTree#toString()}.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder res = new StringBuilder();
+    appendNode(res, root);
+    return res.toString();
+  }
+
+  /** Helper method for {@link #toString()}. */
+  private static void appendNode(StringBuilder res, Node node) {
+    if (node.left == null) {
+      if (node.value != null) {
+        res.append("(\"").append(node.value.toString()).append("\")");
+      } else if (node.hashPresent) {
+        res.append(node.hash);
+      } else {
+        res.append("(*)");
+      }
+      return;
+    }
+    res.append("(");
+    if (node.hashPresent) {
+      res.append(node.hash).append(" ");
+    } else {
+      res.append("* ");
+    }
+    appendNode(res, node.left);
+    res.append(" ");
+    appendNode(res, node.right);
+    res.append(")");
+  }
+
+  /**
+   * An immutable node of a persistent Merkle-Tree. Leaves have no children.
+   */
+  private static final class Node {
+
+    /**
+     * The hash of the node, only valid if {@link #hashPresent} is set.
+     */
+    final long hash;
+
+    /**
+     * Whether the node has a hash.
+     */
+    final boolean hashPresent;
+
+    /**
+     * Whether the subtree of the node (including the node itself) contains at least one hash.
+     */
+    final boolean occupied;
+
+    /**
+     * The children of an inner node, {@code null} for leaves.
+     */
+    final Node left;
+    final Node right;
+
+    /**
+     * The value of a leaf, {@code null} if there is none.
+     */
+    final Object value;
+
+    Node(long hash, boolean hashPresent, Node left, Node right, Object value) {
+      this.hash = hash;
+      this.hashPresent = hashPresent;
+      this.occupied = hashPresent || (left != null && (left.occupied || right.occupied));
+      this.left = left;
+      this.right = right;
+      this.value = value;
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+package hashtrees;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A hash strategy based on SHA-256. As {@link MessageDigest} is not thread-safe every thread uses
+ * its own instance together with reusable buffers.
+ *
+ * @see HashStrategies#sha256()
+ */
+final class Sha256HashStrategy implements HashStrategy {
+
+  static final Sha256HashStrategy INSTANCE = new Sha256HashStrategy();
+
+  // domain separation as in RFC 6962, so a leaf can never be mistaken for an inner node
+  private static final byte LEAF_PREFIX = 0;
+  private static final byte INNER_PREFIX = 1;
+
+  private static final ThreadLocal<Digester> DIGESTERS = new ThreadLocal<Digester>() {
+    @Override
+    protected Digester initialValue() {
+      return new Digester();
+    }
+  };
+
+  private Sha256HashStrategy() {
+    // singleton
+  }
+
+  @Override
+  public long hashLeaf(Object value) {
+    TreeMetrics.leafHashed();
+    final Digester digester = DIGESTERS.get();
+    // the text is built first, an exception of the value must not leave the prefix in the digest
+    final CharSequence text = LeafText.of(value);
+    digester.digest.update(LEAF_PREFIX);
+    if (text instanceof String) {
+      digester.digest.update(((String) text).getBytes(StandardCharsets.UTF_8));
+    } else {
+      // the buffer may be replaced while encoding
+      final int length = digester.encode(text);
+      digester.digest.update(digester.textInput, 0, length);
+    }
+    return digester.finish();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The bytes are digested with the same prefix as the text of a leaf.
+   */
+  @Override
+  public long hashBytes(ByteBuffer block) {
+    TreeMetrics.leafHashed();
+    final Digester digester = DIGESTERS.get();
+    digester.digest.update(LEAF_PREFIX);
+    // the digest moves the position of the buffer it reads
+    digester.digest.update(block.duplicate());
+    return digester.finish();
+  }
+
+  @Override
+  public long hashInner(long leftHash, long rightHash) {
+    TreeMetrics.innerHashed();
+    final Digester digester = DIGESTERS.get();
+    final byte[] input = digester.innerInput;
+    input[0] = INNER_PREFIX;
+    writeLong(input, 1, leftHash);
+    writeLong(input, 9, rightHash);
+    digester.digest.update(input, 0, 17);
+    return digester.finish();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>All children are digested at once, which costs less than combining them pairwise. For two
+   * children the result equals the one of {@link #hashInner(long, long)}.
+   */
+  @Override
+  public long hashInner(long[] childHashes, int from, int count) {
+    TreeMetrics.innerHashed();
+    final Digester digester = DIGESTERS.get();
+    final int length = 1 + 8 * count;
+    if (digester.innerInput.length < length) {
+      digester.innerInput = new byte[length];
+    }
+    final byte[] input = digester.innerInput;
+    input[0] = INNER_PREFIX;
+    for (int i = 0; i < count; i++) {
+      writeLong(input, 1 + 8 * i, childHashes[from + i]);
+    }
+    digester.digest.update(input, 0, length);
+    return digester.finish();
+  }
+
+  private static void writeLong(byte[] target, int offset, long value) {
+    for (int i = 7; i >= 0; i--) {
+      target[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  /** The digest and the buffers of one thread. */
+  private static final class Digester {
+
+    private final MessageDigest digest;
+
+    private byte[] innerInput = new byte[17];
+
+    private final byte[] output = new byte[32];
+
+    private byte[] textInput = new byte[64];
+
+    private Digester() {
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        // every Java platform is required to support SHA-256
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * Encodes text as UTF-8 into {@link #textInput} like {@code String#getBytes} does, i.e.
+     * unpaired surrogates are replaced by {@code '?'}.
+     *
+     * @return the number of bytes written
+     */
+    private int encode(CharSequence text) {
+      final int length = text.length();
+      if (textInput.length < 3 * length) {
+        textInput = new byte[3 * length];
+      }
+      final byte[] bytes = textInput;
+      int n = 0;
+      for (int i = 0; i < length; i++) {
+        final char c = text.charAt(i);
+        if (c < 0x80) {
+          bytes[n++] = (byte) c;
+        } else if (c < 0x800) {
+          bytes[n++] = (byte) (0xc0 | (c >> 6));
+          bytes[n++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          if (Character.isHighSurrogate(c) && i + 1 < length
+              && Character.isLowSurrogate(text.charAt(i + 1))) {
+            final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+            bytes[n++] = (byte) (0xf0 | (codePoint >> 18));
+            bytes[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            bytes[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            bytes[n++] = (byte) (0x80 | (codePoint & 0x3f));
+          } else {
+            bytes[n++] = (byte) '?';
+          }
+        } else {
+          bytes[n++] = (byte) (0xe0 | (c >> 12));
+          bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[n++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      return n;
+    }
+
+    /** Completes the digest and returns its first eight bytes. */
+    private long finish() {
+      try {
+        digest.digest(output, 0, output.length);
+      } catch (DigestException e) {
+        throw new IllegalStateException(e);
+      }
+      long result = 0;
+      for (int i = 0; i < 8; i++) {
+        result = (result << 8) | (output[i] & 0xff);
+      }
+      return result;
+    }
+
+  }
+
+}
@@ -0,0 +1,489 @@
+package hashtrees;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a mutable Merkle-Tree that only creates the nodes on the paths to nodes that were
+ * actually changed. A missing child stands for an empty subtree, i.e. a subtree without any hash,
+ * and subtrees that become empty again are removed. Thus the memory needed grows with the number
+ * of leaves and hashes set, {@code O(k log n)} nodes for {@code k} of them, instead of the
+ * capacity of the tree. Large capacities of up to {@code 2^30} leaves are possible.
+ *
+ * <p>Apart from the storage this tree behaves like a {@link MutableMerkleTree}. Note that
+ * {@link #getMissing()} of a tree without any hash below the root returns all leaves and
+ * {@link #toString()} describes every node, so both take time and memory proportional to the
+ * capacity.
+ *
+ * @param <V> the type of elements stored in this tree
+ */
+public class SparseMerkleTree<V> extends MeasuredHashTree<V> {
+
+  /**
+   * The maximum height, a higher tree has more nodes than an {@code int} can index.
+   */
+  private static final int MAX_HEIGHT = 30;
+
+  /**
+   * The height of the tree i.e. the number of edges between the root and a leaf.
+   */
+  private final int height;
+
+  /**
+   * The breadth-first index of the leftmost leaf.
+   */
+  private final int firstLeafIndex;
+
+  /**
+   * The root of the tree, the only node that always exists.
+   */
+  private Node root;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy hashStrategy;
+
+  /**
+   * The shape of the tree, which sweeps the levels above changed leaves.
+   */
+  private final NodeLayout layout;
+
+  /**
+   * Creates a new {@code SparseMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @throws IllegalArgumentException if the capacity exceeds {@code 2^30} leaves
+   */
+  public SparseMerkleTree(int leavesNeeded) {
+    this(leavesNeeded, HashStrategies.defaultStrategy());
+  }
+
+  /**
+   * Creates a new {@code SparseMerkleTree}.
+   *
+   * @param leavesNeeded the number of leaves needed in this tree
+   * @param hashStrategy the hash functions of the tree
+   * @throws IllegalArgumentException if the capacity exceeds {@code 2^30} leaves
+   */
+  public SparseMerkleTree(int leavesNeeded, HashStrategy hashStrategy) {
+    this.height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded));
+    if (height > MAX_HEIGHT) {
+      throw new IllegalArgumentException("Capacity too large: " + leavesNeeded);
+    }
+    this.firstLeafIndex = (1 << height) - 1;
+    this.layout = NodeLayout.binary(height);
+    this.root = new Node();
+    this.hashStrategy = hashStrategy;
+  }
+
+  @Override
+  public void setHash(int position, long hash) {
+    if (position < 0 || position > 2 * firstLeafIndex) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (position >= firstLeafIndex) {
+      final Node leaf = searchNode(position);
+      if (leaf != null && leaf.value != null) {
+        // the hash would manipulate the hash calculated from the value
+        throw new IllegalArgumentException();
+      }
+    }
+    final Node[] path = createPath(position);
+    final Node node = path[path.length - 1];
+    node.hash = hash;
+    node.hashPresent = true;
+    update(path);
+  }
+
+  @Override
+  public void setValue(int position, V value) {
+    if (position < 0 || position > firstLeafIndex) {
+      throw new IndexOutOfBoundsException();
+    }
+    final int index = firstLeafIndex + position;
+    final Node[] path = createPath(index);
+    assignValue(path[path.length - 1], value);
+    update(path);
+    if (value == null) {
+      removeEmptyNodes(index, path);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>All leaves are changed first, afterwards the inner nodes are recalculated level by level
+   * from the bottom up. Every inner node above a changed leaf is recalculated at most once. If an
+   * index is out of range the tree is left unchanged.
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    for (Integer position : values.keySet()) {
+      if (position < 0 || position > firstLeafIndex) {
+        throw new IndexOutOfBoundsException();
+      }
+    }
+    final int[] clearedLeaves = new int[values.size()];
+    int numberOfClearedLeaves = 0;
+    final int[] dirtyNodes = new int[values.size()];
+    int numberOfDirtyNodes = 0;
+    for (Map.Entry<Integer, ? extends V> entry : values.entrySet()) {
+      final int index = firstLeafIndex + entry.getKey();
+      final Node[] path = createPath(index);
+      assignValue(path[path.length - 1], entry.getValue());
+      if (entry.getValue() == null) {
+        clearedLeaves[numberOfClearedLeaves++] = index;
+      }
+      dirtyNodes[numberOfDirtyNodes++] = parentIndex(index);
+    }
+
+    layout.recalculateLevels(dirtyNodes, numberOfDirtyNodes, new NodeLayout.Recalculation() {
+
+      @Override
+      public boolean recalculate(int index) {
+        return SparseMerkleTree.this.recalculate(searchNode(index), index == 0);
+      }
+    });
+
+    for (int i = 0; i < numberOfClearedLeaves; i++) {
+      final Node[] path = searchPath(clearedLeaves[i]);
+      if (path != null) {
+        removeEmptyNodes(clearedLeaves[i], path);
+      }
+    }
+  }
+
+  /** Helper method to change the hash of a leaf without updating the nodes above. */
+  private void assignValue(Node leaf, V value) {
+    leaf.value = value;
+    if (value != null) {
+      leaf.hash = hashStrategy.hashLeaf(value);
+      leaf.hashPresent = true;
+    } else {
+      leaf.hashPresent = false;
+    }
+  }
+
+  /**
+   * Recalculates the nodes above the last node of a path from the bottom up. If one of the
+   * children of a node has no hash the node loses its hash and the update stops.
+   */
+  private void update(Node[] path) {
+    int recalculatedNodes = 0;
+    for (int depth = path.length - 2; depth >= 0 && recalculate(path[depth], depth == 0); depth--) {
+      recalculatedNodes++;
+    }
+    TreeMetrics.updatePropagated(recalculatedNodes);
+  }
+
+  /**
+   * Recalculates the hash of an inner node if possible without updating the next higher node.
+   *
+   * @return {@code true} if a new hash was calculated i.e. the parent node has to be updated
+   */
+  private boolean recalculate(Node node, boolean isRoot) {
+    if (isRoot && node.hashPresent) {
+      // once the root hash is set it cannot be altered
+      return false;
+    }
+    if (node.left != null && node.right != null && node.left.hashPresent
+        && node.right.hashPresent) {
+      node.hash = hashStrategy.hashInner(node.left.hash, node.right.hash);
+      node.hashPresent = true;
+      return true;
+    } else {
+      node.hashPresent = false;
+      return false;
+    }
+  }
+
+  /**
+   * Removes the nodes of a path from the bottom up as long as their subtrees contain no hash. Thus
+   * every node except the root has a hash or a child.
+   */
+  private void removeEmptyNodes(int index, Node[] path) {
+    final int pathBits = index + 1;
+    for (int depth = path.length - 1; depth > 0; depth--) {
+      final Node node = path[depth];
+      if (node.hashPresent || node.left != null || node.right != null) {
+        return;
+      }
+      final Node parent = path[depth - 1];
+      if (((pathBits >>> (path.length - 1 - depth)) & 1) == 1) {
+        parent.right = null;
+      } else {
+        parent.left = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the nodes on the path from the root to a node and creates the missing ones. The binary
+   * representation of {@code index + 1} without its leading one bit is the path to the node:
+   * starting at the root every 0 stands for the left child and every 1 for the right child.
+   */
+  private Node[] createPath(int index) {
+    final int pathBits = index + 1;
+    final int depth = 31 - Integer.numberOfLeadingZeros(pathBits);
+    final Node[] path = new Node[depth + 1];
+    path[0] = root;
+    for (int i = 1; i <= depth; i++) {
+      final Node parent = path[i - 1];
+      if (((pathBits >>> (depth - i)) & 1) == 0) {
+        if (parent.left == null) {
+          parent.left = new Node();
+        }
+        path[i] = parent.left;
+      } else {
+        if (parent.right == null) {
+          parent.right = new Node();
+        }
+        path[i] = parent.right;
+      }
+    }
+    return path;
+  }
+
+  /**
+   * Returns the nodes on the path from the root to a node.
+   *
+   * @return the path, {@code null} if the node does not exist
+   */
+  private Node[] searchPath(int index) {
+    final int pathBits = index + 1;
+    final int depth = 31 - Integer.numberOfLeadingZeros(pathBits);
+    final Node[] path = new Node[depth + 1];
+    path[0] = root;
+    for (int i = 1; i <= depth; i++) {
+      final Node parent = path[i - 1];
+      path[i] = ((pathBits >>> (depth - i)) & 1) == 0 ? parent.left : parent.right;
+      if (path[i] == null) {
+        return null;
+      }
+    }
+    return path;
+  }
+
+  /**
+   * Returns the node with the given breadth-first index, {@code null} if it does not exist.
+   */
+  private Node searchNode(int index) {
+    final int pathBits = index + 1;
+    Node current = root;
+    for (int bit = 30 - Integer.numberOfLeadingZeros(pathBits); bit >= 0 && current != null;
+        bit--) {
+      current = ((pathBits >>> bit) & 1) == 0 ? current.left : current.right;
+    }
+    return current;
+  }
+
+  @Override
+  public boolean isConsistent() {
+    if (!root.hashPresent || root.left == null || !root.left.hashPresent || root.right == null
+        || !root.right.hashPresent) {
+      return false;
+    }
+    return root.hash == hashStrategy.hashInner(root.left.hash, root.right.hash);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Only the existing nodes without a hash are visited, so unless the tree is empty the time
+   * needed grows with the number of nodes that exist. The indices are returned in ascending
+   * order.
+   */
+  @Override
+  List<Integer> searchMissing() {
+    final List<Integer> result = new ArrayList<Integer>();
+    if (root.left == null && root.right == null) {
+      // no node exists below the root, every leaf is needed
+      for (int i = firstLeafIndex; i <= 2 * firstLeafIndex; i++) {
+        result.add(i);
+      }
+      return result;
+    }
+    // the root is always searched as its own hash is the one to be checked
+    collectMissing(root.left, 1, result);
+    collectMissing(root.right, 2, result);
+    // the nodes are found depth-first but are returned in breadth-first order
+    Collections.sort(result);
+    return result;
+  }
+
+  /** Helper method to add the needed nodes of a subtree whose parent is searched. */
+  private void collectMissing(Node node, int index, List<Integer> result) {
+    if (node == null || (!node.hashPresent && index >= firstLeafIndex)) {
+      // an empty subtree is needed as a whole
+      result.add(index);
+    } else if (!node.hashPresent) {
+      collectMissing(node.left, 2 * index + 1, result);
+      collectMissing(node.right, 2 * index + 2, result);
+    }
+  }
+
+  @Override
+  public boolean isReady() {
+    if (root.left == null && root.right == null) {
+      return false;
+    }
+    return isComplete(root.left) && isComplete(root.right);
+  }
+
+  /** Returns {@code true} if no node of a subtree whose parent is searched is needed. */
+  private static boolean isComplete(Node node) {
+    if (node == null) {
+      return false;
+    }
+    return node.hashPresent || (isComplete(node.left) && isComplete(node.right));
+  }
+
+  @Override
+  public void clear() {
+    clearLeaves(root, 0);
+  }
+
+  /**
+   * Helper method for {@link #clear()}. Removes the leaves below a node and the hashes of their
+   * parents, like deleting the value of every leaf, as well as the nodes left without a hash or a
+   * child.
+   *
+   * @return {@code true} if the node still has a hash or a child
+   */
+  private boolean clearLeaves(Node node, int depth) {
+    if (depth == height - 1) {
+      node.left = null;
+      node.right = null;
+      if (depth > 0) {
+        // the root keeps its hash
+        node.hashPresent = false;
+      }
+    } else {
+      if (node.left != null && !clearLeaves(node.left, depth + 1)) {
+        node.left = null;
+      }
+      if (node.right != null && !clearLeaves(node.right, depth + 1)) {
+        node.right = null;
+      }
+    }
+    return node.hashPresent || node.left != null || node.right != null;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Every access follows the path from the root to the node, nodes that do not exist have no
+   * hash.
+   */
+  @Override
+  IndexedNodes<V> nodes() {
+    return new IndexedNodes<V>() {
+
+      @Override
+      public int getHeight() {
+        return height;
+      }
+
+      @Override
+      public HashStrategy getHashStrategy() {
+        return hashStrategy;
+      }
+
+      @Override
+      public boolean hasHash(int index) {
+        final Node node = searchNode(index);
+        return node != null && node.hashPresent;
+      }
+
+      @Override
+      public long getHash(int index) {
+        final Node node = searchNode(index);
+        return node != null ? node.hash : 0L;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V getValue(int position) {
+        final Node node = searchNode(firstLeafIndex + position);
+        return node != null ? (V) node.value : null;
+      }
+
+      @Override
+      public boolean isEmpty(int index) {
+        return searchNode(index) == null;
+      }
+    };
+  }
+
+  /**
+   * Returns a textual representation of this tree. The levels of a subtree are indicated by
+   * surrounding parentheses, the format equals the one of {@link MutableMerkleTree#toString()}.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder res = new StringBuilder();
+    appendNode(res, root, height);
+    return res.toString();
+  }
+
+  /** Helper method for {@link #toString()}. */
+  private static void appendNode(StringBuilder res, Node node, int level) {
+    if (level == 0) {
+      if (node != null && node.value != null) {
+        res.append("(\"").append(node.value.toString()).append("\")");
+      } else if (node != null && node.hashPresent) {
+        res.append(node.hash);
+      } else {
+        res.append("(*)");
+      }
+      return;
+    }
+    res.append("(");
+    if (node != null && node.hashPresent) {
+      res.append(node.hash).append(" ");
+    } else {
+      res.append("* ");
+    }
+    appendNode(res, node != null ? node.left : null, level - 1);
+    res.append(" ");
+    appendNode(res, node != null ? node.right : null, level - 1);
+    res.append(")");
+  }
+
+  private static int parentIndex(int index) {
+    return (index - 1) / 2;
+  }
+
+  /**
+   * A node that exists in a sparse Merkle-Tree. Leaves have no children, a missing child of an
+   * inner node stands for an empty subtree.
+   */
+  private static final class Node {
+
+    /**
+     * The hash of the node, only valid if {@link #hashPresent} is set.
+     */
+    long hash;
+
+    /**
+     * Whether the node has a hash.
+     */
+    boolean hashPresent;
+
+    /**
+     * The children of an inner node, {@code null} if the subtree is empty.
+     */
+    Node left;
+    Node right;
+
+    /**
+     * The value of a leaf, {@code null} if there is none.
+     */
+    Object value;
+  }
+
+}
@@ -0,0 +1,132 @@
+package hashtrees;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Creates the subtree below an inner node of a Merkle-Tree. Subtrees above a threshold height are
+ * split into their left and right subtree which are created in parallel by a
+ * {@link ForkJoinPool}, smaller subtrees are created recursively on the current thread.
+ *
+ * <p>If values are given the leaves are filled from left to right while they are created. The hash
+ * of every inner node is calculated exactly once after both of its subtrees are finished, instead
+ * of updating all ancestors for every single leaf.
+ *
+ * @param <V> the type of elements stored in the tree
+ */
+final class SubtreeCreationTask<V> extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Subtrees up to this height are created sequentially, as splitting them would cost more than
+   * it gains.
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 12;
+
+  /**
+   * The node whose subtree is created.
+   */
+  private final MerkleInnerNode<V> parent;
+
+  /**
+   * The height of the parent node i.e. the number of edges between it and a leaf.
+   */
+  private final int height;
+
+  /**
+   * The values for all leaves of the tree, {@code null} if the leaves stay empty.
+   */
+  private final Object[] data;
+
+  /**
+   * The position of the leftmost leaf of this subtree counted from left to right.
+   */
+  private final int firstLeaf;
+
+  /**
+   * The hash functions of the tree.
+   */
+  private final HashStrategy strategy;
+
+  private SubtreeCreationTask(MerkleInnerNode<V> parent, int height, Object[] data, int firstLeaf,
+      HashStrategy strategy) {
+    this.parent = parent;
+    this.height = height;
+    this.data = data;
+    this.firstLeaf = firstLeaf;
+    this.strategy = strategy;
+  }
+
+  /**
+   * Creates all nodes below the given root.
+   *
+   * @param root the root of the new tree
+   * @param height the height of the tree, a height below 1 is treated as 1
+   * @param data the values for the leaves from left to right, or {@code null} for empty leaves;
+   *        leaves without a corresponding element stay empty
+   * @param strategy the hash functions of the tree
+   */
+  static <V> void create(MerkleInnerNode<V> root, int height, Object[] data,
+      HashStrategy strategy) {
+    final SubtreeCreationTask<V> task =
+        new SubtreeCreationTask<V>(root, Math.max(1, height), data, 0, strategy);
+    if (height > SEQUENTIAL_THRESHOLD) {
+      ForkJoinPool.commonPool().invoke(task);
+    } else {
+      task.compute();
+    }
+  }
+
+  @Override
+  protected void compute() {
+    if (height <= SEQUENTIAL_THRESHOLD) {
+      createSequentially(parent, height, firstLeaf);
+      return;
+    }
+    final MerkleInnerNode<V> left = new MerkleInnerNode<V>(parent);
+    final MerkleInnerNode<V> right = new MerkleInnerNode<V>(parent);
+    parent.setLeft(left);
+    parent.setRight(right);
+    final int leavesPerSubtree = 1 << (height - 1);
+    invokeAll(new SubtreeCreationTask<V>(left, height - 1, data, firstLeaf, strategy),
+        new SubtreeCreationTask<V>(right, height - 1, data, firstLeaf + leavesPerSubtree,
+            strategy));
+    if (data != null) {
+      parent.recalculate(strategy);
+    }
+  }
+
+  /** Helper method to create a subtree on the current thread. */
+  private void createSequentially(MerkleInnerNode<V> node, int nodeHeight, int leftmostLeaf) {
+    if (nodeHeight > 1) {
+      final MerkleInnerNode<V> left = new MerkleInnerNode<V>(node);
+      final MerkleInnerNode<V> right = new MerkleInnerNode<V>(node);
+      node.setLeft(left);
+      node.setRight(right);
+      final int leavesPerSubtree = 1 << (nodeHeight - 1);
+      createSequentially(left, nodeHeight - 1, leftmostLeaf);
+      createSequentially(right, nodeHeight - 1, leftmostLeaf + leavesPerSubtree);
+    } else {
+      // last level
+      final MerkleLeaf<V> left = new MerkleLeaf<V>(node);
+      final MerkleLeaf<V> right = new MerkleLeaf<V>(node);
+      node.setLeft(left);
+      node.setRight(right);
+      if (data != null) {
+        left.assignValue(valueAt(leftmostLeaf), strategy);
+        right.assignValue(valueAt(leftmostLeaf + 1), strategy);
+      }
+    }
+    if (data != null) {
+      node.recalculate(strategy);
+    }
+  }
+
+  /** Returns the value for a leaf, {@code null} if there is none. */
+  @SuppressWarnings("unchecked")
+  private V valueAt(int position) {
+    return position < data.length ? (V) data[position] : null;
+  }
+
+}
@@ -0,0 +1,137 @@
+package hashtrees;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits the measurements of all trees as events of the JDK Flight Recorder, in addition to the
+ * statistics it accumulates. Every search for missing nodes and every tree built results in an
+ * event that carries the thread, so the trees and sessions driving the load can be told apart.
+ * The counters of hashes and searches are emitted periodically, once per second by default, as
+ * single hashes are too frequent to be recorded one by one.
+ *
+ * <p>Events are only emitted while a recording is running that enables them, e.g. one started by
+ * {@code -XX:StartFlightRecording}. Use it like this:
+ *
+ * <pre>
+ * TreeFlightRecorder recorder = new TreeFlightRecorder();
+ * TreeMetrics.setListener(recorder);
+ * ...
+ * TreeMetrics.setListener(null);
+ * recorder.close();
+ * </pre>
+ */
+public class TreeFlightRecorder extends TreeStatistics implements AutoCloseable {
+
+  /**
+   * Emits the periodic event of this recorder.
+   */
+  private final Runnable periodicHook = new Runnable() {
+    @Override
+    public void run() {
+      final HashStatisticsEvent event = new HashStatisticsEvent();
+      event.leafHashes = getLeafHashes();
+      event.innerHashes = getInnerHashes();
+      event.nodeSearches = getNodeSearches();
+      event.commit();
+    }
+  };
+
+  /**
+   * Creates a new {@code TreeFlightRecorder} and registers its periodic event.
+   */
+  public TreeFlightRecorder() {
+    FlightRecorder.addPeriodicEvent(HashStatisticsEvent.class, periodicHook);
+  }
+
+  @Override
+  public void missingSearched(HashTree<?> tree, long nanos, int missingNodes) {
+    super.missingSearched(tree, nanos, missingNodes);
+    final MissingSearchEvent event = new MissingSearchEvent();
+    if (event.isEnabled()) {
+      event.treeType = tree.getClass().getName();
+      event.searchDuration = nanos;
+      event.missingNodes = missingNodes;
+      event.commit();
+    }
+  }
+
+  @Override
+  public void treeBuilt(HashTree<?> tree, long nanos, int leaves) {
+    super.treeBuilt(tree, nanos, leaves);
+    final TreeBuildEvent event = new TreeBuildEvent();
+    if (event.isEnabled()) {
+      event.treeType = tree.getClass().getName();
+      event.buildDuration = nanos;
+      event.leaves = leaves;
+      event.commit();
+    }
+  }
+
+  /**
+   * Unregisters the periodic event, other events are emitted as long as this recorder is the
+   * listener of {@link TreeMetrics}.
+   */
+  @Override
+  public void close() {
+    FlightRecorder.removePeriodicEvent(periodicHook);
+  }
+
+  @Name("hashtrees.MissingSearch")
+  @Label("Missing Node Search")
+  @Category("Hash Trees")
+  @Description("Determination of the nodes needed to calculate the root hash")
+  static final class MissingSearchEvent extends Event {
+
+    @Label("Tree Type")
+    String treeType;
+
+    @Label("Search Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long searchDuration;
+
+    @Label("Missing Nodes")
+    int missingNodes;
+  }
+
+  @Name("hashtrees.TreeBuild")
+  @Label("Tree Build")
+  @Category("Hash Trees")
+  @Description("A tree built from a sequence of values")
+  static final class TreeBuildEvent extends Event {
+
+    @Label("Tree Type")
+    String treeType;
+
+    @Label("Build Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long buildDuration;
+
+    @Label("Leaves")
+    int leaves;
+  }
+
+  @Name("hashtrees.HashStatistics")
+  @Label("Hash Statistics")
+  @Category("Hash Trees")
+  @Description("The number of hashes calculated and nodes searched since the recorder was created")
+  @Period("1 s")
+  static final class HashStatisticsEvent extends Event {
+
+    @Label("Leaf Hashes")
+    long leafHashes;
+
+    @Label("Inner Hashes")
+    long innerHashes;
+
+    @Label("Node Searches")
+    long nodeSearches;
+  }
+
+}
@@ -0,0 +1,102 @@
+package hashtrees;
+
+/**
+ * Reports the operations of all trees of this package to a {@link TreeMetricsListener}. There is
+ * at most one listener per process, no listener is registered by default. Without a listener the
+ * trees only check for one before each report and skip measuring time altogether.
+ *
+ * <p>Hashes are counted by the strategies of {@link HashStrategies}, custom strategies are not
+ * counted. Updates are reported by all mutable trees, searches by the linked trees, the search for
+ * missing nodes by all trees and building by {@link MerkleTreeBuilder#build()} and
+ * {@link UnmodifiableMerkleTree}.
+ */
+public final class TreeMetrics {
+
+  /**
+   * Returned by {@link #startTime()} if no time is measured.
+   */
+  private static final long NOT_MEASURED = Long.MIN_VALUE;
+
+  /**
+   * The registered listener, {@code null} if there is none.
+   */
+  private static volatile TreeMetricsListener listener;
+
+  private TreeMetrics() {
+    // Generating objects of this class is not intended.
+  }
+
+  /**
+   * Registers the listener receiving the measurements of all trees, replacing the previous one.
+   *
+   * @param newListener the listener, {@code null} to disable all measurements
+   */
+  public static void setListener(TreeMetricsListener newListener) {
+    listener = newListener;
+  }
+
+  /**
+   * Returns the registered listener.
+   *
+   * @return the listener, {@code null} if there is none
+   */
+  public static TreeMetricsListener getListener() {
+    return listener;
+  }
+
+  /** Reports the hash of a leaf. */
+  static void leafHashed() {
+    final TreeMetricsListener current = listener;
+    if (current != null) {
+      current.leafHashed();
+    }
+  }
+
+  /** Reports the hash of an inner node. */
+  static void innerHashed() {
+    final TreeMetricsListener current = listener;
+    if (current != null) {
+      current.innerHashed();
+    }
+  }
+
+  /** Reports an update that recalculated the given number of nodes. */
+  static void updatePropagated(int recalculatedNodes) {
+    final TreeMetricsListener current = listener;
+    if (current != null) {
+      current.updatePropagated(recalculatedNodes);
+    }
+  }
+
+  /** Reports the search of a node. */
+  static void nodeSearched() {
+    final TreeMetricsListener current = listener;
+    if (current != null) {
+      current.nodeSearched();
+    }
+  }
+
+  /**
+   * Returns the start time of an operation to be reported, only measured if there is a listener.
+   */
+  static long startTime() {
+    return listener != null ? System.nanoTime() : NOT_MEASURED;
+  }
+
+  /** Reports a search for missing nodes that started at the given time. */
+  static void missingSearched(HashTree<?> tree, long startTime, int missingNodes) {
+    final TreeMetricsListener current = listener;
+    if (current != null && startTime != NOT_MEASURED) {
+      current.missingSearched(tree, System.nanoTime() - startTime, missingNodes);
+    }
+  }
+
+  /** Reports a tree built that started at the given time. */
+  static void treeBuilt(HashTree<?> tree, long startTime, int leaves) {
+    final TreeMetricsListener current = listener;
+    if (current != null && startTime != NOT_MEASURED) {
+      current.treeBuilt(tree, System.nanoTime() - startTime, leaves);
+    }
+  }
+
+}
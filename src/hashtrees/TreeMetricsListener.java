@@ -0,0 +1,55 @@
+package hashtrees;
+
+/**
+ * Receives measurements of the operations of all trees of this package once it is registered by
+ * {@link TreeMetrics#setListener(TreeMetricsListener)}. Methods are called by the thread executing
+ * the operation, so implementations must be thread-safe and fast, as some of them are called for
+ * every single hash. All methods do nothing by default.
+ *
+ * @see TreeStatistics
+ * @see TreeFlightRecorder
+ */
+public interface TreeMetricsListener {
+
+  /**
+   * Called after the hash of a leaf was calculated by one of the predefined strategies.
+   */
+  public default void leafHashed() {}
+
+  /**
+   * Called after the hash of an inner node was calculated by one of the predefined strategies.
+   */
+  public default void innerHashed() {}
+
+  /**
+   * Called after the nodes above a changed node were updated.
+   *
+   * @param recalculatedNodes the number of nodes that got a new hash before the update stopped
+   */
+  public default void updatePropagated(int recalculatedNodes) {}
+
+  /**
+   * Called after a node of a linked tree was searched by its breadth-first index.
+   */
+  public default void nodeSearched() {}
+
+  /**
+   * Called after the nodes needed to calculate the root hash were determined.
+   *
+   * @param tree the tree that was asked
+   * @param nanos the time needed in nanoseconds
+   * @param missingNodes the number of nodes needed
+   * @see HashTree#getMissing()
+   */
+  public default void missingSearched(HashTree<?> tree, long nanos, int missingNodes) {}
+
+  /**
+   * Called after a tree was built from a sequence of values.
+   *
+   * @param tree the tree built
+   * @param nanos the time needed in nanoseconds
+   * @param leaves the number of values the tree was built from
+   */
+  public default void treeBuilt(HashTree<?> tree, long nanos, int leaves) {}
+
+}
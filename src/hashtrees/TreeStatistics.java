@@ -0,0 +1,118 @@
+package hashtrees;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the measurements of all trees into counters and histograms. The counters can be
+ * read at any time, also while trees are changed by other threads.
+ *
+ * <p>Histograms are arrays of counts. The histogram of update depths is indexed by the number of
+ * nodes recalculated. All other histograms use buckets of powers of two: bucket {@code 0} counts
+ * the value {@code 0}, bucket {@code i > 0} the values from {@code 2^(i - 1)} to
+ * {@code 2^i - 1}.
+ */
+public class TreeStatistics implements TreeMetricsListener {
+
+  /**
+   * The number of buckets of all histograms, enough for any {@code long} value and any height.
+   */
+  private static final int BUCKETS = Long.SIZE + 1;
+
+  private final LongAdder leafHashes = new LongAdder();
+  private final LongAdder innerHashes = new LongAdder();
+  private final LongAdder nodeSearches = new LongAdder();
+  private final AtomicLongArray updateDepths = new AtomicLongArray(BUCKETS);
+  private final AtomicLongArray missingNanos = new AtomicLongArray(BUCKETS);
+  private final AtomicLongArray missingNodes = new AtomicLongArray(BUCKETS);
+  private final AtomicLongArray buildNanos = new AtomicLongArray(BUCKETS);
+
+  @Override
+  public void leafHashed() {
+    leafHashes.increment();
+  }
+
+  @Override
+  public void innerHashed() {
+    innerHashes.increment();
+  }
+
+  @Override
+  public void updatePropagated(int recalculatedNodes) {
+    updateDepths.incrementAndGet(Math.min(recalculatedNodes, BUCKETS - 1));
+  }
+
+  @Override
+  public void nodeSearched() {
+    nodeSearches.increment();
+  }
+
+  @Override
+  public void missingSearched(HashTree<?> tree, long nanos, int missingNodes) {
+    this.missingNanos.incrementAndGet(bucket(nanos));
+    this.missingNodes.incrementAndGet(bucket(missingNodes));
+  }
+
+  @Override
+  public void treeBuilt(HashTree<?> tree, long nanos, int leaves) {
+    buildNanos.incrementAndGet(bucket(nanos));
+  }
+
+  /** Returns the bucket of a value in the histograms of powers of two. */
+  private static int bucket(long value) {
+    return Long.SIZE - Long.numberOfLeadingZeros(Math.max(0L, value));
+  }
+
+  /** Returns the number of leaf hashes calculated. */
+  public long getLeafHashes() {
+    return leafHashes.sum();
+  }
+
+  /** Returns the number of inner hashes calculated. */
+  public long getInnerHashes() {
+    return innerHashes.sum();
+  }
+
+  /** Returns the number of nodes searched by their breadth-first index. */
+  public long getNodeSearches() {
+    return nodeSearches.sum();
+  }
+
+  /** Returns the histogram of the number of nodes recalculated per update. */
+  public long[] getUpdateDepths() {
+    return toArray(updateDepths);
+  }
+
+  /** Returns the histogram of the nanoseconds needed to determine the missing nodes. */
+  public long[] getMissingNanos() {
+    return toArray(missingNanos);
+  }
+
+  /** Returns the histogram of the number of missing nodes determined. */
+  public long[] getMissingNodes() {
+    return toArray(missingNodes);
+  }
+
+  /** Returns the histogram of the nanoseconds needed to build a tree. */
+  public long[] getBuildNanos() {
+    return toArray(buildNanos);
+  }
+
+  private static long[] toArray(AtomicLongArray histogram) {
+    final long[] result = new long[histogram.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = histogram.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the counters of these statistics.
+   */
+  @Override
+  public String toString() {
+    return "TreeStatistics(leafHashes=" + getLeafHashes() + ",innerHashes=" + getInnerHashes()
+        + ",nodeSearches=" + getNodeSearches() + ")";
+  }
+
+}
@@ -1,6 +1,6 @@
 package hashtrees;
 
-import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
 
 /**
@@ -14,43 +14,43 @@ import java.util.Queue;
 public class UnmodifiableMerkleTree<V> extends AbstractHashTree<V> implements HashTree<V> {
 
   /**
-   * Creates a new {@code UnmodifiableMerkleTree}.
+   * Creates a new {@code UnmodifiableMerkleTree} that uses the
+   * {@linkplain HashStrategies#defaultStrategy() default} hash functions.
    * 
    * @param height the height of the tree
    * @param rootHash the root hash of the tree ({@code null} if not existing)
    * @param data the elements to be inserted
    */
   public UnmodifiableMerkleTree(int height, Long rootHash, Queue<V> data) {
-    super(rootHash);
-    Queue<V> dataCopy = new LinkedList<V>(data);
-    create(getRoot(), height, dataCopy);
+    this(height, rootHash, data, HashStrategies.defaultStrategy());
   }
 
-  /** Helper method to create an UnmodifiableMerkleTree from an already existing tree. */
-  private void create(MerkleInnerNode<V> parent, int height, Queue<V> data) {
-    height--;
-    if (height > 0) {
-      MerkleInnerNode<V> temp = parent;
-
-      // create left subtree
-      parent.setLeft(new MerkleInnerNode<V>(parent));
-      temp = (MerkleInnerNode<V>) parent.getLeft();
-      create(temp, height, data);
+  /**
+   * Creates a new {@code UnmodifiableMerkleTree}.
+   *
+   * @param height the height of the tree
+   * @param rootHash the root hash of the tree ({@code null} if not existing)
+   * @param data the elements to be inserted
+   * @param hashStrategy the hash functions of the tree
+   */
+  public UnmodifiableMerkleTree(int height, Long rootHash, Queue<V> data,
+      HashStrategy hashStrategy) {
+    super(rootHash, hashStrategy);
+    final long startTime = TreeMetrics.startTime();
+    SubtreeCreationTask.create(getRoot(), height, data.toArray(), hashStrategy);
+    TreeMetrics.treeBuilt(this, startTime, data.size());
+  }
 
-      // create right subtree
-      parent.setRight(new MerkleInnerNode<V>(parent));
-      temp = (MerkleInnerNode<V>) parent.getRight();
-      create(temp, height, data);
-    } else {
-      // height == 0, that means last level
-      MerkleLeaf<V> leftChild = new MerkleLeaf<V>(parent);
-      parent.setLeft(leftChild);
-      MerkleLeaf<V> rightChild = new MerkleLeaf<V>(parent);
-      parent.setRight(rightChild);
-      // insert data
-      leftChild.setValue(data.poll());
-      rightChild.setValue(data.poll());
-    }
+  /**
+   * Creates a new {@code UnmodifiableMerkleTree} without any hashes and values, which are restored
+   * afterwards.
+   *
+   * @param height the height of the tree
+   * @param hashStrategy the hash functions of the tree
+   */
+  UnmodifiableMerkleTree(int height, HashStrategy hashStrategy) {
+    super(hashStrategy);
+    SubtreeCreationTask.create(getRoot(), height, null, hashStrategy);
   }
 
   /**
@@ -73,6 +73,16 @@ public class UnmodifiableMerkleTree<V> extends AbstractHashTree<V> implements Ha
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Guaranteed to throw an exception and leave the tree unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void setValues(Map<Integer, ? extends V> values) {
+    throw new UnsupportedOperationException();
+  }
+
   /**
    * Guaranteed to throw an exception and leave the tree unmodified.
    *
@@ -0,0 +1,27 @@
+package hashtrees;
+
+/**
+ * Converts the values of a tree to bytes and back, so that they can be written together with the
+ * tree by {@link MerkleTreeIO}.
+ *
+ * @param <V> the type of elements stored in the tree
+ */
+public interface ValueCodec<V> {
+
+  /**
+   * Converts a value to bytes.
+   *
+   * @param value the value, never {@code null}
+   * @return the bytes representing the value
+   */
+  public byte[] encode(V value);
+
+  /**
+   * Converts bytes created by {@link #encode(Object)} back to a value.
+   *
+   * @param bytes the bytes representing the value
+   * @return the value
+   */
+  public V decode(byte[] bytes);
+
+}
@@ -3,15 +3,33 @@ package userinterface;
 import bodies.Body;
 import bodies.Cuboid;
 import bodies.Cylinder;
+import hashtrees.HashStrategies;
+import hashtrees.HashStrategy;
 import hashtrees.HashTree;
 import hashtrees.MerkleTreeBuilder;
 import hashtrees.MutableMerkleTree;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Shell to interact with Hash-Trees.
+ *
+ * <p>Started without arguments the shell reads commands typed by the user and prints a prompt for
+ * every command. Started with {@code --batch} and optionally a file, it replays the commands of the
+ * file or of the standard input without prompts. In both modes the output is buffered, an
+ * interactive shell flushes it before waiting for the next command, a batch run only when the
+ * buffer is full or all commands are executed. Started with {@code --server} and a port, sessions
+ * are served to clients connecting by TCP, see {@link ShellServer}.
  */
 public class Shell {
 
@@ -20,6 +38,11 @@ public class Shell {
   private static final String NO_VALID_INDEX_MESSAGE = "Error! No valid index: ";
   private static final String COMMAND_DOESNT_EXIST_MESSAGE =
       "Error! This command does not exist in this mode.";
+  private static final String USAGE_MESSAGE =
+      "Error! Usage: Shell [--batch [<command file>] | --server <port>]";
+
+  // root hashes given to new_check are calculated by the original hash functions
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.legacy();
 
   // all currently possible modes for this shell
   private static final int DEFAULT_MODE = 0;
@@ -27,266 +50,404 @@ public class Shell {
   private static final int CHECK_MODE = 2;
   private static final int BUILD_AND_CHECK_MODE = 3;
 
-  private Shell() {
-    // Generating objects of this class is not intended.
+  // the prompts of the modes, indexed by mode
+  private static final String[] PROMPTS = {"merkle> ", "build> ", "check> "};
+
+  // separates the tokens of a command and the parameters of an element
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+  private static final Pattern DATA_SEPARATORS = Pattern.compile("[\\( \\) ,]");
+
+  // the commands by their name
+  private static final Map<String, ShellCommand> COMMANDS = new HashMap<String, ShellCommand>();
+
+  static {
+    for (ShellCommand cmd : ShellCommand.values()) {
+      COMMANDS.put(cmd.getCommandAsString(), cmd);
+    }
+  }
+
+  private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The commands to be executed.
+   */
+  private final BufferedReader in;
+
+  /**
+   * The output of all commands.
+   */
+  private final PrintWriter out;
+
+  /**
+   * Whether a prompt is printed before each command, and the output flushed.
+   */
+  private final boolean interactive;
+
+  /**
+   * The maximum number of leaves of a tree created by {@code new} or {@code new_check}.
+   */
+  private final int maxCapacity;
+
+  /**
+   * The current mode.
+   */
+  private int mode = DEFAULT_MODE;
+
+  /**
+   * The tree of the build mode.
+   */
+  private MerkleTreeBuilder<Body> builder;
+
+  /**
+   * The tree of the check mode.
+   */
+  private MutableMerkleTree<Body> tree;
+
+  /**
+   * Creates a new {@code Shell} in the default mode.
+   *
+   * @param in the commands to be executed
+   * @param out the output of all commands, it is flushed but not closed
+   * @param interactive {@code true} to print a prompt before every command
+   */
+  public Shell(BufferedReader in, PrintWriter out, boolean interactive) {
+    this(in, out, interactive, Integer.MAX_VALUE);
   }
 
   /**
-   * Starts a new shell that waits for user input.
-   * 
-   * @param args command line arguments
+   * Creates a new {@code Shell} in the default mode whose trees have a limited size.
+   *
+   * @param in the commands to be executed
+   * @param out the output of all commands, it is flushed but not closed
+   * @param interactive {@code true} to print a prompt before every command
+   * @param maxCapacity the maximum number of leaves of a tree, larger sizes are rejected
+   */
+  public Shell(BufferedReader in, PrintWriter out, boolean interactive, int maxCapacity) {
+    this.in = in;
+    this.out = out;
+    this.interactive = interactive;
+    this.maxCapacity = maxCapacity;
+  }
+
+  /**
+   * Starts a new shell that waits for user input, or executes the commands of a file.
+   *
+   * @param args no arguments for an interactive shell, {@code --batch} to read commands from the
+   *        standard input without prompts, {@code --batch <file>} to read them from a file, or
+   *        {@code --server <port>} to serve sessions to clients connecting by TCP
    * @throws IOException if a problem with the InputStream occurs
    */
   public static void main(String[] args) throws IOException {
-    final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
-    runDefaultMode(stdin);
+    if (args.length == 2 && args[0].equals("--server")) {
+      runServer(args[1]);
+      return;
+    }
+    final boolean batch = args.length >= 1 && args[0].equals("--batch");
+    if (args.length > 2 || (args.length >= 1 && !batch)) {
+      System.out.println(USAGE_MESSAGE);
+      return;
+    }
+    final InputStream input = args.length == 2 ? new FileInputStream(args[1]) : System.in;
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+      final PrintWriter writer = new PrintWriter(new BufferedWriter(
+          new OutputStreamWriter(System.out, "UTF-8"), OUTPUT_BUFFER_SIZE));
+      new Shell(reader, writer, !batch).run();
+    } finally {
+      if (input != System.in) {
+        input.close();
+      }
+    }
   }
 
   /**
-   * Helper method to run the default (merkle) mode.
-   * 
+   * Helper method to serve sessions on the given port until the process is terminated.
+   *
+   * @throws IOException if the port cannot be bound
+   */
+  private static void runServer(String port) throws IOException {
+    final int portNumber;
+    try {
+      portNumber = Integer.parseInt(port);
+    } catch (NumberFormatException e) {
+      System.out.println(USAGE_MESSAGE);
+      return;
+    }
+    final ShellServer server = new ShellServer(portNumber);
+    System.out.println("Listening on port " + server.getPort() + ".");
+    server.serve();
+  }
+
+  /**
+   * Executes commands until the input ends or a command quits the shell.
+   *
    * @throws IOException if a problem with the InputStream occurs
    */
-  private static void runDefaultMode(final BufferedReader stdin) throws IOException {
-    boolean run = true;
-    while (run) {
-      System.out.print("merkle> ");
-      final String input = stdin.readLine();
-      if (input == null) {
-        break;
-      }
-      final String[] tokens = input.trim().split("\\s+");
-      final String firstInput = tokens[0];
-      final ShellCommand command = identifyCommand(firstInput, tokens);
-
-      switch (command) {
-        case NEW:
-          if (checkInput(tokens)) {
-            runBuildMode(tokens, stdin);
-            run = false;
-          }
-          break;
-        case NEW_CHECK:
-          if (checkInput(tokens)) {
-            runCheckMode(tokens, stdin);
-            run = false;
-          }
-          break;
-        case HELP:
-          helpPrinter(DEFAULT_MODE);
-          break;
-        case QUIT:
-          run = false;
-          break;
-        default:
-          System.out.println(COMMAND_DOESNT_EXIST_MESSAGE);
+  public void run() throws IOException {
+    try {
+      boolean run = true;
+      while (run) {
+        if (interactive) {
+          out.print(PROMPTS[mode]);
+          out.flush();
+        }
+        final String input = in.readLine();
+        if (input == null) {
           break;
+        }
+        final String[] tokens = WHITESPACE.split(input.trim());
+        final ShellCommand command = identifyCommand(tokens[0], tokens);
+        if (mode == BUILD_MODE) {
+          run = executeBuildCommand(command, tokens);
+        } else if (mode == CHECK_MODE) {
+          run = executeCheckCommand(command, tokens);
+        } else {
+          run = executeDefaultCommand(command, tokens);
+        }
       }
+    } finally {
+      // the output of all commands executed is written, even if one of them failed
+      out.flush();
     }
   }
 
   /**
-   * Helper method to run the build mode.
-   * 
-   * @throws IOException if a problem with the InputStream occurs
+   * Helper method to execute a command in the default (merkle) mode.
+   *
+   * @return {@code false} if the shell quits
    */
-  private static void runBuildMode(final String[] parameters, final BufferedReader stdin)
-      throws IOException {
-    if (Integer.parseInt(parameters[1]) < 2) {
-      System.out.println("Error! Minimum size is 2.");
-      runDefaultMode(stdin);
-      return;
+  private boolean executeDefaultCommand(final ShellCommand command, final String[] tokens) {
+    switch (command) {
+      case NEW:
+        if (checkInput(tokens)) {
+          startBuildMode(tokens);
+        }
+        break;
+      case NEW_CHECK:
+        if (checkInput(tokens)) {
+          startCheckMode(tokens);
+        }
+        break;
+      case HELP:
+        helpPrinter(DEFAULT_MODE);
+        break;
+      case QUIT:
+        return false;
+      default:
+        out.println(COMMAND_DOESNT_EXIST_MESSAGE);
+        break;
     }
-    boolean run = true;
-    final MerkleTreeBuilder<Body> passedData =
-        new MerkleTreeBuilder<Body>(Integer.parseInt(parameters[1]));
-
-    while (run) {
-      System.out.print("build> ");
-      final String input = stdin.readLine();
-      if (input == null) {
+    return true;
+  }
+
+  /**
+   * Helper method to execute a command in the build mode.
+   *
+   * @return {@code false} if the shell quits
+   */
+  private boolean executeBuildCommand(final ShellCommand command, final String[] tokens) {
+    switch (command) {
+      case NEW:
+        if (checkInput(tokens)) {
+          startBuildMode(tokens);
+        }
+        break;
+      case PUSH:
+        pushHelper(builder, tokens);
+        break;
+      case CLEAR:
+        builder.clear();
+        break;
+      case DEBUG:
+        out.println(builder.build().toString());
+        break;
+      case NEW_CHECK:
+        if (checkInput(tokens)) {
+          startCheckMode(tokens);
+        }
+        break;
+      case HELP:
+        helpPrinter(BUILD_MODE);
+        break;
+      case QUIT:
+        return false;
+      default:
+        out.println(COMMAND_DOESNT_EXIST_MESSAGE);
         break;
-      }
-      final String[] tokens = input.trim().split("\\s+");
-      final String firstInput = tokens[0];
-      final ShellCommand command = identifyCommand(firstInput, tokens);
-
-      switch (command) {
-        case NEW:
-          if (checkInput(tokens)) {
-            runBuildMode(tokens, stdin);
-            run = false;
-          }
-          break;
-        case PUSH:
-          pushHelper(passedData, tokens);
-          break;
-        case CLEAR:
-          passedData.clear();
-          break;
-        case DEBUG:
-          System.out.println(passedData.build().toString());
-          break;
-        case NEW_CHECK:
-          if (checkInput(tokens)) {
-            runCheckMode(tokens, stdin);
-            run = false;
-          }
-          break;
-        case HELP:
-          helpPrinter(BUILD_MODE);
-          break;
-        case QUIT:
-          run = false;
-          break;
-        default:
-          System.out.println(COMMAND_DOESNT_EXIST_MESSAGE);
-          break;
-      }
     }
+    return true;
   }
 
-  /** Helper method to run the check mode. */
-  private static void runCheckMode(final String[] parameters, final BufferedReader stdin)
-      throws IOException {
-    if (Integer.parseInt(parameters[1]) < 2) {
-      System.out.println("Error! Minimum size is 2.");
-      runDefaultMode(stdin);
+  /**
+   * Helper method to execute a command in the check mode.
+   *
+   * @return {@code false} if the shell quits
+   */
+  private boolean executeCheckCommand(final ShellCommand command, final String[] tokens) {
+    switch (command) {
+      case NEW_CHECK:
+        if (checkInput(tokens)) {
+          startCheckMode(tokens);
+        }
+        break;
+      case SET_VAL:
+        setValHelper(tree, tokens);
+        break;
+      case SET_HASH:
+        setHashHelper(tree, tokens);
+        break;
+      case READY:
+        readyHelper(tree);
+        break;
+      case CHECK:
+        checkHelper(tree);
+        break;
+      case NEW:
+        startBuildMode(tokens);
+        break;
+      case CLEAR:
+        tree.clear();
+        break;
+      case DEBUG:
+        out.println(tree.toString());
+        break;
+      case HELP:
+        helpPrinter(CHECK_MODE);
+        break;
+      case QUIT:
+        return false;
+      default:
+        out.println(COMMAND_DOESNT_EXIST_MESSAGE);
+        break;
+    }
+    return true;
+  }
+
+  /** Helper method to switch to the build mode, or to the default mode if the size is invalid. */
+  private void startBuildMode(final String[] parameters) {
+    final Integer capacity = parseIntParameter(parameters[1]);
+    tree = null;
+    if (!isValidCapacity(capacity)) {
+      builder = null;
+      mode = DEFAULT_MODE;
       return;
     }
-    final MutableMerkleTree<Body> passedData =
-        new MutableMerkleTree<Body>(Integer.parseInt(parameters[1]));
-    passedData.setHash(0, Long.parseLong(parameters[2]));
-    boolean run = true;
-
-    while (run) {
-      System.out.print("check> ");
-      final String input = stdin.readLine();
-      if (input == null) {
-        break;
-      }
+    builder = new MerkleTreeBuilder<Body>(capacity, HASH_STRATEGY);
+    mode = BUILD_MODE;
+  }
 
-      final String[] tokens = input.trim().split("\\s+");
-      final String firstInput = tokens[0];
-      final ShellCommand command = identifyCommand(firstInput, tokens);
+  /** Helper method to switch to the check mode, or to the default mode if the size is invalid. */
+  private void startCheckMode(final String[] parameters) {
+    final Integer capacity = parseIntParameter(parameters[1]);
+    builder = null;
+    if (!isValidCapacity(capacity)) {
+      tree = null;
+      mode = DEFAULT_MODE;
+      return;
+    }
+    tree = new MutableMerkleTree<Body>(capacity, HASH_STRATEGY);
+    tree.setHash(0, Long.parseLong(parameters[2]));
+    mode = CHECK_MODE;
+  }
 
-      switch (command) {
-        case NEW_CHECK:
-          if (checkInput(tokens)) {
-            runCheckMode(tokens, stdin);
-            run = false;
-          }
-          break;
-        case SET_VAL:
-          setValHelper(passedData, tokens);
-          break;
-        case SET_HASH:
-          setHashHelper(passedData, tokens);
-          break;
-        case READY:
-          readyHelper(passedData);
-          break;
-        case CHECK:
-          checkHelper(passedData);
-          break;
-        case NEW:
-          runBuildMode(tokens, stdin);
-          run = false;
-          break;
-        case CLEAR:
-          passedData.clear();
-          break;
-        case DEBUG:
-          System.out.println(passedData.toString());
-          break;
-        case HELP:
-          helpPrinter(CHECK_MODE);
-          break;
-        case QUIT:
-          run = false;
-          break;
-        default:
-          System.out.println(COMMAND_DOESNT_EXIST_MESSAGE);
-          break;
-      }
+  /** Helper method to check the size of a new tree. Prints an error if it is not allowed. */
+  private boolean isValidCapacity(final Integer capacity) {
+    if (capacity == null) {
+      return false;
+    } else if (capacity < 2) {
+      out.println("Error! Minimum size is 2.");
+      return false;
+    } else if (capacity > maxCapacity) {
+      out.println("Error! Maximum size is " + maxCapacity + ".");
+      return false;
     }
+    return true;
   }
 
   /** Helper method for the command "push". Handles all occuring exceptions. */
-  private static void pushHelper(final MerkleTreeBuilder<Body> mtb, final String[] parameters) {
-    if (createData(parameters[1]) != null) {
-      mtb.push(createData(parameters[1]));
+  private void pushHelper(final MerkleTreeBuilder<Body> mtb, final String[] parameters) {
+    final Body data = createData(parameters[1]);
+    if (data != null) {
+      mtb.push(data);
     }
   }
 
   /** Helper method for the command "set_val". Handles all possibly occuring exceptions. */
-  private static void setValHelper(final HashTree<Body> tr, final String[] parameters) {
+  private void setValHelper(final HashTree<Body> tr, final String[] parameters) {
     try {
-      if (createData(parameters[2]) != null) {
-        final int index = Integer.parseInt(parameters[1]);
-        tr.setValue(index, createData(parameters[2]));
+      final Body data = createData(parameters[2]);
+      if (data != null) {
+        final Integer index = parseIntParameter(parameters[1]);
+        if (index != null) {
+          tr.setValue(index, data);
+        }
       }
     } catch (IndexOutOfBoundsException e) {
-      System.out.println(NO_VALID_INDEX_MESSAGE + parameters[1] + ".");
+      out.println(NO_VALID_INDEX_MESSAGE + parameters[1] + ".");
     }
   }
 
   /** Helper method for the command "set_hash". Handles all possibly occuring exceptions. */
-  private static void setHashHelper(final HashTree<Body> tr, final String[] parameters) {
+  private void setHashHelper(final HashTree<Body> tr, final String[] parameters) {
     if (!checkInput(parameters)) {
       return;
     }
-    final int index = Integer.parseInt(parameters[1]);
-    if (index == 0) {
-      System.out.println("Error! Root hash cannot be changed.");
+    final Integer index = parseIntParameter(parameters[1]);
+    if (index == null) {
+      return;
+    } else if (index == 0) {
+      out.println("Error! Root hash cannot be changed.");
       return;
     }
     final long hash = Long.parseLong(parameters[2]);
     try {
       tr.setHash(index, hash);
     } catch (IndexOutOfBoundsException e) {
-      System.out.println(NO_VALID_INDEX_MESSAGE + parameters[1] + ".");
+      out.println(NO_VALID_INDEX_MESSAGE + parameters[1] + ".");
     } catch (IllegalArgumentException e) {
-      System.out.println("Error! This node has a value, thus the hash cannot be changed.");
+      out.println("Error! This node has a value, thus the hash cannot be changed.");
     }
   }
 
   /** Helper method for the command "ready?". */
-  private static void readyHelper(final HashTree<Body> tr) {
-    if (tr.getMissing().isEmpty()) {
-      System.out.println("READY!");
-    } else {
-      // as Martin wanted no whitespace in the output it is removed
-      System.out.println(tr.getMissing().toString().replaceAll("\\s+", ""));
+  private void readyHelper(final HashTree<Body> tr) {
+    if (tr.isReady()) {
+      out.println("READY!");
+      return;
     }
+    // as Martin wanted no whitespace in the output the indices are only separated by commas
+    final List<Integer> missing = tr.getMissing();
+    out.print('[');
+    for (int i = 0; i < missing.size(); i++) {
+      if (i > 0) {
+        out.print(',');
+      }
+      out.print(missing.get(i).intValue());
+    }
+    out.println(']');
   }
 
   /** Helper method for the command "check". Handles all possibly occuring exceptions. */
-  private static void checkHelper(HashTree<Body> tr) {
-    if (!tr.getMissing().isEmpty()) {
-      System.out.println("Error! Check is currently not available.");
+  private void checkHelper(HashTree<Body> tr) {
+    if (!tr.isReady()) {
+      out.println("Error! Check is currently not available.");
     } else if (tr.isConsistent()) {
-      System.out.println("ACK");
+      out.println("ACK");
     } else {
-      System.out.println("REJ");
+      out.println("REJ");
     }
   }
 
   /** Helper method identify a given command. */
   private static ShellCommand identifyCommand(String possibleCommand, final String[] parameters) {
     possibleCommand = possibleCommand.toLowerCase();
-    ShellCommand identifiedCommand = ShellCommand.UNKNOWN;
 
     if (possibleCommand.trim().isEmpty()) {
       // catch empty input
       return ShellCommand.UNKNOWN;
     }
-    for (ShellCommand cmd : ShellCommand.values()) {
-      if (cmd.getCommandAsString().equals(possibleCommand)) {
-        identifiedCommand = cmd;
-      }
-    }
-    if (identifiedCommand == ShellCommand.UNKNOWN) {
+    final ShellCommand identifiedCommand = COMMANDS.get(possibleCommand);
+    if (identifiedCommand == null || identifiedCommand == ShellCommand.UNKNOWN) {
       // command does not exist
       return ShellCommand.UNKNOWN;
     } else if (identifiedCommand.getParameterNumber() == parameters.length) {
@@ -299,7 +460,7 @@ public class Shell {
   }
 
   /** Helper method to identify the data to be inserted. */
-  private static HashTreeData identifyData(String[] parameters) {
+  private HashTreeData identifyData(String[] parameters) {
     if (!checkInput(parameters)) {
       return HashTreeData.WRONG_PARAMETER;
     }
@@ -323,56 +484,78 @@ public class Shell {
   }
 
   /** Helper method to create the data to be inserted identified by a given String. */
-  private static Body createData(String possibleData) {
-    final String[] parameters = possibleData.split("[\\( \\) ,]");
+  private Body createData(String possibleData) {
+    final String[] parameters = DATA_SEPARATORS.split(possibleData);
     final HashTreeData data = identifyData(parameters);
     switch (data) {
       case CYLINDER:
-        final int radius = Integer.parseInt(parameters[1]);
-        int height = Integer.parseInt(parameters[2]);
+        final Integer radius = parseIntParameter(parameters[1]);
+        Integer height = parseIntParameter(parameters[2]);
+        if (radius == null || height == null) {
+          return null;
+        }
         return new Cylinder(radius, height);
       case CUBOID:
-        final int length = Integer.parseInt(parameters[1]);
-        final int width = Integer.parseInt(parameters[2]);
-        height = Integer.parseInt(parameters[3]);
+        final Integer length = parseIntParameter(parameters[1]);
+        final Integer width = parseIntParameter(parameters[2]);
+        height = parseIntParameter(parameters[3]);
+        if (length == null || width == null || height == null) {
+          return null;
+        }
         return new Cuboid(length, width, height);
       case WRONG_PARAMETER:
-        System.out.println("Error! Invalid input, wrong parameters: " + possibleData + ".");
+        out.println("Error! Invalid input, wrong parameters: " + possibleData + ".");
         return null;
       default:
-        System.out.println("Error! Inserting this type of object is not allowed.");
+        out.println("Error! Inserting this type of object is not allowed.");
         return null;
     }
   }
 
   /** Helper method to print the help texts for commands possible for the given mode. */
-  private static void helpPrinter(int mode) {
-    System.out.println("All possible commands in current mode:\n");
+  private void helpPrinter(int mode) {
+    out.println("All possible commands in current mode:\n");
     if (mode == DEFAULT_MODE) {
       for (ShellCommand cmd : ShellCommand.values()) {
         if (cmd.getMode() == mode) {
-          System.out.println(cmd.getHelpText() + "\n");
+          out.println(cmd.getHelpText() + "\n");
         }
       }
     } else {
       for (ShellCommand cmd : ShellCommand.values()) {
         if (cmd.getMode() == mode || cmd.getMode() == BUILD_AND_CHECK_MODE
             || cmd.getMode() == DEFAULT_MODE) {
-          System.out.println(cmd.getHelpText() + "\n");
+          out.println(cmd.getHelpText() + "\n");
         }
       }
     }
   }
 
-  private static boolean checkInput(String[] input) {
+  /**
+   * Helper method to parse a size, an index or a dimension, which has to fit into an {@code int}.
+   * Prints an error if it does not.
+   *
+   * @return the number, {@code null} if the parameter is no such number
+   */
+  private Integer parseIntParameter(String parameter) {
+    try {
+      return Integer.valueOf(parameter);
+    } catch (NumberFormatException e) {
+      out.println(NO_VALID_INPUT_MESSAGE + parameter + " is no number up to " + Integer.MAX_VALUE
+          + ".");
+      return null;
+    }
+  }
+
+  private boolean checkInput(String[] input) {
     for (int i = 1; i < input.length; i++) {
       try {
         if (Long.parseLong(input[i]) < 0) {
-          System.out.println(NO_VALID_INPUT_MESSAGE + " Negative numbers are not allowed.");
+          out.println(NO_VALID_INPUT_MESSAGE + " Negative numbers are not allowed.");
           return false;
         }
       } catch (NumberFormatException e) {
-        System.out.println("Error! Invalid input. That was no number.");
+        out.println("Error! Invalid input. That was no number.");
         return false;
       }
     }
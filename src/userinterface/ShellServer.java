@@ -0,0 +1,164 @@
+package userinterface;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves shell sessions to local clients connecting by TCP. Every connection gets its own
+ * {@link Shell} with its own trees, which reads the commands sent by the client and answers like
+ * an interactive shell, i.e. with a prompt before every command. The session ends when the client
+ * sends {@code quit} or closes the connection.
+ *
+ * <p>Sessions mostly wait for their clients, so each runs on a thread of its own. On Java 21 and
+ * later these are virtual threads, thus a single process can serve thousands of sessions. Older
+ * runtimes fall back to platform threads.
+ */
+public final class ShellServer implements Closeable {
+
+  /**
+   * The maximum number of connections waiting to be accepted.
+   */
+  private static final int BACKLOG = 1024;
+
+  /**
+   * The maximum number of leaves of the trees of a session. All sessions share the memory of the
+   * process, so a single session must not be able to exhaust it.
+   */
+  static final int MAX_CAPACITY = 1 << 16;
+
+  /**
+   * The socket accepting the connections, bound to the loopback address.
+   */
+  private final ServerSocket serverSocket;
+
+  /**
+   * Runs the sessions.
+   */
+  private final ExecutorService sessions;
+
+  /**
+   * The connections of all running sessions, closed together with the server.
+   */
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates a new {@code ShellServer} listening on the loopback address.
+   *
+   * @param port the port to listen on, 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public ShellServer(int port) throws IOException {
+    this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+    this.sessions = newSessionExecutor();
+  }
+
+  /**
+   * Returns an executor that runs every session on a virtual thread if the runtime supports them,
+   * otherwise on a platform thread.
+   */
+  static ExecutorService newSessionExecutor() {
+    try {
+      // the library is compiled for Java 17, which has no virtual threads
+      final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /** Returns the port the server is listening on. */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Accepts connections and starts a session for each of them until the server is closed.
+   *
+   * @throws IOException if accepting a connection fails
+   */
+  public void serve() throws IOException {
+    while (true) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        if (serverSocket.isClosed()) {
+          return;
+        }
+        throw e;
+      }
+      connections.add(socket);
+      try {
+        sessions.execute(new Session(socket));
+      } catch (RejectedExecutionException e) {
+        // the server was closed after the connection was accepted
+        connections.remove(socket);
+        socket.close();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Stops accepting connections and ends all sessions by closing their connections.
+   */
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    sessions.shutdown();
+    for (Socket socket : connections) {
+      socket.close();
+    }
+  }
+
+  /**
+   * A shell session for a single connection.
+   */
+  private final class Session implements Runnable {
+
+    private final Socket socket;
+
+    Session(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        final BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        final PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+        new Shell(in, out, true, MAX_CAPACITY).run();
+      } catch (IOException e) {
+        // the connection was lost, there is nobody left to tell
+      } catch (RuntimeException e) {
+        // a failing command ends its own session only
+        System.err.println("Error! Session ended by " + e);
+      } finally {
+        connections.remove(socket);
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // the session is over anyway
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that clearing a tree of any implementation has the same effect as deleting the value of
+ * every leaf of a {@link MutableMerkleTree}.
+ */
+class ClearTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void clearEqualsDeletingAllValues() throws IOException {
+    final Random random = new Random(17);
+    for (int i = 0; i < 100; i++) {
+      final int height = 1 + random.nextInt(6);
+      final int leaves = 1 << height;
+      final MutableMerkleTree<String> expected = new MutableMerkleTree<String>(leaves,
+          HASH_STRATEGY);
+      final MutableMerkleTree<String> mutable = new MutableMerkleTree<String>(leaves,
+          HASH_STRATEGY);
+      try (MappedMerkleTree<String> mapped =
+          MappedMerkleTree.create(directory.resolve("tree" + i), leaves, HASH_STRATEGY)) {
+        final List<HashTree<String>> trees = Arrays.<HashTree<String>>asList(mutable,
+            new ArrayMerkleTree<String>(leaves, HASH_STRATEGY),
+            new KaryMerkleTree<String>(leaves, 2, HASH_STRATEGY),
+            new ExactMerkleTree<String>(leaves, HASH_STRATEGY),
+            new ConcurrentMerkleTree<String>(leaves, HASH_STRATEGY), mapped,
+            new SparseMerkleTree<String>(leaves, HASH_STRATEGY));
+        PersistentMerkleTree<String> persistent =
+            new PersistentMerkleTree<String>(leaves, HASH_STRATEGY);
+        for (int j = random.nextInt(40); j > 0; j--) {
+          if (random.nextInt(3) == 0) {
+            final int index = random.nextInt(2 * leaves - 1);
+            final long hash = random.nextLong();
+            try {
+              expected.setHash(index, hash);
+            } catch (IllegalArgumentException e) {
+              // the leaf has a value
+              continue;
+            }
+            for (HashTree<String> tree : trees) {
+              tree.setHash(index, hash);
+            }
+            persistent = persistent.withHash(index, hash);
+          } else {
+            final int position = random.nextInt(leaves);
+            final String value = random.nextInt(4) == 0 ? null : "v" + random.nextInt();
+            expected.setValue(position, value);
+            for (HashTree<String> tree : trees) {
+              tree.setValue(position, value);
+            }
+            persistent = persistent.withValue(position, value);
+          }
+        }
+        for (int position = 0; position < leaves; position++) {
+          expected.setValue(position, null);
+        }
+        for (HashTree<String> tree : trees) {
+          tree.clear();
+          assertSameNodes(expected, tree);
+        }
+        assertSameNodes(expected, persistent.cleared());
+      }
+    }
+  }
+
+  /** Helper method to compare the hashes, values and missing nodes of two trees. */
+  private static void assertSameNodes(HashTree<String> expected, HashTree<String> actual) {
+    final IndexedNodes<String> expectedNodes = IndexedNodes.of(expected);
+    final IndexedNodes<String> actualNodes = IndexedNodes.of(actual);
+    final NodeLayout layout = expectedNodes.getLayout();
+    final String message = actual.getClass().getSimpleName() + " " + expected;
+    for (int index = 0; index < layout.getNumberOfNodes(); index++) {
+      assertEquals(expectedNodes.hasHash(index), actualNodes.hasHash(index), message);
+      if (expectedNodes.hasHash(index)) {
+        assertEquals(expectedNodes.getHash(index), actualNodes.getHash(index), message);
+      }
+    }
+    for (int position = 0; position < layout.getNumberOfLeaves(); position++) {
+      assertNull(actualNodes.getValue(position), message);
+    }
+    assertEquals(expected.getMissing(), actual.getMissing(), message);
+    assertEquals(expected.isReady(), actual.isReady(), message);
+  }
+
+}
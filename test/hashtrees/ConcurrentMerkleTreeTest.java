@@ -0,0 +1,180 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link ConcurrentMerkleTree} changed by several threads at the same time ends in
+ * the state of a tree that received the same changes sequentially.
+ */
+class ConcurrentMerkleTreeTest {
+
+  /**
+   * The number of writing threads.
+   */
+  private static final int NUMBER_OF_THREADS = 8;
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void concurrentValuesMatchSequentialTree() throws InterruptedException {
+    for (int leaves : new int[] {16, 1000, 1 << 14}) {
+      checkConcurrentWriters(leaves, false);
+    }
+  }
+
+  @Test
+  void concurrentBatchesMatchSequentialTree() throws InterruptedException {
+    for (int leaves : new int[] {16, 1000, 1 << 14}) {
+      checkConcurrentWriters(leaves, true);
+    }
+  }
+
+  /**
+   * Helper method to let several threads write to a tree. Every leaf belongs to one thread, which
+   * changes it several times, so the final value of each leaf is known. The threads write either
+   * leaf by leaf or in batches. As a removed value leaves the hashes above it and a complete tree
+   * freezes its root, the final state would depend on the order of the changes: therefore no
+   * value is removed and some leaves are never set.
+   */
+  private static void checkConcurrentWriters(int leaves, boolean batches)
+      throws InterruptedException {
+    final ConcurrentMerkleTree<String> tree =
+        new ConcurrentMerkleTree<String>(leaves, HASH_STRATEGY);
+    final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(leaves, HASH_STRATEGY);
+    final String[] finalValues = new String[leaves];
+    final Random random = new Random(leaves);
+    for (int i = 0; i < leaves; i++) {
+      if (i != leaves - 1 && random.nextInt(8) != 0) {
+        finalValues[i] = "v" + random.nextInt();
+        expected.setValue(i, finalValues[i]);
+      }
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] threads = new Thread[NUMBER_OF_THREADS];
+    for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+      final int thread = t;
+      threads[t] = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          final Random threadRandom = new Random(thread);
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int round = 0; round < 3; round++) {
+            final Map<Integer, String> batch = new HashMap<Integer, String>();
+            for (int i = thread; i < leaves; i += NUMBER_OF_THREADS) {
+              if (finalValues[i] == null) {
+                continue;
+              }
+              final String value =
+                  round < 2 ? "r" + round + "-" + threadRandom.nextInt() : finalValues[i];
+              if (!batches) {
+                tree.setValue(i, value);
+              } else {
+                batch.put(i, value);
+                if (batch.size() == 64) {
+                  tree.setValues(batch);
+                  batch.clear();
+                }
+              }
+            }
+            tree.setValues(batch);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(expected.toString(), tree.toString());
+    assertEquals(List.of(), tree.diff(expected));
+    assertEquals(expected.getMissing(), tree.getMissing());
+    assertEquals(expected.isReady(), tree.isReady());
+  }
+
+  @Test
+  void fullTreeHasRootOfSequentialTree() throws InterruptedException {
+    final int leaves = 1 << 12;
+    final ConcurrentMerkleTree<String> tree =
+        new ConcurrentMerkleTree<String>(leaves, HASH_STRATEGY);
+    final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(leaves, HASH_STRATEGY);
+    final Thread[] threads = new Thread[NUMBER_OF_THREADS];
+    for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+      final int thread = t;
+      threads[t] = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          for (int i = thread; i < leaves; i += NUMBER_OF_THREADS) {
+            tree.setValue(i, "v" + i);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (int i = 0; i < leaves; i++) {
+      expected.setValue(i, "v" + i);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Long.valueOf(IndexedNodes.of(expected).getHash(0)), tree.getRootHash());
+    assertTrue(tree.isReady());
+    assertTrue(tree.isConsistent());
+  }
+
+  @Test
+  void trackedMissingNodesMatchArrayTree() {
+    final Random random = new Random(15);
+    for (int round = 0; round < 100; round++) {
+      final int leaves = 1 + random.nextInt(300);
+      final ConcurrentMerkleTree<String> tree =
+          new ConcurrentMerkleTree<String>(leaves, HASH_STRATEGY);
+      final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(leaves, HASH_STRATEGY);
+      final int numberOfLeaves = 1 << IndexedNodes.of(expected).getHeight();
+      for (int i = 0; i < 60; i++) {
+        final int operation = random.nextInt(12);
+        if (operation == 0) {
+          tree.clear();
+          expected.clear();
+        } else if (operation < 4) {
+          final int index = random.nextInt(2 * numberOfLeaves - 1);
+          final long hash = random.nextLong();
+          try {
+            expected.setHash(index, hash);
+          } catch (IllegalArgumentException e) {
+            // the leaf has a value
+            continue;
+          }
+          tree.setHash(index, hash);
+        } else {
+          final int position = random.nextInt(numberOfLeaves);
+          final String value = random.nextInt(4) == 0 ? null : "v" + random.nextInt();
+          tree.setValue(position, value);
+          expected.setValue(position, value);
+        }
+        assertEquals(expected.getMissing(), tree.getMissing());
+        assertEquals(expected.isReady(), tree.isReady());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that an {@link ExactMerkleTree} with a power of two leaves behaves like an
+ * {@link ArrayMerkleTree}, and that the root of other sizes is the Merkle Tree Hash of RFC 6962.
+ */
+class ExactMerkleTreeTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void powerOfTwoMatchesArrayTree() {
+    final Random random = new Random(23);
+    for (int round = 0; round < 200; round++) {
+      final int leaves = 2 << random.nextInt(6);
+      final ExactMerkleTree<String> exact = new ExactMerkleTree<String>(leaves, HASH_STRATEGY);
+      final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(leaves, HASH_STRATEGY);
+      for (int i = 0; i < 40; i++) {
+        final int operation = random.nextInt(10);
+        if (operation == 0) {
+          exact.clear();
+          expected.clear();
+        } else if (operation < 3) {
+          final int index = random.nextInt(2 * leaves - 1);
+          final long hash = random.nextLong();
+          try {
+            expected.setHash(index, hash);
+          } catch (IllegalArgumentException e) {
+            // the leaf has a value
+            continue;
+          }
+          exact.setHash(index, hash);
+        } else if (operation < 5) {
+          final Map<Integer, String> values = new HashMap<Integer, String>();
+          for (int j = random.nextInt(8); j > 0; j--) {
+            values.put(random.nextInt(leaves),
+                random.nextInt(4) == 0 ? null : "v" + random.nextInt());
+          }
+          exact.setValues(values);
+          expected.setValues(values);
+        } else {
+          final int position = random.nextInt(leaves);
+          final String value = random.nextInt(4) == 0 ? null : "v" + random.nextInt();
+          exact.setValue(position, value);
+          expected.setValue(position, value);
+        }
+        assertEquals(expected.toString(), exact.toString());
+        assertEquals(expected.getMissing(), exact.getMissing());
+        assertEquals(expected.isReady(), exact.isReady());
+      }
+    }
+  }
+
+  @Test
+  void emptyTreeNeedsExactlyItsLeaves() {
+    final ExactMerkleTree<String> tree = new ExactMerkleTree<String>(1025, HASH_STRATEGY);
+    assertEquals(2059, tree.getNumberOfNodes());
+    final List<Integer> missing = tree.getMissing();
+    assertEquals(1025, missing.size());
+    for (int index : missing) {
+      tree.setHash(index, index);
+    }
+    assertTrue(tree.isReady());
+  }
+
+  @Test
+  void rootMatchesRfc6962() {
+    for (int leaves = 2; leaves <= 70; leaves++) {
+      final long rootHash = merkleTreeHash(0, leaves);
+      final ExactMerkleTree<String> tree = new ExactMerkleTree<String>(leaves, HASH_STRATEGY);
+      tree.setHash(0, rootHash);
+      fill(tree, leaves);
+      assertTrue(tree.isConsistent(), "leaves: " + leaves);
+
+      final ExactMerkleTree<String> other = new ExactMerkleTree<String>(leaves, HASH_STRATEGY);
+      other.setHash(0, rootHash + 1);
+      fill(other, leaves);
+      assertFalse(other.isConsistent(), "leaves: " + leaves);
+    }
+  }
+
+  /** Helper method to give every leaf of a tree the value {@code "v" + position}. */
+  private static void fill(ExactMerkleTree<String> tree, int leaves) {
+    for (int i = 0; i < leaves; i++) {
+      tree.setValue(i, "v" + i);
+    }
+  }
+
+  /**
+   * Helper method to calculate the Merkle Tree Hash of RFC 6962 of the given number of leaves,
+   * which splits them at the largest power of two below their number.
+   */
+  private static long merkleTreeHash(int firstPosition, int leaves) {
+    if (leaves == 1) {
+      return HASH_STRATEGY.hashLeaf("v" + firstPosition);
+    }
+    final int split = Integer.highestOneBit(leaves - 1);
+    return HASH_STRATEGY.hashInner(merkleTreeHash(firstPosition, split),
+        merkleTreeHash(firstPosition + split, leaves - split));
+  }
+
+}
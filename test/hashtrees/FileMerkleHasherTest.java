@@ -0,0 +1,157 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a {@link FileMerkleHasher} hashes the blocks of a file like
+ * {@link HashStrategy#hashBytes(ByteBuffer)} hashes the same bytes on the heap.
+ */
+class FileMerkleHasherTest {
+
+  /**
+   * The number of bytes of every block except the last one.
+   */
+  private static final int BLOCK_SIZE = 100;
+
+  /**
+   * A directory for the files to be hashed.
+   */
+  @TempDir
+  Path directory;
+
+  @Test
+  void emptyFileHasNoBlocks() throws IOException {
+    final Path file = write(new byte[0]);
+    final FileMerkleHasher hasher = new FileMerkleHasher(BLOCK_SIZE, HashStrategies.fast());
+    assertEquals(0, hasher.hashBlocks(file).length);
+    final ArrayMerkleTree<String> tree = new ArrayMerkleTree<String>(2, HashStrategies.fast());
+    assertEquals(0, hasher.hashInto(file, tree));
+    assertEquals(Arrays.asList(1, 2), tree.getMissing());
+  }
+
+  @Test
+  void blocksMatchHeapBuffers() throws IOException {
+    final Random random = new Random(25);
+    for (HashStrategy strategy : new HashStrategy[] {HashStrategies.fast(),
+        HashStrategies.sha256(), HashStrategies.legacy()}) {
+      for (int size : new int[] {1, 99, 100, 101, 1000, 1050}) {
+        final byte[] bytes = randomBytes(size, random);
+        final long[] hashes =
+            new FileMerkleHasher(BLOCK_SIZE, strategy).hashBlocks(write(bytes));
+        assertArrayEquals(expectedHashes(bytes, BLOCK_SIZE, strategy), hashes, "size " + size);
+      }
+    }
+  }
+
+  @Test
+  void largeFilesAreHashedInParallel() throws IOException {
+    // above 16 MiB the blocks are mapped and hashed by several tasks
+    final int blockSize = 4096;
+    final byte[] bytes = randomBytes((1 << 24) + 3 * blockSize + 17, new Random(25));
+    final HashStrategy strategy = HashStrategies.fast();
+    final long[] hashes = new FileMerkleHasher(blockSize, strategy).hashBlocks(write(bytes));
+    assertArrayEquals(expectedHashes(bytes, blockSize, strategy), hashes);
+  }
+
+  @Test
+  void hashIntoSetsChangedLeavesOnly() throws IOException {
+    final HashStrategy strategy = HashStrategies.fast();
+    final FileMerkleHasher hasher = new FileMerkleHasher(BLOCK_SIZE, strategy);
+    final byte[] bytes = randomBytes(1050, new Random(25));
+    final Path file = write(bytes);
+    final ArrayMerkleTree<String> tree = new ArrayMerkleTree<String>(11, strategy);
+    assertEquals(11, hasher.hashInto(file, tree));
+    assertLeaves(tree, expectedHashes(bytes, BLOCK_SIZE, strategy));
+    assertEquals(0, hasher.hashInto(file, tree));
+
+    // the changed bytes span the blocks 2 and 3
+    for (int i = 250; i < 310; i++) {
+      bytes[i]++;
+    }
+    Files.write(file, bytes);
+    assertEquals(2, hasher.hashInto(file, tree, 250, 60));
+    assertLeaves(tree, expectedHashes(bytes, BLOCK_SIZE, strategy));
+
+    // the range is cut off at the end of the file
+    bytes[1049]++;
+    Files.write(file, bytes);
+    assertEquals(1, hasher.hashInto(file, tree, 1000, Long.MAX_VALUE));
+    assertLeaves(tree, expectedHashes(bytes, BLOCK_SIZE, strategy));
+    assertEquals(0, hasher.hashInto(file, tree, 1050, 10));
+    assertEquals(0, hasher.hashInto(file, tree, 5000, 10));
+    assertEquals(0, hasher.hashInto(file, tree, 10, 0));
+  }
+
+  @Test
+  void hashIntoKaryTree() throws IOException {
+    final HashStrategy strategy = HashStrategies.fast();
+    final byte[] bytes = randomBytes(1050, new Random(25));
+    final KaryMerkleTree<String> tree = new KaryMerkleTree<String>(11, 3, strategy);
+    assertEquals(11, new FileMerkleHasher(BLOCK_SIZE, strategy).hashInto(write(bytes), tree));
+    assertLeaves(tree, expectedHashes(bytes, BLOCK_SIZE, strategy));
+  }
+
+  @Test
+  void invalidRangesAndTreesAreRejected() throws IOException {
+    final FileMerkleHasher hasher = new FileMerkleHasher(BLOCK_SIZE, HashStrategies.fast());
+    final Path file = write(new byte[1050]);
+    try {
+      hasher.hashInto(file, new ArrayMerkleTree<String>(16), -1, 10);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // negative offset
+    }
+    try {
+      hasher.hashInto(file, new ArrayMerkleTree<String>(8));
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // the file has 11 blocks
+    }
+  }
+
+  /** Helper method to write bytes to a new file. */
+  private Path write(byte[] bytes) throws IOException {
+    final Path file = Files.createTempFile(directory, "blocks", ".bin");
+    Files.write(file, bytes);
+    return file;
+  }
+
+  /** Helper method to create random bytes. */
+  private static byte[] randomBytes(int size, Random random) {
+    final byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Helper method to hash the blocks of an array, each copied to a heap buffer of its own. */
+  private static long[] expectedHashes(byte[] bytes, int blockSize, HashStrategy strategy) {
+    final long[] hashes = new long[(bytes.length + blockSize - 1) / blockSize];
+    for (int i = 0; i < hashes.length; i++) {
+      final int end = Math.min(bytes.length, (i + 1) * blockSize);
+      hashes[i] = strategy.hashBytes(ByteBuffer.wrap(Arrays.copyOfRange(bytes, i * blockSize,
+          end)));
+    }
+    return hashes;
+  }
+
+  /** Helper method to compare the first leaves of a tree with the expected hashes. */
+  private static void assertLeaves(HashTree<String> tree, long[] expected) {
+    final IndexedNodes<String> nodes = IndexedNodes.of(tree);
+    final int firstLeafIndex = nodes.getLayout().getFirstLeafIndex();
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], nodes.getHash(firstLeafIndex + i), "leaf " + i);
+    }
+  }
+
+}
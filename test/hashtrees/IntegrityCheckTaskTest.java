@@ -0,0 +1,165 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link HashTree#getInconsistent()} reports exactly the highest inconsistent nodes of a
+ * tree, whether the tree is checked sequentially or in parallel.
+ */
+class IntegrityCheckTaskTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void consistentTreesHaveNoInconsistentNodes() {
+    for (HashTree<String> tree : trees(32)) {
+      for (int i = 0; i < 32; i++) {
+        tree.setValue(i, "v" + i);
+      }
+      assertEquals(List.of(), tree.getInconsistent());
+    }
+    PersistentMerkleTree<String> tree = new PersistentMerkleTree<String>(32, HASH_STRATEGY);
+    for (int i = 0; i < 32; i++) {
+      tree = tree.withValue(i, "v" + i);
+    }
+    assertEquals(List.of(), tree.getInconsistent());
+  }
+
+  @Test
+  void onlyHighestInconsistentNodesAreReported() {
+    for (HashTree<String> tree : trees(8)) {
+      for (int i = 0; i < 8; i++) {
+        tree.setValue(i, "v" + i);
+      }
+      // the parent of node 3 is recalculated, but the root of a complete tree is kept
+      tree.setHash(3, 99);
+      assertEquals(List.of(0), tree.getInconsistent());
+    }
+    for (HashTree<String> tree : trees(8)) {
+      // without the last leaf neither the root nor its right child have a hash
+      for (int i = 0; i < 7; i++) {
+        tree.setValue(i, "v" + i);
+      }
+      tree.setHash(3, 99);
+      tree.setHash(5, 7);
+      assertEquals(List.of(3, 5), tree.getInconsistent());
+    }
+  }
+
+  @Test
+  void randomTreesMatchRecursiveCheck() {
+    final Random random = new Random(21);
+    for (int round = 0; round < 100; round++) {
+      final int leaves = 1 + random.nextInt(40);
+      for (HashTree<String> tree : trees(leaves)) {
+        changeRandomly(tree, 30, random);
+        assertEquals(recursiveCheck(tree), tree.getInconsistent(), tree.toString());
+      }
+      final HashTree<String> wide =
+          new KaryMerkleTree<String>(leaves, 3 + random.nextInt(3), HASH_STRATEGY);
+      changeRandomly(wide, 30, random);
+      assertEquals(recursiveCheck(wide), wide.getInconsistent(), wide.toString());
+      final HashTree<String> exact = new ExactMerkleTree<String>(1 + leaves, HASH_STRATEGY);
+      changeRandomly(exact, 30, random);
+      assertEquals(recursiveCheck(exact), exact.getInconsistent(), exact.toString());
+    }
+  }
+
+  @Test
+  void parallelCheckMatchesRecursiveCheck() {
+    final Random random = new Random(21);
+    // trees higher than 12 levels are checked by several tasks
+    for (int height : new int[] {13, 15}) {
+      for (HashTree<String> tree : trees(1 << height)) {
+        // the last leaf is never set, so the hashes set below are not overwritten by the root
+        for (int i = 0; i < (1 << height) - 1; i++) {
+          tree.setValue(i, "v" + i);
+        }
+        for (int i = 0; i < 50; i++) {
+          tree.setHash(1 + random.nextInt((1 << height) - 2), random.nextLong());
+        }
+        final List<Integer> expected = recursiveCheck(tree);
+        assertTrue(expected.size() > 1);
+        assertEquals(expected, tree.getInconsistent());
+      }
+    }
+  }
+
+  /** Helper method to create empty trees of all kinds with the given capacity. */
+  private static List<HashTree<String>> trees(int leaves) {
+    return Arrays.<HashTree<String>>asList(new MutableMerkleTree<String>(leaves, HASH_STRATEGY),
+        new ArrayMerkleTree<String>(leaves, HASH_STRATEGY),
+        new SparseMerkleTree<String>(leaves, HASH_STRATEGY),
+        new ConcurrentMerkleTree<String>(leaves, HASH_STRATEGY),
+        new KaryMerkleTree<String>(leaves, 2, HASH_STRATEGY));
+  }
+
+  /** Helper method to set random values and hashes, ignoring hashes of leaves with a value. */
+  private static void changeRandomly(HashTree<String> tree, int changes, Random random) {
+    final NodeLayout layout = IndexedNodes.of(tree).getLayout();
+    for (int i = 0; i < changes; i++) {
+      if (random.nextBoolean()) {
+        tree.setValue(random.nextInt(layout.getNumberOfLeaves()),
+            random.nextInt(4) == 0 ? null : "v" + random.nextInt(8));
+      } else {
+        try {
+          tree.setHash(random.nextInt(layout.getNumberOfNodes()), random.nextInt(8));
+        } catch (IllegalArgumentException e) {
+          // the leaf has a value
+        }
+      }
+    }
+  }
+
+  /** Helper method to search the highest inconsistent nodes depth-first. */
+  private static List<Integer> recursiveCheck(HashTree<String> tree) {
+    final List<Integer> result = new ArrayList<Integer>();
+    recursiveCheck(IndexedNodes.of(tree), 0, result);
+    Collections.sort(result);
+    return result;
+  }
+
+  /** Helper method to search the highest inconsistent nodes of a subtree depth-first. */
+  private static void recursiveCheck(IndexedNodes<String> nodes, int index, List<Integer> result) {
+    final NodeLayout layout = nodes.getLayout();
+    final int firstLeafIndex = layout.getFirstLeafIndex();
+    if (index >= firstLeafIndex) {
+      final String value = nodes.getValue(index - firstLeafIndex);
+      if (nodes.hasHash(index) && value != null
+          && HASH_STRATEGY.hashLeaf(value) != nodes.getHash(index)) {
+        result.add(index);
+      }
+      return;
+    }
+    final int firstChild = layout.getFirstChild(index);
+    final int numberOfChildren = layout.getNumberOfChildren(index);
+    final long[] childHashes = new long[numberOfChildren];
+    boolean checkable = nodes.hasHash(index);
+    for (int i = 0; i < numberOfChildren && checkable; i++) {
+      checkable = nodes.hasHash(firstChild + i);
+      if (checkable) {
+        childHashes[i] = nodes.getHash(firstChild + i);
+      }
+    }
+    if (checkable && NodeLayout.hashChildren(HASH_STRATEGY, childHashes, 0, numberOfChildren)
+        != nodes.getHash(index)) {
+      result.add(index);
+      return;
+    }
+    for (int child = firstChild; child < firstChild + numberOfChildren; child++) {
+      recursiveCheck(nodes, child, result);
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link KaryMerkleTree} of arity 2 behaves like an {@link ArrayMerkleTree} and that
+ * wider trees hash and search their nodes by the same rules.
+ */
+class KaryMerkleTreeTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void binaryTreeMatchesArrayTree() {
+    final Random random = new Random(22);
+    for (int round = 0; round < 200; round++) {
+      final int leaves = 1 + random.nextInt(64);
+      final KaryMerkleTree<String> kary = new KaryMerkleTree<String>(leaves, 2, HASH_STRATEGY);
+      final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(leaves, HASH_STRATEGY);
+      final int numberOfLeaves = 1 << kary.getHeight();
+      for (int i = 0; i < 40; i++) {
+        final int operation = random.nextInt(10);
+        if (operation == 0) {
+          kary.clear();
+          expected.clear();
+        } else if (operation < 3) {
+          final int index = random.nextInt(2 * numberOfLeaves - 1);
+          final long hash = random.nextLong();
+          try {
+            expected.setHash(index, hash);
+          } catch (IllegalArgumentException e) {
+            // the leaf has a value
+            continue;
+          }
+          kary.setHash(index, hash);
+        } else if (operation < 5) {
+          final Map<Integer, String> values = new HashMap<Integer, String>();
+          for (int j = random.nextInt(8); j > 0; j--) {
+            values.put(random.nextInt(numberOfLeaves),
+                random.nextInt(4) == 0 ? null : "v" + random.nextInt());
+          }
+          kary.setValues(values);
+          expected.setValues(values);
+        } else {
+          final int position = random.nextInt(numberOfLeaves);
+          final String value = random.nextInt(4) == 0 ? null : "v" + random.nextInt();
+          kary.setValue(position, value);
+          expected.setValue(position, value);
+        }
+        assertEquals(expected.toString(), kary.toString());
+        assertEquals(expected.getMissing(), kary.getMissing());
+        assertEquals(expected.isReady(), kary.isReady());
+      }
+    }
+  }
+
+  @Test
+  void missingNodesOfWideTree() {
+    final KaryMerkleTree<String> tree = new KaryMerkleTree<String>(9, 3, HASH_STRATEGY);
+    // the leaves start at the index 4
+    tree.setValue(0, "a");
+    assertEquals(List.of(2, 3, 5, 6), tree.getMissing());
+    tree.setHash(2, 42);
+    assertEquals(List.of(3, 5, 6), tree.getMissing());
+    tree.setValue(1, "b");
+    tree.setValue(2, "c");
+    assertEquals(List.of(3), tree.getMissing());
+    tree.setHash(3, 43);
+    assertEquals(List.of(), tree.getMissing());
+    assertTrue(tree.isReady());
+  }
+
+  @Test
+  void rootMatchesRecursiveDefinition() {
+    for (int arity : new int[] {3, 4, 16}) {
+      final KaryMerkleTree<String> tree = new KaryMerkleTree<String>(50, arity, HASH_STRATEGY);
+      int numberOfLeaves = 1;
+      for (int i = 0; i < tree.getHeight(); i++) {
+        numberOfLeaves *= arity;
+      }
+      final long rootHash = expectedHash(arity, tree.getHeight(), 0);
+      tree.setHash(0, rootHash);
+      fill(tree, numberOfLeaves);
+      assertTrue(tree.isConsistent());
+
+      final KaryMerkleTree<String> other = new KaryMerkleTree<String>(50, arity, HASH_STRATEGY);
+      other.setHash(0, rootHash + 1);
+      fill(other, numberOfLeaves);
+      assertFalse(other.isConsistent());
+    }
+  }
+
+  /** Helper method to give every leaf of a tree the value {@code "v" + position}. */
+  private static void fill(KaryMerkleTree<String> tree, int numberOfLeaves) {
+    for (int i = 0; i < numberOfLeaves; i++) {
+      tree.setValue(i, "v" + i);
+    }
+  }
+
+  /**
+   * Helper method to calculate the hash of a subtree of a full tree, whose leaves start at the
+   * given position.
+   */
+  private static long expectedHash(int arity, int height, int firstPosition) {
+    if (height == 0) {
+      return HASH_STRATEGY.hashLeaf("v" + firstPosition);
+    }
+    int leavesPerChild = 1;
+    for (int i = 1; i < height; i++) {
+      leavesPerChild *= arity;
+    }
+    final long[] childHashes = new long[arity];
+    for (int i = 0; i < arity; i++) {
+      childHashes[i] = expectedHash(arity, height - 1, firstPosition + i * leavesPerChild);
+    }
+    return HASH_STRATEGY.hashInner(childHashes, 0, arity);
+  }
+
+}
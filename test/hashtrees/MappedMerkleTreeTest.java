@@ -0,0 +1,80 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a {@link MappedMerkleTree} calculates the hashes of an {@link ArrayMerkleTree} and
+ * keeps them when it is reopened.
+ */
+class MappedMerkleTreeTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void reopenedTreeKeepsHashes() throws IOException {
+    final Path file = directory.resolve("tree");
+    final Random random = new Random(11);
+    final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(256, HASH_STRATEGY);
+    // hashes of leaves are shown like the hashes of inner nodes, values would be shown differently
+    final Map<Integer, Long> hashes = new HashMap<Integer, Long>();
+    for (int i = 0; i < 100; i++) {
+      hashes.put(255 + random.nextInt(256), random.nextLong());
+    }
+    hashes.put(5, 42L);
+    for (Map.Entry<Integer, Long> entry : hashes.entrySet()) {
+      expected.setHash(entry.getKey(), entry.getValue());
+    }
+    try (MappedMerkleTree<String> tree = MappedMerkleTree.create(file, 256, HASH_STRATEGY)) {
+      for (Map.Entry<Integer, Long> entry : hashes.entrySet()) {
+        tree.setHash(entry.getKey(), entry.getValue());
+      }
+      assertEquals(expected.toString(), tree.toString());
+      assertEquals(expected.getMissing(), tree.getMissing());
+    }
+    try (MappedMerkleTree<String> tree = MappedMerkleTree.open(file, HASH_STRATEGY)) {
+      assertEquals(expected.toString(), tree.toString());
+      assertEquals(expected.getMissing(), tree.getMissing());
+      final Map<Integer, String> values = new HashMap<Integer, String>();
+      for (int i = 0; i < 256; i++) {
+        if (!hashes.containsKey(255 + i)) {
+          values.put(i, "v" + i);
+        }
+      }
+      tree.setValues(values);
+      expected.setValues(values);
+      assertEquals(expected.getMissing(), tree.getMissing());
+      assertTrue(tree.isReady());
+      assertTrue(tree.isConsistent());
+    }
+  }
+
+  @Test
+  void openRejectsOtherFiles() throws IOException {
+    final Path file = directory.resolve("other");
+    Files.write(file, new byte[64]);
+    try {
+      MappedMerkleTree.open(file);
+      fail();
+    } catch (IOException e) {
+      // not a tree
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that proofs created by a tree are accepted for its root hash and that every change of a
+ * proof or of the proven values is rejected.
+ */
+class MerkleProofTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void singleProofContainsSiblingsOnPath() {
+    final HashTree<String> tree = fullTree(new ArrayMerkleTree<String>(8, HASH_STRATEGY));
+    final MerkleProof proof = tree.proof(2);
+    assertArrayEquals(new int[] {2}, proof.getLeafPositions());
+    assertArrayEquals(new int[] {10, 3, 2}, proof.getNodeIndices());
+    assertTrue(proof.verify(rootHash(tree), Map.of(2, "v2"), HASH_STRATEGY));
+  }
+
+  @Test
+  void proofsOfAllTreesAreAccepted() {
+    final Random random = new Random(14);
+    for (HashTree<String> tree : trees()) {
+      fullTree(tree);
+      for (int i = 0; i < 20; i++) {
+        final Map<Integer, String> values = randomLeaves(numberOfLeaves(tree), random);
+        final MerkleProof proof = tree.proofs(values.keySet());
+        assertTrue(proof.verify(rootHash(tree), values, HASH_STRATEGY), tree.toString());
+      }
+    }
+  }
+
+  @Test
+  void tamperedProofsAreRejected() {
+    final Random random = new Random(14);
+    for (HashTree<String> tree : trees()) {
+      fullTree(tree);
+      final long rootHash = rootHash(tree);
+      for (int i = 0; i < 20; i++) {
+        final Map<Integer, String> values = randomLeaves(numberOfLeaves(tree), random);
+        final MerkleProof proof = tree.proofs(values.keySet());
+        final int[] indices = proof.getNodeIndices();
+        final long[] hashes = proof.getNodeHashes();
+        assertFalse(proof.verify(rootHash + 1, values, HASH_STRATEGY));
+
+        final Map<Integer, String> changedValues = new HashMap<Integer, String>(values);
+        final int position = proof.getLeafPositions()[random.nextInt(values.size())];
+        changedValues.put(position, "changed");
+        assertFalse(proof.verify(rootHash, changedValues, HASH_STRATEGY));
+        changedValues.remove(position);
+        assertFalse(proof.verify(rootHash, changedValues, HASH_STRATEGY));
+
+        if (indices.length == 0) {
+          continue;
+        }
+        final int node = random.nextInt(indices.length);
+        final long[] changedHashes = hashes.clone();
+        changedHashes[node]++;
+        assertFalse(copy(proof, tree, proof.getLeafPositions(), indices, changedHashes)
+            .verify(rootHash, values, HASH_STRATEGY));
+
+        final int[] fewerIndices = new int[indices.length - 1];
+        final long[] fewerHashes = new long[hashes.length - 1];
+        for (int j = 0, k = 0; j < indices.length; j++) {
+          if (j != node) {
+            fewerIndices[k] = indices[j];
+            fewerHashes[k++] = hashes[j];
+          }
+        }
+        assertFalse(copy(proof, tree, proof.getLeafPositions(), fewerIndices, fewerHashes)
+            .verify(rootHash, values, HASH_STRATEGY));
+      }
+    }
+  }
+
+  @Test
+  void proofsAreVerifiedTogether() {
+    final HashTree<String> tree = fullTree(new ArrayMerkleTree<String>(64, HASH_STRATEGY));
+    final Map<Integer, String> values = new HashMap<Integer, String>();
+    for (int position : new int[] {0, 1, 17, 63}) {
+      values.put(position, "v" + position);
+    }
+    final List<MerkleProof> proofs = Arrays.asList(tree.proof(0), tree.proof(1), tree.proof(17),
+        tree.proof(63));
+    assertTrue(MerkleProof.verify(rootHash(tree), proofs, values, HASH_STRATEGY));
+    values.put(17, "changed");
+    assertFalse(MerkleProof.verify(rootHash(tree), proofs, values, HASH_STRATEGY));
+  }
+
+  @Test
+  void proofsOfDifferentTreesCannotBeMixed() {
+    final HashTree<String> small = fullTree(new ArrayMerkleTree<String>(8, HASH_STRATEGY));
+    final HashTree<String> large = fullTree(new ArrayMerkleTree<String>(16, HASH_STRATEGY));
+    try {
+      MerkleProof.verify(rootHash(small), Arrays.asList(small.proof(0), large.proof(0)),
+          Map.of(0, "v0"), HASH_STRATEGY);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // the proofs have different shapes
+    }
+    final HashTree<String> wide = fullTree(new KaryMerkleTree<String>(16, 4, HASH_STRATEGY));
+    try {
+      MerkleProof.verify(rootHash(wide), Arrays.asList(wide.proof(0), large.proof(0)),
+          Map.of(0, "v0"), HASH_STRATEGY);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // the same leaves, but different inner nodes
+    }
+  }
+
+  /** Helper method to create empty trees of all shapes. */
+  private static List<HashTree<String>> trees() {
+    return Arrays.<HashTree<String>>asList(new MutableMerkleTree<String>(32, HASH_STRATEGY),
+        new ArrayMerkleTree<String>(32, HASH_STRATEGY),
+        new SparseMerkleTree<String>(32, HASH_STRATEGY),
+        new KaryMerkleTree<String>(27, 3, HASH_STRATEGY),
+        new ExactMerkleTree<String>(13, HASH_STRATEGY));
+  }
+
+  /** Helper method to give every leaf of a tree the value {@code "v" + position}. */
+  private static HashTree<String> fullTree(HashTree<String> tree) {
+    for (int i = 0; i < numberOfLeaves(tree); i++) {
+      tree.setValue(i, "v" + i);
+    }
+    return tree;
+  }
+
+  /** Helper method to choose a few leaves of a full tree. */
+  private static Map<Integer, String> randomLeaves(int numberOfLeaves, Random random) {
+    final Set<Integer> positions = new TreeSet<Integer>();
+    final int count = 1 + random.nextInt(4);
+    while (positions.size() < count) {
+      positions.add(random.nextInt(numberOfLeaves));
+    }
+    final Map<Integer, String> values = new HashMap<Integer, String>();
+    for (int position : positions) {
+      values.put(position, "v" + position);
+    }
+    return values;
+  }
+
+  /** Helper method to create a proof of the same tree as another one from the given parts. */
+  private static MerkleProof copy(MerkleProof proof, HashTree<String> tree, int[] leafPositions,
+      int[] nodeIndices, long[] nodeHashes) {
+    if (tree instanceof ExactMerkleTree) {
+      return MerkleProof.forExactTree(proof.getNumberOfLeaves(), leafPositions, nodeIndices,
+          nodeHashes);
+    } else if (tree instanceof KaryMerkleTree) {
+      return MerkleProof.forKaryTree(proof.getArity(), proof.getHeight(), leafPositions,
+          nodeIndices, nodeHashes);
+    }
+    return new MerkleProof(proof.getHeight(), leafPositions, nodeIndices, nodeHashes);
+  }
+
+  /** Helper method to get the number of leaves of a tree. */
+  private static int numberOfLeaves(HashTree<String> tree) {
+    return IndexedNodes.of(tree).getLayout().getNumberOfLeaves();
+  }
+
+  /** Helper method to get the root hash of a tree. */
+  private static long rootHash(HashTree<String> tree) {
+    return IndexedNodes.of(tree).getHash(0);
+  }
+
+}
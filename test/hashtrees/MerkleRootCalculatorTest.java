@@ -0,0 +1,122 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link MerkleRootCalculator} calculates the root hashes of the trees built from the
+ * same values, no matter how the values are pushed.
+ */
+class MerkleRootCalculatorTest {
+
+  /**
+   * The hash functions of all calculations.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void exactRootHashIsMerkleTreeHash() {
+    for (int size = 2; size <= 300; size++) {
+      final List<String> values = values(size);
+      final MerkleRootCalculator<String> calculator =
+          new MerkleRootCalculator<String>(HASH_STRATEGY);
+      calculator.pushAll(values.iterator());
+      assertEquals(Long.valueOf(merkleTreeHash(values, 0, size)), calculator.getExactRootHash(),
+          "size " + size);
+    }
+  }
+
+  @Test
+  void exactRootHashIsRootOfExactTree() {
+    for (int size = 2; size <= 100; size++) {
+      final List<String> values = values(size);
+      final MerkleRootCalculator<String> calculator =
+          new MerkleRootCalculator<String>(HASH_STRATEGY);
+      calculator.pushAll(values.stream());
+      // the root hash of the tree is kept, so its values are only consistent with the right one
+      final ExactMerkleTree<String> tree = new ExactMerkleTree<String>(size, HASH_STRATEGY);
+      tree.setHash(0, calculator.getExactRootHash());
+      for (int i = 0; i < size; i++) {
+        tree.setValue(i, values.get(i));
+      }
+      assertTrue(tree.isConsistent(), "size " + size);
+    }
+  }
+
+  @Test
+  void rootHashIsRootOfBuilder() {
+    for (int size = 2; size <= 1024; size *= 2) {
+      final List<String> values = values(size);
+      final MerkleTreeBuilder<String> builder = new MerkleTreeBuilder<String>(size, HASH_STRATEGY);
+      final MerkleRootCalculator<String> calculator =
+          new MerkleRootCalculator<String>(HASH_STRATEGY);
+      for (String value : values) {
+        builder.push(value);
+        calculator.push(value);
+      }
+      assertEquals(Long.valueOf(IndexedNodes.of(builder.build()).getHash(0)),
+          calculator.getRootHash());
+    }
+  }
+
+  @Test
+  void parallelCalculationMatchesSequential() {
+    for (int size : new int[] {2, 3, 1000, 4096, 100_003}) {
+      final List<String> values = values(size);
+      final MerkleRootCalculator<String> sequential =
+          new MerkleRootCalculator<String>(HASH_STRATEGY);
+      sequential.pushAll(values.iterator());
+      final MerkleRootCalculator<String> parallel =
+          new MerkleRootCalculator<String>(HASH_STRATEGY);
+      parallel.pushAll(values.spliterator(), true);
+      assertEquals(sequential.getSize(), parallel.getSize());
+      assertEquals(sequential.getRootHash(), parallel.getRootHash());
+      assertEquals(sequential.getExactRootHash(), parallel.getExactRootHash());
+    }
+  }
+
+  @Test
+  void incompleteTreesHaveNoRootHash() {
+    final MerkleRootCalculator<String> calculator =
+        new MerkleRootCalculator<String>(HASH_STRATEGY);
+    assertNull(calculator.getExactRootHash());
+    calculator.push("a");
+    assertNull(calculator.getExactRootHash());
+    calculator.push("b").push("c");
+    assertNull(calculator.getRootHash());
+    calculator.push(null);
+    assertNull(calculator.getRootHash());
+    assertNull(calculator.getExactRootHash());
+  }
+
+  /**
+   * Helper method to calculate the Merkle Tree Hash of RFC 6962 recursively: the values are split
+   * behind the largest power of two less than their number.
+   */
+  private static long merkleTreeHash(List<String> values, int from, int to) {
+    if (to - from == 1) {
+      return HASH_STRATEGY.hashLeaf(values.get(from));
+    }
+    int split = 1;
+    while (2 * split < to - from) {
+      split *= 2;
+    }
+    return HASH_STRATEGY.hashInner(merkleTreeHash(values, from, from + split),
+        merkleTreeHash(values, from + split, to));
+  }
+
+  /** Helper method to create distinct values. */
+  private static List<String> values(int size) {
+    final List<String> values = new ArrayList<String>(size);
+    for (int i = 0; i < size; i++) {
+      values.add("v" + i);
+    }
+    return values;
+  }
+
+}
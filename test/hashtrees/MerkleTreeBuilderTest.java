@@ -0,0 +1,104 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link MerkleTreeBuilder} builds the trees of the original builder, which set the
+ * values one by one into a tree that doubled its height whenever it was full, and that a built
+ * tree does not change when the builder goes on.
+ */
+class MerkleTreeBuilderTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void builtTreesMatchRecursiveDefinition() {
+    for (int leavesNeeded : new int[] {2, 5, 16}) {
+      for (int size = 1; size <= 70; size++) {
+        final List<String> values = new ArrayList<String>();
+        final MerkleTreeBuilder<String> builder =
+            new MerkleTreeBuilder<String>(leavesNeeded, HASH_STRATEGY);
+        for (int i = 0; i < size; i++) {
+          // a few leaves without a value leave gaps in the inner hashes
+          final String value = i % 11 == 10 ? null : "v" + i;
+          values.add(value);
+          builder.push(value);
+        }
+        int height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leavesNeeded));
+        while (1 << height < size) {
+          height++;
+        }
+        assertEquals(expectedTree(values, height), builder.build().toString(),
+            size + " values");
+      }
+    }
+  }
+
+  @Test
+  void builtTreeIsUnchangedByLaterPushes() {
+    final MerkleTreeBuilder<String> builder = new MerkleTreeBuilder<String>(2, HASH_STRATEGY);
+    final List<HashTree<String>> trees = new ArrayList<HashTree<String>>();
+    final List<String> descriptions = new ArrayList<String>();
+    final List<List<Integer>> missing = new ArrayList<List<Integer>>();
+    for (int i = 0; i < 100; i++) {
+      // the empty leaves mark subtrees without a hash, which later pushes extend
+      builder.push(i % 7 == 3 ? null : "v" + i);
+      final HashTree<String> tree = builder.build();
+      trees.add(tree);
+      descriptions.add(tree.toString());
+      missing.add(tree.getMissing());
+    }
+    builder.clear();
+    builder.push("after clear");
+    for (int i = 0; i < trees.size(); i++) {
+      assertEquals(descriptions.get(i), trees.get(i).toString());
+      assertEquals(missing.get(i), trees.get(i).getMissing());
+    }
+  }
+
+  /**
+   * Helper method to describe the tree built from the given values like
+   * {@link MutableMerkleTree#toString()}: an inner node has a hash if both of its children have
+   * one, and the root only if the tree is full.
+   */
+  private static String expectedTree(List<String> values, int height) {
+    final StringBuilder res = new StringBuilder();
+    appendNode(res, values, height, 0);
+    return res.toString();
+  }
+
+  /**
+   * Helper method for {@link #expectedTree(List, int)}.
+   *
+   * @return the hash of the node, {@code null} if it has none
+   */
+  private static Long appendNode(StringBuilder res, List<String> values, int height,
+      int firstLeaf) {
+    if (height == 0) {
+      final String value = firstLeaf < values.size() ? values.get(firstLeaf) : null;
+      if (value == null) {
+        res.append("(*)");
+        return null;
+      }
+      res.append("(\"").append(value).append("\")");
+      return HASH_STRATEGY.hashLeaf(value);
+    }
+    final StringBuilder children = new StringBuilder();
+    final Long left = appendNode(children, values, height - 1, firstLeaf);
+    children.append(" ");
+    final Long right = appendNode(children, values, height - 1, firstLeaf + (1 << (height - 1)));
+    final Long hash = left != null && right != null
+        ? Long.valueOf(HASH_STRATEGY.hashInner(left, right)) : null;
+    res.append("(").append(hash != null ? hash.toString() : "*").append(" ").append(children)
+        .append(")");
+    return hash;
+  }
+
+}
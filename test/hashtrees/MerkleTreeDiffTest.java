@@ -0,0 +1,153 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link HashTree#diff(HashTree)} finds exactly the leaves whose hashes differ.
+ */
+class MerkleTreeDiffTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void equalTreesHaveNoDifferences() {
+    final HashTree<String> tree = filled(new MutableMerkleTree<String>(32, HASH_STRATEGY));
+    final HashTree<String> other = filled(new ArrayMerkleTree<String>(32, HASH_STRATEGY));
+    assertEquals(List.of(), tree.diff(other));
+    assertEquals(List.of(), other.diff(tree));
+    assertEquals(List.of(), tree.diff(tree));
+  }
+
+  @Test
+  void singleChangedLeaf() {
+    final HashTree<String> tree = filled(new ArrayMerkleTree<String>(32, HASH_STRATEGY));
+    final HashTree<String> other = filled(new ArrayMerkleTree<String>(32, HASH_STRATEGY));
+    other.setValue(19, "changed");
+    assertEquals(List.of(19), tree.diff(other));
+    assertEquals(List.of(19), other.diff(tree));
+  }
+
+  @Test
+  void missingHashesOnOneSide() {
+    final HashTree<String> tree = filled(new ArrayMerkleTree<String>(16, HASH_STRATEGY));
+    final HashTree<String> other = new MutableMerkleTree<String>(16, HASH_STRATEGY);
+    for (int i = 0; i < 16; i++) {
+      if (i != 3 && i != 12) {
+        other.setValue(i, "v" + i);
+      }
+    }
+    assertEquals(List.of(3, 12), tree.diff(other));
+    assertEquals(List.of(3, 12), other.diff(tree));
+  }
+
+  @Test
+  void equalHashOfSubtreeHidesItsLeaves() {
+    final HashTree<String> tree = filled(new ArrayMerkleTree<String>(16, HASH_STRATEGY));
+    final HashTree<String> other = new ArrayMerkleTree<String>(16, HASH_STRATEGY);
+    // the node 4 is the root of the leaves 4 to 7
+    other.setHash(4, IndexedNodes.of(tree).getHash(4));
+    final List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 16; i++) {
+      if (i < 4 || i > 7) {
+        expected.add(i);
+      }
+    }
+    assertEquals(expected, tree.diff(other));
+    other.setHash(4, 42L);
+    assertEquals(16, tree.diff(other).size());
+  }
+
+  @Test
+  void randomTreesMatchLeafComparison() {
+    final Random random = new Random(13);
+    for (int i = 0; i < 200; i++) {
+      final int leaves = 1 << (1 + random.nextInt(6));
+      final HashTree<String> tree = new ArrayMerkleTree<String>(leaves, HASH_STRATEGY);
+      final HashTree<String> other = new MutableMerkleTree<String>(leaves, HASH_STRATEGY);
+      for (int j = 0; j < leaves; j++) {
+        final String value = random.nextInt(4) == 0 ? null : "v" + random.nextInt(3);
+        tree.setValue(j, value);
+        other.setValue(j, random.nextInt(3) == 0 ? "v" + random.nextInt(3) : value);
+      }
+      final IndexedNodes<?> nodes = IndexedNodes.of(tree);
+      final IndexedNodes<?> otherNodes = IndexedNodes.of(other);
+      final List<Integer> expected = new ArrayList<Integer>();
+      for (int j = 0; j < leaves; j++) {
+        final int index = leaves - 1 + j;
+        if (nodes.hasHash(index) != otherNodes.hasHash(index)
+            || nodes.hasHash(index) && nodes.getHash(index) != otherNodes.getHash(index)) {
+          expected.add(j);
+        }
+      }
+      assertEquals(expected, tree.diff(other));
+    }
+  }
+
+  @Test
+  void karyTreesAreComparedByTheirChildren() {
+    final HashTree<String> tree = filled(new KaryMerkleTree<String>(27, 3, HASH_STRATEGY));
+    final HashTree<String> other = filled(new KaryMerkleTree<String>(27, 3, HASH_STRATEGY));
+    assertEquals(List.of(), tree.diff(other));
+    other.setValue(13, "changed");
+    assertEquals(List.of(13), tree.diff(other));
+    other.setValue(13, null);
+    other.setValue(25, "changed");
+    assertEquals(List.of(13, 25), tree.diff(other));
+  }
+
+  @Test
+  void exactTreesAreComparedByTheirChildren() {
+    final HashTree<String> tree = filled(new ExactMerkleTree<String>(13, HASH_STRATEGY));
+    final HashTree<String> other = filled(new ExactMerkleTree<String>(13, HASH_STRATEGY));
+    assertEquals(List.of(), tree.diff(other));
+    // the last leaf is promoted up to the children of the root
+    other.setValue(12, "changed");
+    assertEquals(List.of(12), tree.diff(other));
+    other.setValue(3, "changed");
+    assertEquals(List.of(3, 12), tree.diff(other));
+    // a power of two leaves has the binary layout
+    assertEquals(List.of(), filled(new ExactMerkleTree<String>(16, HASH_STRATEGY))
+        .diff(filled(new ArrayMerkleTree<String>(16, HASH_STRATEGY))));
+  }
+
+  @Test
+  void differentShapesAreRejected() {
+    try {
+      new ArrayMerkleTree<String>(8).diff(new ArrayMerkleTree<String>(16));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // the leaves cannot be matched
+    }
+    try {
+      new ArrayMerkleTree<String>(16).diff(new KaryMerkleTree<String>(16, 4));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // the same leaves, but different inner nodes
+    }
+    try {
+      new ExactMerkleTree<String>(13).diff(new ArrayMerkleTree<String>(13));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // the array tree has 16 leaves
+    }
+  }
+
+  /** Helper method to give every leaf of a tree the value {@code "v" + position}. */
+  private static HashTree<String> filled(HashTree<String> tree) {
+    final int numberOfLeaves = IndexedNodes.of(tree).getLayout().getNumberOfLeaves();
+    for (int i = 0; i < numberOfLeaves; i++) {
+      tree.setValue(i, "v" + i);
+    }
+    return tree;
+  }
+
+}
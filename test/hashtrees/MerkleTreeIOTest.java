@@ -0,0 +1,144 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that trees written by {@link MerkleTreeIO} are read back unchanged and that corrupt input
+ * is rejected.
+ */
+class MerkleTreeIOTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  /**
+   * Converts strings to their UTF-8 bytes.
+   */
+  private static final ValueCodec<String> CODEC = new ValueCodec<String>() {
+
+    @Override
+    public byte[] encode(String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String decode(byte[] bytes) {
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  @Test
+  void mutableTreeRoundTrip() throws IOException {
+    final Random random = new Random(12);
+    for (int leaves : new int[] {2, 64, 65, 1000}) {
+      final MutableMerkleTree<String> tree = new MutableMerkleTree<String>(leaves, HASH_STRATEGY);
+      for (int i = 0; i < leaves; i += 1 + random.nextInt(3)) {
+        tree.setValue(i, "v" + random.nextInt());
+      }
+      tree.setHash(2, 42L);
+      final byte[] bytes = write(tree, CODEC);
+
+      final MutableMerkleTree<String> read =
+          MerkleTreeIO.readMutableTree(read(bytes), HASH_STRATEGY, CODEC);
+      assertEquals(tree.toString(), read.toString());
+      assertEquals(tree.getMissing(), read.getMissing());
+
+      final UnmodifiableMerkleTree<String> unmodifiable =
+          MerkleTreeIO.readUnmodifiableTree(read(bytes), HASH_STRATEGY, CODEC);
+      assertEquals(tree.toString(), unmodifiable.toString());
+    }
+  }
+
+  @Test
+  void hashesWithoutValues() throws IOException {
+    final ArrayMerkleTree<String> tree = new ArrayMerkleTree<String>(8, HASH_STRATEGY);
+    for (int i = 0; i < 8; i++) {
+      tree.setValue(i, "v" + i);
+    }
+    final byte[] bytes = write(tree, null);
+    final MutableMerkleTree<String> read =
+        MerkleTreeIO.readMutableTree(read(bytes), HASH_STRATEGY, null);
+    assertArrayEquals(bytes, write(read, null));
+    assertTrue(read.isConsistent());
+  }
+
+  @Test
+  void hostileValueLengthIsRejected() throws IOException {
+    final MutableMerkleTree<String> tree = new MutableMerkleTree<String>(2, HASH_STRATEGY);
+    tree.setValue(0, "a");
+    final byte[] bytes = write(tree, CODEC);
+    // the only value is the last byte, preceded by its length
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(bytes.length - 5, Integer.MAX_VALUE);
+    try {
+      MerkleTreeIO.readMutableTree(read(bytes), HASH_STRATEGY, CODEC);
+      fail();
+    } catch (IOException e) {
+      // the value is longer than the rest of the channel
+    }
+  }
+
+  @Test
+  void hostileHeightIsRejected() throws IOException {
+    final MutableMerkleTree<String> tree = new MutableMerkleTree<String>(2, HASH_STRATEGY);
+    tree.setValue(0, "a");
+    final byte[] bytes = write(tree, CODEC);
+    // the height follows the magic number and the version
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(12, 29);
+    try {
+      MerkleTreeIO.readMutableTree(read(bytes), HASH_STRATEGY, CODEC);
+      fail();
+    } catch (IOException e) {
+      // the nodes of the height end long before the tree would be complete
+    }
+  }
+
+  @Test
+  void otherDataIsRejected() {
+    try {
+      MerkleTreeIO.readMutableTree(read(new byte[100]), HASH_STRATEGY, null);
+      fail();
+    } catch (IOException e) {
+      // not a tree
+    }
+  }
+
+  @Test
+  void nonBinaryTreeIsRejected() throws IOException {
+    try {
+      write(new KaryMerkleTree<String>(9, 3, HASH_STRATEGY), null);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // the format only stores binary trees
+    }
+  }
+
+  /** Helper method to write a tree to an array. */
+  private static byte[] write(HashTree<String> tree, ValueCodec<String> codec) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MerkleTreeIO.write(tree, Channels.newChannel(out), codec);
+    return out.toByteArray();
+  }
+
+  /** Helper method to read from an array. */
+  private static ReadableByteChannel read(byte[] bytes) {
+    return Channels.newChannel(new ByteArrayInputStream(bytes));
+  }
+
+}
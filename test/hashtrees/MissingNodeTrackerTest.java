@@ -0,0 +1,166 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the nodes tracked by a {@link MissingNodeTracker} while hashes change are the nodes
+ * found by a search of the whole tree.
+ */
+class MissingNodeTrackerTest {
+
+  @Test
+  void emptyTreeNeedsAllLeaves() {
+    for (HashTree<String> tree : trees(4)) {
+      assertEquals(List.of(3, 4, 5, 6), tree.getMissing());
+    }
+  }
+
+  @Test
+  void hashOfSubtreeHidesItsNodes() {
+    for (HashTree<String> tree : trees(4)) {
+      tree.setValue(0, "a");
+      assertEquals(List.of(2, 4), tree.getMissing());
+      tree.setHash(2, 42L);
+      assertEquals(List.of(4), tree.getMissing());
+      tree.setValue(1, "b");
+      assertEquals(List.of(), tree.getMissing());
+    }
+  }
+
+  @Test
+  void trackedNodesMatchSearch() {
+    final Random random = new Random(5);
+    for (int i = 0; i < 300; i++) {
+      final int arity = 2 + random.nextInt(3);
+      final int height = 1 + random.nextInt(arity == 2 ? 6 : 3);
+      final NodeLayout layout =
+          arity == 2 ? NodeLayout.binary(height) : NodeLayout.kary(arity, height);
+      final BitSet hashedNodes = new BitSet();
+      final MissingNodeTracker tracker = new MissingNodeTracker(layout, hashedNodes);
+      for (int j = 0; j < 50; j++) {
+        if (random.nextInt(20) == 0) {
+          hashedNodes.clear();
+          tracker.reload();
+        } else {
+          final int index = 1 + random.nextInt(layout.getNumberOfNodes() - 1);
+          hashedNodes.flip(index);
+          tracker.update(index);
+        }
+        final List<Integer> expected = search(layout, hashedNodes);
+        assertEquals(expected, tracker.getMissing(), hashedNodes.toString());
+        assertEquals(expected.isEmpty(), tracker.isComplete());
+      }
+    }
+  }
+
+  @Test
+  void treesMatchSearch() {
+    final Random random = new Random(5);
+    for (int i = 0; i < 200; i++) {
+      checkRandomOperations(new MutableMerkleTree<String>(1 + random.nextInt(32)), random);
+      checkRandomOperations(new ArrayMerkleTree<String>(1 + random.nextInt(32)), random);
+      checkRandomOperations(
+          new KaryMerkleTree<String>(1 + random.nextInt(64), 2 + random.nextInt(4)), random);
+      checkRandomOperations(new ExactMerkleTree<String>(2 + random.nextInt(40)), random);
+    }
+  }
+
+  /** Helper method to create empty binary trees of all implementations using a tracker. */
+  private static List<HashTree<String>> trees(int leaves) {
+    return Arrays.<HashTree<String>>asList(new MutableMerkleTree<String>(leaves),
+        new ArrayMerkleTree<String>(leaves), new KaryMerkleTree<String>(leaves, 2));
+  }
+
+  /**
+   * Helper method to change a tree randomly and to compare its needed nodes with the ones of a
+   * search after every change.
+   */
+  private static void checkRandomOperations(HashTree<String> tree, Random random) {
+    final IndexedNodes<String> nodes = IndexedNodes.of(tree);
+    final NodeLayout layout = nodes.getLayout();
+    for (int i = 0; i < 50; i++) {
+      final int operation = random.nextInt(10);
+      if (operation == 0) {
+        tree.clear();
+      } else if (operation < 3) {
+        final int index = 1 + random.nextInt(layout.getNumberOfNodes() - 1);
+        try {
+          tree.setHash(index, random.nextLong());
+        } catch (IllegalArgumentException e) {
+          // the leaf has a value
+        }
+      } else {
+        final int position = random.nextInt(layout.getNumberOfLeaves());
+        tree.setValue(position, random.nextInt(4) == 0 ? null : "v" + random.nextInt());
+      }
+      final BitSet hashedNodes = new BitSet();
+      for (int index = 0; index < layout.getNumberOfNodes(); index++) {
+        if (nodes.hasHash(index)) {
+          hashedNodes.set(index);
+        }
+      }
+      final List<Integer> expected = search(layout, hashedNodes);
+      assertEquals(expected, tree.getMissing(), tree.toString());
+      assertEquals(expected.isEmpty(), tree.isReady());
+    }
+  }
+
+  /** Helper method to find the needed nodes by recursively applying the rules. */
+  private static List<Integer> search(NodeLayout layout, BitSet hashedNodes) {
+    final List<Integer> result = new ArrayList<Integer>();
+    // the hash of the root does not hide its children
+    final int firstChild = layout.getFirstChild(0);
+    boolean emptyTree = true;
+    for (int child = firstChild; child < firstChild + layout.getNumberOfChildren(0); child++) {
+      emptyTree &= isEmpty(layout, hashedNodes, child);
+    }
+    if (emptyTree) {
+      for (int i = layout.getFirstLeafIndex(); i < layout.getNumberOfNodes(); i++) {
+        result.add(i);
+      }
+      return result;
+    }
+    for (int child = firstChild; child < firstChild + layout.getNumberOfChildren(0); child++) {
+      search(layout, hashedNodes, child, result);
+    }
+    result.sort(null);
+    return result;
+  }
+
+  /** Helper method for {@link #search(NodeLayout, BitSet)}. */
+  private static void search(NodeLayout layout, BitSet hashedNodes, int index,
+      List<Integer> result) {
+    if (hashedNodes.get(index)) {
+      return;
+    } else if (layout.getNumberOfChildren(index) == 0 || isEmpty(layout, hashedNodes, index)) {
+      result.add(index);
+      return;
+    }
+    final int firstChild = layout.getFirstChild(index);
+    for (int child = firstChild; child < firstChild + layout.getNumberOfChildren(index); child++) {
+      search(layout, hashedNodes, child, result);
+    }
+  }
+
+  /** Helper method to check that no node of the subtree below a node has a hash. */
+  private static boolean isEmpty(NodeLayout layout, BitSet hashedNodes, int index) {
+    if (hashedNodes.get(index)) {
+      return false;
+    }
+    final int firstChild = layout.getFirstChild(index);
+    for (int child = firstChild; child < firstChild + layout.getNumberOfChildren(index); child++) {
+      if (!isEmpty(layout, hashedNodes, child)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
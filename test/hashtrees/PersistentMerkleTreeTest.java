@@ -0,0 +1,200 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the versions of a {@link PersistentMerkleTree} equal a {@link MutableMerkleTree} that
+ * has seen the same changes, that old versions never change, and that a new version shares every
+ * subtree that was not changed.
+ */
+class PersistentMerkleTreeTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void versionsMatchMutableTree() {
+    final Random random = new Random(10);
+    for (int i = 0; i < 100; i++) {
+      final int leaves = 1 + random.nextInt(64);
+      final MutableMerkleTree<String> expected =
+          new MutableMerkleTree<String>(leaves, HASH_STRATEGY);
+      PersistentMerkleTree<String> tree = new PersistentMerkleTree<String>(leaves, HASH_STRATEGY);
+      final int height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leaves));
+      final int numberOfNodes = (2 << height) - 1;
+      final List<PersistentMerkleTree<String>> versions =
+          new ArrayList<PersistentMerkleTree<String>>();
+      final List<String> descriptions = new ArrayList<String>();
+      for (int j = 0; j < 40; j++) {
+        if (random.nextInt(4) == 0) {
+          final int index = 1 + random.nextInt(numberOfNodes - 1);
+          final long hash = random.nextLong();
+          try {
+            tree = tree.withHash(index, hash);
+            expected.setHash(index, hash);
+          } catch (IllegalArgumentException e) {
+            // the leaf has a value
+          }
+        } else {
+          final int position = random.nextInt(1 << height);
+          final String value = random.nextInt(4) == 0 ? null : "v" + random.nextInt();
+          tree = tree.withValue(position, value);
+          expected.setValue(position, value);
+        }
+        assertEquals(expected.toString(), tree.toString());
+        assertEquals(expected.getMissing(), tree.getMissing());
+        assertEquals(expected.isConsistent(), tree.isConsistent());
+        versions.add(tree);
+        descriptions.add(tree.toString());
+      }
+      versions.add(tree.cleared());
+      for (int j = 0; j < descriptions.size(); j++) {
+        assertEquals(descriptions.get(j), versions.get(j).toString());
+      }
+    }
+  }
+
+  @Test
+  void batchesMatchMutableTree() {
+    final Random random = new Random(12);
+    for (int i = 0; i < 100; i++) {
+      final int leaves = 1 + random.nextInt(64);
+      final MutableMerkleTree<String> expected =
+          new MutableMerkleTree<String>(leaves, HASH_STRATEGY);
+      PersistentMerkleTree<String> tree = new PersistentMerkleTree<String>(leaves, HASH_STRATEGY);
+      final int height = Math.max(1, MutableMerkleTree.getExponentOfNextPowerOfTwo(leaves));
+      for (int batch = 0; batch < 10; batch++) {
+        if (random.nextInt(4) == 0) {
+          final int index = 1 + random.nextInt((2 << height) - 2);
+          final long hash = random.nextLong();
+          try {
+            tree = tree.withHash(index, hash);
+            expected.setHash(index, hash);
+          } catch (IllegalArgumentException e) {
+            // the leaf has a value
+          }
+        }
+        final Map<Integer, String> values = new HashMap<Integer, String>();
+        for (int j = random.nextInt(16); j > 0; j--) {
+          values.put(random.nextInt(1 << height),
+              random.nextInt(4) == 0 ? null : "v" + random.nextInt());
+        }
+        final PersistentMerkleTree<String> previous = tree;
+        final String description = previous.toString();
+        tree = tree.withValues(values);
+        expected.setValues(values);
+        assertEquals(expected.toString(), tree.toString());
+        assertEquals(expected.getMissing(), tree.getMissing());
+        assertEquals(expected.isConsistent(), tree.isConsistent());
+        assertEquals(description, previous.toString());
+      }
+    }
+  }
+
+  @Test
+  void rejectedBatchCreatesNoVersion() {
+    final PersistentMerkleTree<String> tree = new PersistentMerkleTree<String>(8, HASH_STRATEGY);
+    final Map<Integer, String> values = new HashMap<Integer, String>();
+    values.put(0, "a");
+    values.put(8, "b");
+    try {
+      tree.withValues(values);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // the position 8 does not exist
+    }
+  }
+
+  @Test
+  void clearedVersionKeepsOnlyTheRoot() {
+    PersistentMerkleTree<String> tree = new PersistentMerkleTree<String>(4, HASH_STRATEGY);
+    for (int i = 0; i < 4; i++) {
+      tree = tree.withValue(i, "v" + i);
+    }
+    final String before = tree.toString();
+    final PersistentMerkleTree<String> cleared = tree.cleared();
+    assertEquals(before, tree.toString());
+    assertEquals(List.of(3, 4, 5, 6), cleared.getMissing());
+    PersistentMerkleTree<String> refilled = cleared;
+    PersistentMerkleTree<String> changed = cleared;
+    for (int i = 0; i < 4; i++) {
+      refilled = refilled.withValue(i, "v" + i);
+      changed = changed.withValue(i, "w" + i);
+    }
+    // the root hash was kept, so only the old values match it
+    assertTrue(refilled.isConsistent());
+    assertFalse(changed.isConsistent());
+  }
+
+  @Test
+  void unchangedSubtreesAreShared() throws ReflectiveOperationException {
+    PersistentMerkleTree<String> tree = new PersistentMerkleTree<String>(16, HASH_STRATEGY);
+    for (int i = 0; i < 16; i++) {
+      tree = tree.withValue(i, "v" + i);
+    }
+    final PersistentMerkleTree<String> changed = tree.withValue(5, "changed");
+    // the path to the leaf 5 is left, right, left, right
+    Object oldNode = root(tree);
+    Object newNode = root(changed);
+    for (boolean right : new boolean[] {false, true, false, true}) {
+      assertNotSame(oldNode, newNode);
+      assertSame(child(oldNode, !right), child(newNode, !right));
+      oldNode = child(oldNode, right);
+      newNode = child(newNode, right);
+    }
+    assertNotSame(oldNode, newNode);
+  }
+
+  @Test
+  void batchSharesUnchangedSubtrees() throws ReflectiveOperationException {
+    PersistentMerkleTree<String> tree = new PersistentMerkleTree<String>(16, HASH_STRATEGY);
+    for (int i = 0; i < 16; i++) {
+      tree = tree.withValue(i, "v" + i);
+    }
+    final Map<Integer, String> values = new HashMap<Integer, String>();
+    values.put(4, "changed");
+    values.put(5, "changed");
+    final PersistentMerkleTree<String> changed = tree.withValues(values);
+    // the leaves 4 and 5 share the path left, right, left
+    Object oldNode = root(tree);
+    Object newNode = root(changed);
+    for (boolean right : new boolean[] {false, true, false}) {
+      assertNotSame(oldNode, newNode);
+      assertSame(child(oldNode, !right), child(newNode, !right));
+      oldNode = child(oldNode, right);
+      newNode = child(newNode, right);
+    }
+    assertNotSame(child(oldNode, false), child(newNode, false));
+    assertNotSame(child(oldNode, true), child(newNode, true));
+  }
+
+  /** Helper method to read the root node of a version. */
+  private static Object root(PersistentMerkleTree<?> tree) throws ReflectiveOperationException {
+    final Field field = PersistentMerkleTree.class.getDeclaredField("root");
+    field.setAccessible(true);
+    return field.get(tree);
+  }
+
+  /** Helper method to read a child of a node. */
+  private static Object child(Object node, boolean right) throws ReflectiveOperationException {
+    final Field field = node.getClass().getDeclaredField(right ? "right" : "left");
+    field.setAccessible(true);
+    return field.get(node);
+  }
+
+}
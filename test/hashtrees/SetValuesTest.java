@@ -0,0 +1,95 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link HashTree#setValues(Map)} changes a tree like the same values set one by one,
+ * that it is atomic with respect to the root, and that a rejected batch changes nothing.
+ */
+class SetValuesTest {
+
+  @Test
+  void batchesMatchSingleValues() {
+    final Random random = new Random(3);
+    for (int i = 0; i < 100; i++) {
+      final int leaves = 2 + random.nextInt(63);
+      final List<HashTree<String>> batched = trees(leaves);
+      final List<HashTree<String>> single = trees(leaves);
+      for (int batch = 0; batch < 10; batch++) {
+        final Map<Integer, String> values = new HashMap<Integer, String>();
+        for (int j = random.nextInt(16); j > 0; j--) {
+          // the last leaf is never set, so no root hash is pinned while the values are set, and
+          // no value is removed, as the hashes above a removed value depend on the order
+          values.put(random.nextInt(leaves - 1), "v" + random.nextInt());
+        }
+        for (int t = 0; t < batched.size(); t++) {
+          batched.get(t).setValues(values);
+          for (Map.Entry<Integer, String> entry : values.entrySet()) {
+            single.get(t).setValue(entry.getKey(), entry.getValue());
+          }
+          assertEquals(single.get(t).toString(), batched.get(t).toString());
+          assertEquals(single.get(t).getMissing(), batched.get(t).getMissing());
+        }
+      }
+    }
+  }
+
+  @Test
+  void batchIsAtomicWithRespectToTheRoot() {
+    final Map<Integer, String> values = new HashMap<Integer, String>();
+    for (int i = 0; i < 4; i++) {
+      values.put(i, "v" + i);
+    }
+    for (HashTree<String> tree : trees(4)) {
+      // the hash of the last leaf completes the tree as soon as the other leaves have values
+      tree.setHash(6, 5L);
+      tree.setValues(values);
+      assertTrue(tree.isConsistent());
+    }
+    for (HashTree<String> tree : trees(4)) {
+      tree.setHash(6, 5L);
+      for (Map.Entry<Integer, String> entry : values.entrySet()) {
+        tree.setValue(entry.getKey(), entry.getValue());
+      }
+      // the root was pinned before the last value was set
+      assertFalse(tree.isConsistent());
+    }
+  }
+
+  @Test
+  void rejectedBatchChangesNothing() {
+    for (HashTree<String> tree : trees(8)) {
+      tree.setValue(1, "a");
+      final String before = tree.toString();
+      final Map<Integer, String> values = new LinkedHashMap<Integer, String>();
+      values.put(0, "b");
+      values.put(8, "c");
+      values.put(1, null);
+      try {
+        tree.setValues(values);
+        fail();
+      } catch (IndexOutOfBoundsException e) {
+        // the position 8 does not exist
+      }
+      assertEquals(before, tree.toString());
+    }
+  }
+
+  /** Helper method to create empty trees of all implementations overriding the batch. */
+  private static List<HashTree<String>> trees(int leaves) {
+    return Arrays.<HashTree<String>>asList(new MutableMerkleTree<String>(leaves),
+        new ArrayMerkleTree<String>(leaves));
+  }
+
+}
@@ -0,0 +1,56 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the digest of a thread used by {@link HashStrategies#sha256()} stays clean if a value
+ * cannot be turned into text.
+ */
+class Sha256HashStrategyTest {
+
+  /**
+   * The hash functions under test.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.sha256();
+
+  @Test
+  void failingToStringDoesNotChangeLaterHashes() {
+    final long expected = HASH_STRATEGY.hashLeaf("a");
+    try {
+      HASH_STRATEGY.hashLeaf(new Object() {
+
+        @Override
+        public String toString() {
+          throw new IllegalStateException();
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals(expected, HASH_STRATEGY.hashLeaf("a"));
+  }
+
+  @Test
+  void failingHashableDoesNotChangeLaterHashes() {
+    final long expected = HASH_STRATEGY.hashLeaf("a");
+    try {
+      HASH_STRATEGY.hashLeaf(new Hashable() {
+
+        @Override
+        public void appendTo(StringBuilder text) {
+          text.append("partial");
+          throw new IllegalStateException();
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals(expected, HASH_STRATEGY.hashLeaf("a"));
+  }
+
+}
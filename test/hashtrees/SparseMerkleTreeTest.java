@@ -0,0 +1,91 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link SparseMerkleTree} behaves like an {@link ArrayMerkleTree} that receives the
+ * same changes, and that large capacities are usable.
+ */
+class SparseMerkleTreeTest {
+
+  /**
+   * The hash functions of all trees.
+   */
+  private static final HashStrategy HASH_STRATEGY = HashStrategies.fast();
+
+  @Test
+  void randomChangesMatchArrayTree() {
+    final Random random = new Random(16);
+    for (int tree = 0; tree < 200; tree++) {
+      final int leaves = 1 + random.nextInt(64);
+      final SparseMerkleTree<String> sparse = new SparseMerkleTree<String>(leaves, HASH_STRATEGY);
+      final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(leaves, HASH_STRATEGY);
+      final int numberOfLeaves = 1 << IndexedNodes.of(expected).getHeight();
+      final int numberOfNodes = 2 * numberOfLeaves - 1;
+      final String[] leafValues = new String[numberOfLeaves];
+      for (int i = 0; i < 40; i++) {
+        final int operation = random.nextInt(10);
+        if (operation == 0) {
+          sparse.clear();
+          expected.clear();
+          Arrays.fill(leafValues, null);
+        } else if (operation < 3) {
+          final int index = 1 + random.nextInt(numberOfNodes - 1);
+          final long hash = random.nextLong();
+          if (index < numberOfNodes - numberOfLeaves
+              || leafValues[index - numberOfNodes + numberOfLeaves] == null) {
+            sparse.setHash(index, hash);
+            expected.setHash(index, hash);
+          }
+        } else if (operation < 5) {
+          final Map<Integer, String> values = new HashMap<Integer, String>();
+          for (int j = random.nextInt(8); j > 0; j--) {
+            values.put(random.nextInt(numberOfLeaves),
+                random.nextInt(4) == 0 ? null : "v" + random.nextInt());
+          }
+          sparse.setValues(values);
+          expected.setValues(values);
+          for (Map.Entry<Integer, String> entry : values.entrySet()) {
+            leafValues[entry.getKey()] = entry.getValue();
+          }
+        } else {
+          final int position = random.nextInt(numberOfLeaves);
+          final String value = random.nextInt(4) == 0 ? null : "v" + random.nextInt();
+          sparse.setValue(position, value);
+          expected.setValue(position, value);
+          leafValues[position] = value;
+        }
+        assertEquals(expected.toString(), sparse.toString());
+        assertEquals(expected.getMissing(), sparse.getMissing());
+        assertEquals(expected.isReady(), sparse.isReady());
+        assertEquals(List.of(), sparse.diff(expected));
+      }
+    }
+  }
+
+  @Test
+  void largeCapacityWithFewLeaves() {
+    final SparseMerkleTree<String> tree = new SparseMerkleTree<String>(1 << 30, HASH_STRATEGY);
+    tree.setValue(0, "first");
+    tree.setValue((1 << 30) - 1, "last");
+    final List<Integer> missing = tree.getMissing();
+    // the siblings of both paths below the children of the root
+    assertEquals(2 * 29, missing.size());
+    for (int index : missing) {
+      tree.setHash(index, index);
+    }
+    assertTrue(tree.isReady());
+    assertTrue(tree.isConsistent());
+    assertTrue(tree.proof(0).verify(IndexedNodes.of(tree).getHash(0), Map.of(0, "first"),
+        HASH_STRATEGY));
+  }
+
+}
@@ -0,0 +1,49 @@
+package hashtrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that trees created by a {@link SubtreeCreationTask} in parallel, i.e. above the height 12,
+ * have the same hashes and missing nodes as trees created on a single thread and as an
+ * {@link ArrayMerkleTree} with the same values.
+ */
+class SubtreeCreationTaskTest {
+
+  @Test
+  void emptyTreesMatchArrayTree() {
+    for (int height : new int[] {1, 12, 13, 15}) {
+      final MutableMerkleTree<String> tree = new MutableMerkleTree<String>(1 << height);
+      final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(1 << height);
+      assertEquals(expected.toString(), tree.toString());
+      assertEquals(expected.getMissing(), tree.getMissing());
+    }
+  }
+
+  @Test
+  void filledTreesMatchArrayTree() {
+    for (int height : new int[] {1, 12, 13, 15}) {
+      // some leaves stay empty, so the missing nodes are not trivial
+      for (int size : new int[] {1 << height, (1 << height) - 3, (1 << (height - 1)) + 1}) {
+        final Queue<String> data = new ArrayDeque<String>();
+        final Map<Integer, String> values = new HashMap<Integer, String>();
+        for (int i = 0; i < size; i++) {
+          data.add("v" + i);
+          values.put(i, "v" + i);
+        }
+        final UnmodifiableMerkleTree<String> tree =
+            new UnmodifiableMerkleTree<String>(height, null, data);
+        final ArrayMerkleTree<String> expected = new ArrayMerkleTree<String>(1 << height);
+        expected.setValues(values);
+        assertEquals(expected.toString(), tree.toString());
+        assertEquals(expected.getMissing(), tree.getMissing());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,135 @@
+package userinterface;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that every connection to a {@link ShellServer} gets a session of its own.
+ */
+class ShellServerTest {
+
+  @Test
+  void concurrentSessionsHaveTheirOwnTrees() throws Exception {
+    try (ShellServer server = new ShellServer(0)) {
+      final Thread acceptor = start(server);
+      try (Client first = new Client(server.getPort());
+          Client second = new Client(server.getPort())) {
+        assertEquals("merkle> ", first.readPrompt());
+        assertEquals("merkle> ", second.readPrompt());
+        assertEquals("check> ", first.send("new_check 4 7"));
+        assertEquals("check> ", second.send("new_check 8 7"));
+        assertEquals("build> ", first.send("new 5"));
+        assertEquals("[7,8,9,10,11,12,13,14]\ncheck> ", second.send("ready?"));
+        assertEquals("check> ", first.send("new_check 2 0"));
+        assertEquals("check> ", second.send("set_hash 1 3"));
+        assertEquals("[1,2]\ncheck> ", first.send("ready?"));
+        assertEquals("[2]\ncheck> ", second.send("ready?"));
+        assertEquals("", first.send("quit"));
+        assertEquals("[2]\ncheck> ", second.send("ready?"));
+        assertEquals("", second.send("quit"));
+        assertEquals(-1, first.in.read());
+        assertEquals(-1, second.in.read());
+      }
+      server.close();
+      acceptor.join();
+    }
+  }
+
+  @Test
+  void closingTheServerEndsRunningSessions() throws Exception {
+    final ShellServer server = new ShellServer(0);
+    final Thread acceptor = start(server);
+    try (Client client = new Client(server.getPort())) {
+      assertEquals("merkle> ", client.readPrompt());
+      assertEquals("check> ", client.send("new_check 4 7"));
+      server.close();
+      acceptor.join();
+      assertEquals(-1, client.in.read());
+    }
+  }
+
+  @Test
+  void sessionsCannotCreateHugeTrees() throws Exception {
+    try (ShellServer server = new ShellServer(0)) {
+      final Thread acceptor = start(server);
+      try (Client client = new Client(server.getPort())) {
+        assertEquals("merkle> ", client.readPrompt());
+        assertEquals("Error! Maximum size is " + ShellServer.MAX_CAPACITY + ".\nmerkle> ",
+            client.send("new_check 2000000000 0"));
+        assertEquals("check> ", client.send("new_check " + ShellServer.MAX_CAPACITY + " 0"));
+      }
+      server.close();
+      acceptor.join();
+    }
+  }
+
+  /** Helper method to accept connections on another thread until the server is closed. */
+  private static Thread start(final ShellServer server) {
+    final Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          server.serve();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    acceptor.start();
+    return acceptor;
+  }
+
+  /**
+   * A connection to a shell session.
+   */
+  private static final class Client implements AutoCloseable {
+
+    private final Socket socket;
+
+    private final Reader in;
+
+    private final Writer out;
+
+    Client(int port) throws IOException {
+      this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      this.in = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+      this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    /** Sends a command and returns its output up to the next prompt. */
+    String send(String command) throws IOException {
+      out.write(command + "\n");
+      out.flush();
+      return readPrompt();
+    }
+
+    /** Reads the output up to the next prompt or the end of the session. */
+    String readPrompt() throws IOException {
+      final StringBuilder output = new StringBuilder();
+      while (output.length() < 2 || output.charAt(output.length() - 2) != '>'
+          || output.charAt(output.length() - 1) != ' ') {
+        final int c = in.read();
+        if (c == -1) {
+          break;
+        }
+        output.append((char) c);
+      }
+      return output.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+}
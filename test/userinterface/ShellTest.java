@@ -0,0 +1,127 @@
+package userinterface;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the shell prints exactly what the original shell printed for a command script that
+ * switches between all modes.
+ */
+class ShellTest {
+
+  /**
+   * The commands of the script, one per line.
+   */
+  private static final String[] SCRIPT = {
+      "help",
+      "foo",
+      "new 1",
+      "new 5",
+      "push Cylinder(1,2)",
+      "push Sphere(1)",
+      "push Cuboid(1,2)",
+      "clear",
+      "push Cuboid(1,2,3)",
+      "new_check 4 7",
+      "ready?",
+      "set_val 3 Cylinder(2,3)",
+      "set_val 9 Cylinder(2,3)",
+      "set_hash 0 5",
+      "set_hash 2 -1",
+      "set_hash 2 x",
+      "ready?",
+      "check",
+      "set_hash 2 11",
+      "set_hash 6 1",
+      "ready?",
+      "new_check 1 0",
+      "push Cylinder(1,1)",
+      "new 3",
+      "push Cylinder(1,1)",
+      "ready?",
+      "new_check 2 0",
+      "set_val 0 Cuboid(1,1,1)",
+      "ready?",
+      "SET_VAL 1 Cuboid(2,2,2)",
+      "ready?",
+      "quit"};
+
+  /**
+   * The output of the original shell for the script, prompts included.
+   */
+  private static final String[] EXPECTED_OUTPUT = {
+      "merkle> All possible commands in current mode:",
+      "",
+      "new <capacity>: Creates a new HashTree.",
+      "",
+      "new_check <capacity> <root hash>: Creates a new HashTree and sets the root hash.",
+      "",
+      "help: Prints this help text.",
+      "",
+      "quit: Exits this programm.",
+      "",
+      "merkle> Error! This command does not exist in this mode.",
+      "merkle> Error! Minimum size is 2.",
+      "merkle> build> build> Error! Inserting this type of object is not allowed.",
+      "build> Error! Invalid input, wrong parameters: Cuboid(1,2).",
+      "build> build> build> check> [3,4,5,6]",
+      "check> check> Error! No valid index: 9.",
+      "check> Error! Root hash cannot be changed.",
+      "check> Error! No valid input:  Negative numbers are not allowed.",
+      "check> Error! Invalid input. That was no number.",
+      "check> [1,5]",
+      "check> Error! Check is currently not available.",
+      "check> check> Error! This node has a value, thus the hash cannot be changed.",
+      "check> [1]",
+      "check> Error! Minimum size is 2.",
+      "merkle> Error! This command does not exist in this mode.",
+      "merkle> build> build> Error! This command does not exist in this mode.",
+      "build> check> check> [2]",
+      "check> check> READY!",
+      "check> "};
+
+  @Test
+  void interactiveOutputMatchesOriginalShell() throws IOException {
+    assertEquals(String.join("\n", EXPECTED_OUTPUT), run(true));
+  }
+
+  @Test
+  void batchOutputHasNoPrompts() throws IOException {
+    final String expected =
+        String.join("\n", EXPECTED_OUTPUT).replaceAll("(merkle|build|check)> ", "");
+    assertEquals(expected, run(false));
+  }
+
+  @Test
+  void numbersBeyondTheLimitsAreRejected() throws IOException {
+    final String script = String.join("\n", "new 99999999999", "new_check 100 0",
+        "new_check 4 0", "set_val 99999999999 Cuboid(1,2,3)", "set_hash 99999999999 5",
+        "set_val 0 Cylinder(99999999999,1)", "ready?") + "\n";
+    final StringWriter output = new StringWriter();
+    new Shell(new BufferedReader(new StringReader(script)), new PrintWriter(output), false, 64)
+        .run();
+    final String expected = String.join("\n",
+        "Error! No valid input: 99999999999 is no number up to 2147483647.",
+        "Error! Maximum size is 64.",
+        "Error! No valid input: 99999999999 is no number up to 2147483647.",
+        "Error! No valid input: 99999999999 is no number up to 2147483647.",
+        "Error! No valid input: 99999999999 is no number up to 2147483647.", "[3,4,5,6]", "");
+    assertEquals(expected, output.toString().replace(System.lineSeparator(), "\n"));
+  }
+
+  /** Helper method to run the script in a new shell and return its output. */
+  private static String run(boolean interactive) throws IOException {
+    final StringWriter output = new StringWriter();
+    final BufferedReader input =
+        new BufferedReader(new StringReader(String.join("\n", SCRIPT) + "\n"));
+    new Shell(input, new PrintWriter(output), interactive).run();
+    return output.toString().replace(System.lineSeparator(), "\n");
+  }
+
+}